@@ -119,9 +119,9 @@ public class BundleCreator {
 
     private String mBundleNameText;
     private final List<SelectedBitmap> mSelectedBitmaps;
+    private ImageDuplicateIndex mDuplicateIndex;
     private int mDisplayedImageIndex;
     private boolean mFillingImageData;
-    private BitmapUtil.ByteBufferHolder mBuffer;
     private boolean mSaving;
     private int mSaveResult;
     private boolean mApplyToOthersStateRemoveConnection;
@@ -129,7 +129,6 @@ public class BundleCreator {
     public BundleCreator(Activity activity) {
         mSaveResult = ImageXmlWriter.RESULT_NONE;
         mActivity = activity;
-        mBuffer = new BitmapUtil.ByteBufferHolder();
         mSelectedBitmaps = new ArrayList<>();
         LayoutInflater inflater = (LayoutInflater) activity.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         mView = inflater.inflate(R.layout.workshop_bundle_creator, null);
@@ -859,6 +858,8 @@ public class BundleCreator {
             }
         }
         new AsyncTask<Uri, SelectedBitmap, Void>() {
+            private int mSkippedDuplicates;
+
             @Override
             public void onPreExecute() {
                 ensureTempDirectory();
@@ -908,7 +909,7 @@ public class BundleCreator {
 
                                 Bitmap bitmap = ImageUtil.loadBitmap(input, IMAGE_MAX_WIDTH, IMAGE_MAX_HEIGHT, BitmapUtil.MODE_FIT_NO_GROW);
                                 if (ImageUtil.saveToFile(bitmap, bitmapFileInTemp, null, COMPRESSION)) {
-                                    publishProgress(new SelectedBitmap(bitmap, bitmapFileInTemp, sizeKB, mBuffer));
+                                    publishIfNoDuplicate(new SelectedBitmap(bitmap, bitmapFileInTemp, sizeKB));
                                 }
                             } else {
                                 File path = new File(picturePath);
@@ -919,7 +920,7 @@ public class BundleCreator {
                                 File targetPath = new File(mTempDirectory, bitmapName);
                                 Bitmap bitmap = ImageUtil.loadBitmap(path, IMAGE_MAX_WIDTH, IMAGE_MAX_HEIGHT, BitmapUtil.MODE_FIT_NO_GROW);
                                 if (ImageUtil.saveToFile(bitmap, targetPath, null, COMPRESSION)) {
-                                    publishProgress(new SelectedBitmap(bitmap, targetPath, sizeKB, mBuffer));
+                                    publishIfNoDuplicate(new SelectedBitmap(bitmap, targetPath, sizeKB));
                                 }
                             }
                             cursor.moveToNext();
@@ -935,6 +936,22 @@ public class BundleCreator {
                 return null;
             }
 
+            private void publishIfNoDuplicate(SelectedBitmap selected) {
+                if (selected.mBuilder.hasPerceptualHash()) {
+                    ImageDuplicateIndex index = getDuplicateIndex();
+                    String hash = selected.mBuilder.getHash();
+                    long perceptualHash = selected.mBuilder.getPerceptualHash();
+                    String duplicate = index.findDuplicate(hash, perceptualHash);
+                    if (duplicate != null) {
+                        Log.d("HomeStuff", "Skipping selected image " + selected + ", near duplicate of " + duplicate);
+                        mSkippedDuplicates++;
+                        return;
+                    }
+                    index.add(hash, perceptualHash);
+                }
+                publishProgress(selected);
+            }
+
             @Override
             public void onProgressUpdate(SelectedBitmap... bitmap) {
                 if (!isImageSelected(bitmap[0].mPathInTemp.getAbsolutePath())) {
@@ -955,6 +972,9 @@ public class BundleCreator {
                 if (mBitmapsSelectCount <= 0) {
                     mBitmapsSelectProgress.setVisibility(View.INVISIBLE);
                 }
+                if (mSkippedDuplicates > 0) {
+                    Toast.makeText(mActivity, mActivity.getResources().getString(R.string.bundle_creator_duplicates_skipped, mSkippedDuplicates), Toast.LENGTH_LONG).show();
+                }
                 applyOrigin();
                 fillSelectedBitmapsData();
                 updateStatus();
@@ -978,6 +998,14 @@ public class BundleCreator {
         }
     }
 
+    // the index of all known images and all selected images, loaded on first use
+    private synchronized ImageDuplicateIndex getDuplicateIndex() {
+        if (mDuplicateIndex == null) {
+            mDuplicateIndex = ImageDuplicateIndex.loadFromDatabase(mActivity);
+        }
+        return mDuplicateIndex;
+    }
+
     private boolean isImageSelected(String pathInTemp) {
         synchronized (mSelectedBitmaps) {
             for (SelectedBitmap bitmap : mSelectedBitmaps) {
@@ -1006,9 +1034,9 @@ public class BundleCreator {
         private AsyncTask<Void, Void, Void> mLoadSnapshotTask;
         public Bitmap mSnapshot;
 
-        public SelectedBitmap(Bitmap bitmap, File imagePath, int sizeKB, BitmapUtil.ByteBufferHolder buffer) {
+        public SelectedBitmap(Bitmap bitmap, File imagePath, int sizeKB) {
             mBuilder = new Image.Builder();
-            mBuilder.calculateHashAndPreferences(buffer, bitmap);
+            mBuilder.calculateHashAndPreferences(bitmap);
             mBuilder.setRelativeImagePath(User.extractRelativePathInsideTempDirectory(imagePath));
             mPathInTemp = imagePath;
             mEstimatedSizeKB = sizeKB;
@@ -39,9 +39,10 @@ import dan.dit.whatsthat.storage.ImagesContentProvider;
 import dan.dit.whatsthat.util.general.BuildException;
 import dan.dit.whatsthat.util.compaction.CompactedDataCorruptException;
 import dan.dit.whatsthat.util.compaction.Compacter;
+import dan.dit.whatsthat.util.image.BitmapAnalysis;
 import dan.dit.whatsthat.util.image.BitmapUtil;
-import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.Dimension;
+import dan.dit.whatsthat.util.image.DiskBitmapCache;
 import dan.dit.whatsthat.util.image.ExternalStorage;
 import dan.dit.whatsthat.util.image.ImageUtil;
 import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
@@ -79,6 +80,8 @@ public class Image implements MosaicTile<String> {
     private List<RiddleType> mPreferredRiddleTypes; // can be null
     private List<RiddleType> mRefusedRiddleTypes; // can be null
     private int mAverageColor = NO_AVERAGE_COLOR; // average color of the bitmap
+    private long mPerceptualHash; // only valid if mHasPerceptualHash
+    private boolean mHasPerceptualHash;
 
     private Image() {}
 
@@ -129,6 +132,9 @@ public class Image implements MosaicTile<String> {
         cv.put(ImageTable.COLUMN_OBFUSCATION, mIsObfuscated);
         cv.put(ImageTable.COLUMN_ORIGIN, mOrigin);
         cv.put(ImageTable.COLUMN_AVERAGE_COLOR, mAverageColor);
+        if (mHasPerceptualHash) {
+            cv.put(ImageTable.COLUMN_PERCEPTUAL_HASH, mPerceptualHash);
+        }
 
         // one of mResId or mResPath is valid
         if (mResId != 0) {
@@ -186,6 +192,10 @@ public class Image implements MosaicTile<String> {
         builder.setOrigin(cursor.getString(cursor.getColumnIndexOrThrow(ImageTable.COLUMN_ORIGIN)));
         builder.setObfuscation(cursor.getInt(cursor.getColumnIndexOrThrow(ImageTable.COLUMN_OBFUSCATION)));
         builder.setAverageColor(cursor.getInt(cursor.getColumnIndexOrThrow(ImageTable.COLUMN_AVERAGE_COLOR)));
+        int perceptualHashIndex = cursor.getColumnIndex(ImageTable.COLUMN_PERCEPTUAL_HASH);
+        if (perceptualHashIndex != -1 && !cursor.isNull(perceptualHashIndex)) {
+            builder.setPerceptualHash(cursor.getLong(perceptualHashIndex));
+        }
 
         // solutions
         for (String sol : new Compacter(cursor.getString(cursor.getColumnIndexOrThrow(ImageTable.COLUMN_SOLUTIONS)))) {
@@ -215,7 +225,7 @@ public class Image implements MosaicTile<String> {
 
         Image result = null;
         try {
-            result = builder.build(context, null);
+            result = builder.build(context);
         } catch (BuildException be) {
             Log.e("Image", "Failed loading image with hash "  + hash + " from database. Building failed.");
         }
@@ -303,6 +313,29 @@ public class Image implements MosaicTile<String> {
         }
     }
 
+    /**
+     * Loads the bitmap like loadBitmap(Context, Dimension, boolean) but first looks into the
+     * disk cache of scaled images. A freshly loaded bitmap is stored in the disk cache so the
+     * next session does not need to decode and scale it again.
+     * @param context The context.
+     * @param reqDimension The requested dimension.
+     * @param enforceDimension If the bitmap must have exactly the requested dimension.
+     * @return A new bitmap owned by the caller or null if loading failed.
+     */
+    public Bitmap loadBitmapCached(Context context, Dimension reqDimension, boolean enforceDimension) {
+        DiskBitmapCache diskCache = ImageUtil.CACHE.getDiskCache(context);
+        String key = DiskBitmapCache.makeKey(mHash, reqDimension.getWidth(), reqDimension.getHeight(),
+                enforceDimension);
+        Bitmap result = diskCache.get(key);
+        if (result == null) {
+            result = loadBitmap(context, reqDimension, enforceDimension);
+            if (result != null) {
+                diskCache.put(key, result);
+            }
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return mName + ":" + mHash;
@@ -343,6 +376,23 @@ public class Image implements MosaicTile<String> {
         return mAverageColor;
     }
 
+    /**
+     * Checks if the perceptual hash of this image is known. Images from older databases
+     * or bundles do not have one.
+     * @return If getPerceptualHash() is valid.
+     */
+    public boolean hasPerceptualHash() {
+        return mHasPerceptualHash;
+    }
+
+    /**
+     * The perceptual hash of the image's bitmap, similar for images that look alike.
+     * @return The perceptual hash, only valid if hasPerceptualHash().
+     */
+    public long getPerceptualHash() {
+        return mPerceptualHash;
+    }
+
     @Override
     @NonNull
     public String getSource() {
@@ -375,31 +425,26 @@ public class Image implements MosaicTile<String> {
         }
 
         private static final Dimension EMPTY_DIMENSION = new Dimension(0, 0);
-        private void calculateHashAndPreferences(Context context, BitmapUtil.ByteBufferHolder buffer) {
+        private void calculateHashAndPreferences(Context context) {
             Bitmap image = mImage.loadBitmap(context, EMPTY_DIMENSION, false);
-            calculateHashAndPreferences(buffer, image);
+            calculateHashAndPreferences(image);
         }
 
-        protected void calculateHashAndPreferences(BitmapUtil.ByteBufferHolder buffer, Bitmap image) {
+        protected void calculateHashAndPreferences(Bitmap image) {
             if (image != null) {
-                BitmapUtil.extractDataFromBitmap(buffer, image);
-                byte[] bytes = buffer.array();
-                if (bytes != null) {
-                    mImage.mHash = ImageUtil.getHash(bytes);
+                BitmapAnalysis analysis = BitmapAnalysis.analyze(image);
+                if (analysis.getHash() != null) {
+                    mImage.mHash = analysis.getHash();
                 }
-                calculateAverageColor(image);
+                mImage.mAverageColor = analysis.getAverageColor();
+                setPerceptualHash(analysis.getPerceptualHash());
                 addOwnFormatAsPreference(image);
-                addOwnContrastAsPreference(image);
-                addOwnGreynessAsPreference(image);
+                addOwnContrastAsPreference(analysis.getContrast());
+                addOwnGreynessAsPreference(analysis.getGreyness());
             }
         }
 
-        private void calculateAverageColor(Bitmap image) {
-            mImage.mAverageColor = ColorAnalysisUtil.getAverageColor(image);
-        }
-
-        private void addOwnGreynessAsPreference(Bitmap image) {
-            double greyness = BitmapUtil.calculateGreyness(image);
+        private void addOwnGreynessAsPreference(double greyness) {
             if (greyness <= BitmapUtil.GREYNESS_STRONG_THRESHOLD) {
                 addPreferredRiddleType(ContentRiddleType.GREY_VERY_INSTANCE);
             } else if (greyness > BitmapUtil.GREYNESS_MEDIUM_THRESHOLD) {
@@ -446,8 +491,7 @@ public class Image implements MosaicTile<String> {
             }
         }
 
-        private void addOwnContrastAsPreference(Bitmap bitmap) {
-            double contrast = BitmapUtil.calculateContrast(bitmap);
+        private void addOwnContrastAsPreference(double contrast) {
             if (BitmapUtil.CONTRAST_STRONG_THRESHOLD > contrast && contrast >= BitmapUtil.CONTRAST_WEAK_THRESHOLD) {
                 addPreferredRiddleType(ContentRiddleType.CONTRAST_MEDIUM_INSTANCE);
             } else if (BitmapUtil.CONTRAST_STRONG_THRESHOLD <= contrast) {
@@ -490,6 +534,22 @@ public class Image implements MosaicTile<String> {
             return this;
         }
 
+        public Builder setPerceptualHash(String perceptualHash) {
+            if (!TextUtils.isEmpty(perceptualHash)) {
+                try {
+                    setPerceptualHash(Long.parseLong(perceptualHash));
+                } catch (NumberFormatException nfe) {
+                    mImage.mHasPerceptualHash = false;
+                }
+            }
+            return this;
+        }
+
+        public void setPerceptualHash(long perceptualHash) {
+            mImage.mPerceptualHash = perceptualHash;
+            mImage.mHasPerceptualHash = true;
+        }
+
         public Builder addSolution(Solution solution) {
             if (mImage.mSolutions == null) {
                 mImage.mSolutions = new LinkedList<>();
@@ -554,13 +614,13 @@ public class Image implements MosaicTile<String> {
             return mImage;
         }
 
-        public Image build(Context context, BitmapUtil.ByteBufferHolder buffer) throws BuildException {
+        public Image build(Context context) throws BuildException {
             if (TextUtils.isEmpty(mImage.mHash)) {
                 if (context == null) {
                     throw new BuildException("Source: " + mImage.mName).setMissingData("Image", "No context and no hash.");
                 }
                 Log.d("Image", "Building image with no hash yet: " + mImage.mName + " solutions " + mImage.mSolutions);
-                calculateHashAndPreferences(context, buffer);
+                calculateHashAndPreferences(context);
             }
             build();
 
@@ -579,6 +639,18 @@ public class Image implements MosaicTile<String> {
             return mImage.mAuthor;
         }
 
+        protected String getHash() {
+            return mImage.mHash;
+        }
+
+        protected boolean hasPerceptualHash() {
+            return mImage.mHasPerceptualHash;
+        }
+
+        protected long getPerceptualHash() {
+            return mImage.mPerceptualHash;
+        }
+
         public String getOrigin() {
             return mImage.mOrigin;
         }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.image;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.List;
+
+import dan.dit.whatsthat.storage.ImageTable;
+import dan.dit.whatsthat.storage.ImagesContentProvider;
+import dan.dit.whatsthat.util.general.BKTree;
+
+/**
+ * Index of the perceptual hashes of images to detect near duplicates like re-encoded or resized
+ * copies of an image that are already known. Images are still identified by their md5 hash,
+ * a near duplicate is an image with a similar perceptual hash but a different md5 hash.
+ * Images without a perceptual hash are never considered duplicates.<br>
+ * The index can be used by multiple threads.
+ */
+public class ImageDuplicateIndex {
+    /**
+     * The maximum hamming distance of two perceptual hashes to consider the images duplicates.
+     */
+    public static final int MAX_DUPLICATE_DISTANCE = 4;
+
+    private final BKTree<String> mHashes = new BKTree<>();
+
+    /**
+     * Creates an index of all images in the database that have a perceptual hash.
+     * @param context The context.
+     * @return The new index, empty if the database could not be queried.
+     */
+    public static ImageDuplicateIndex loadFromDatabase(Context context) {
+        ImageDuplicateIndex index = new ImageDuplicateIndex();
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(ImagesContentProvider.CONTENT_URI_IMAGE,
+                    new String[] {ImageTable.COLUMN_HASH, ImageTable.COLUMN_PERCEPTUAL_HASH},
+                    ImageTable.COLUMN_PERCEPTUAL_HASH + " is not null", null, null);
+            if (cursor != null) {
+                int hashIndex = cursor.getColumnIndexOrThrow(ImageTable.COLUMN_HASH);
+                int perceptualHashIndex = cursor.getColumnIndexOrThrow(ImageTable.COLUMN_PERCEPTUAL_HASH);
+                while (cursor.moveToNext()) {
+                    index.add(cursor.getString(hashIndex), cursor.getLong(perceptualHashIndex));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e("Image", "Could not load duplicate index from database: " + e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        Log.d("Image", "Loaded duplicate index of " + index.size() + " images.");
+        return index;
+    }
+
+    /**
+     * Adds the given image if it has a perceptual hash.
+     * @param image The image to add.
+     */
+    public void add(Image image) {
+        if (image != null && image.hasPerceptualHash()) {
+            add(image.getHash(), image.getPerceptualHash());
+        }
+    }
+
+    /**
+     * Adds the image with the given hashes.
+     * @param hash The md5 hash of the image.
+     * @param perceptualHash The perceptual hash of the image.
+     */
+    public synchronized void add(String hash, long perceptualHash) {
+        if (hash != null) {
+            mHashes.add(perceptualHash, hash);
+        }
+    }
+
+    /**
+     * Finds a near duplicate of the given image.
+     * @param image The image to check.
+     * @return The md5 hash of an indexed near duplicate or null if there is none.
+     */
+    public String findDuplicate(Image image) {
+        if (image == null || !image.hasPerceptualHash()) {
+            return null;
+        }
+        return findDuplicate(image.getHash(), image.getPerceptualHash());
+    }
+
+    /**
+     * Finds a near duplicate of the image with the given hashes.
+     * @param hash The md5 hash of the image, an indexed image with the same hash is no duplicate.
+     * @param perceptualHash The perceptual hash of the image.
+     * @return The md5 hash of an indexed near duplicate or null if there is none.
+     */
+    public synchronized String findDuplicate(String hash, long perceptualHash) {
+        List<String> candidates = mHashes.find(perceptualHash, MAX_DUPLICATE_DISTANCE);
+        for (String candidate : candidates) {
+            if (!candidate.equals(hash)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the amount of indexed images.
+     * @return The index size.
+     */
+    public synchronized int size() {
+        return mHashes.size();
+    }
+}
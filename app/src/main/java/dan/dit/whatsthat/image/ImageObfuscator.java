@@ -22,10 +22,18 @@ import android.graphics.Color;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import dan.dit.whatsthat.preferences.Language;
 import dan.dit.whatsthat.preferences.Tongue;
@@ -36,19 +44,33 @@ import dan.dit.whatsthat.solution.Solution;
 import dan.dit.whatsthat.util.general.BuildException;
 import dan.dit.whatsthat.util.compaction.CompactedDataCorruptException;
 import dan.dit.whatsthat.util.compaction.Compacter;
-import dan.dit.whatsthat.util.image.BitmapUtil;
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.Dimension;
 import dan.dit.whatsthat.util.image.ExternalStorage;
 import dan.dit.whatsthat.util.image.FixedRandom;
 import dan.dit.whatsthat.util.image.ImageUtil;
-
+import dan.dit.whatsthat.util.image.PixelRaster;
+import dan.dit.whatsthat.util.image.ReversibleRandom;
+
+/**
+ * Hides an image behind a logo so it can be shared without spoiling the riddle. The obfuscated
+ * image is one pixel bigger on every side, the border holds the metadata needed to register the
+ * image on another device.<br>
+ * Version 1 stores the metadata as hex digits in the border pixels and shuffles the pixels with
+ * one random transposition per pixel. Version 2 stores the metadata as raw bytes behind a length
+ * and checksum header and shuffles the pixels with a Fisher-Yates shuffle that can be reverted
+ * without extra memory. New images are created with version 2, both versions can be restored.
+ */
 public class ImageObfuscator {
     public static final int IS_OBFUSCATED_HINT = 0x00000001; // not stored in pixel, do not start with FF
 	private static final double BRIGHTNESS_THRESHOLD = 0.5; // threshold when a pixel is considered to be bright
     private static final int VERSION_1 = 0xFF000001;
-	private static final int VERSION_NUMBER = VERSION_1; // Version number the hidden image was created with, stored in pixel, start with FF!!
+    private static final int VERSION_2 = 0xFF000002;
+	private static final int VERSION_NUMBER = VERSION_2; // Version number the hidden image was created with, stored in pixel, start with FF!!
 	private static final int HIDDEN_IMAGE_IDENTIFIER_ID = 0xFFFDCDAD; // random identifier to tell if this (probably) was a valid hidden image, stored in pixel, start with FF!!
+    private static final int PERMUTATION_SEED = 0x5EED1337; // seed of the version 2 shuffle, never change
+    private static final int METADATA_HEADER_BYTES = 8; // version 2: length and checksum of the metadata
+    private static final Charset METADATA_CHARSET = Charset.forName("UTF-8");
     private static final int RESULT_REGISTRATION_FAILED_INVALID_ID = -1;
     private static final int RESULT_REGISTRATION_FAILED_NOT_RESTORABLE = -2;
     private static final int RESULT_REGISTRATION_FAILED_COULDNT_SAVE_IMAGE_1 = -3;
@@ -61,25 +83,72 @@ public class ImageObfuscator {
     public static final int RESULT_REGISTRATION_SUCCESS_WITH_RIDDLE = 1;
     public static final String FILE_EXTENSION = ".wte.png"; // needs also to be changed in manifest, but better never change
 
+    // the data stored in the border of an obfuscated image, empty strings if not available
+    private static class Metadata {
+        private String mHash = "";
+        private String mWords = "";
+        private String mOriginAuthor = "";
+        private String mSolutionInputData = "";
+
+        private byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            try {
+                writeString(output, mHash);
+                writeString(output, mWords);
+                writeString(output, mOriginAuthor);
+                writeString(output, mSolutionInputData);
+                output.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Writing to memory failed: " + e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static Metadata fromBytes(byte[] data) throws IOException {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            Metadata metadata = new Metadata();
+            metadata.mHash = readString(input);
+            metadata.mWords = readString(input);
+            metadata.mOriginAuthor = readString(input);
+            metadata.mSolutionInputData = readString(input);
+            return metadata;
+        }
+
+        private static void writeString(DataOutputStream output, String value) throws IOException {
+            byte[] bytes = value.getBytes(METADATA_CHARSET);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
 
-    private static void addMetadataToImage(PracticalRiddleType preferredType, int[][] raster) {
+        private static String readString(DataInputStream input) throws IOException {
+            int length = input.readInt();
+            if (length < 0 || length > input.available()) {
+                throw new IOException("Illegal string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return new String(bytes, METADATA_CHARSET);
+        }
+    }
+
+    private static void addMetadataToImage(PracticalRiddleType preferredType, int[] pixels, int
+            width, int height) {
 		// corner pixels are unused and can be used to store some data, use full alpha so there is no bit
         // of information lost for the color bits!
 		
 		//Version number
-		raster[0][0] = VERSION_NUMBER;
+		pixels[0] = VERSION_NUMBER;
 		
 		//id to identify it 'really' is a hidden image created by this program
-		raster[raster.length-1][raster[0].length-1] = HIDDEN_IMAGE_IDENTIFIER_ID;
+		pixels[width * height - 1] = HIDDEN_IMAGE_IDENTIFIER_ID;
 
         // if available, the preferred type to play this image with
         if (preferredType != null) {
-            raster[0][raster[0].length - 1] = 0xFF000000 | preferredType.getId();
+            pixels[width - 1] = 0xFF000000 | preferredType.getId();
         } else {
-            raster[0][raster[0].length - 1] = 0xFF000000 | PracticalRiddleType.NO_ID;
+            pixels[width - 1] = 0xFF000000 | PracticalRiddleType.NO_ID;
         }
-
-
 	}
 
     public static String toHex(String arg) {
@@ -90,68 +159,135 @@ public class ImageObfuscator {
         return new String(new BigInteger(hex, 16).toByteArray());
     }
 
-    private static String getHexFromRaster(int[][] raster, int startRow, int lastRow, int startColumn, int lastColumn) {
-        String result = ""; // cannot use a string builder as we need to add letters before current string
-        final int count = (lastRow - startRow + 1) * (lastColumn - startColumn + 1);
-        int row = startRow;
-        int column = startColumn;
-        for (int i = 0; i < count; i++) {
-            int number = raster[row][column];
+    // version 1: reads the hex digits stored in 12 bits of the given pixels, the first pixel holds the last digits
+    private static String getHexFromPixels(int[] pixels, int width, int startRow, int lastRow, int
+            startColumn, int lastColumn) {
+        final int columns = lastColumn - startColumn + 1;
+        final int count = (lastRow - startRow + 1) * columns;
+        StringBuilder result = new StringBuilder(count * 3);
+        for (int i = count - 1; i >= 0; i--) {
+            int number = pixels[(startRow + i / columns) * width + startColumn + i % columns];
             String asHex = Integer.toHexString(number & 0xFFFFFF);
             for (int j = asHex.length(); j < 3; j++) {
-                asHex = "0" + asHex; // leading zeros might have been cut, so add them before
-            }
-            result = asHex + result;
-            if (column < lastColumn) {
-                column++;
-            } else {
-                column = startColumn;
-                row++;
+                result.append('0'); // leading zeros might have been cut, so add them before
             }
+            result.append(asHex);
         }
-        return result;
+        return result.toString();
     }
 
-    private static boolean addHexToRaster(String hex, int[][] raster, int startRow, int lastRow, int startColumn, int lastColumn) {
-        int currIndex = hex.length();
+    private static Metadata readMetadataVersion1(int[] pixels, int width, int height) {
+        Metadata metadata = new Metadata();
+        metadata.mHash = getHexFromPixels(pixels, width, 1, height - 2, 0, 0);
+        metadata.mWords = convertHexToString(getHexFromPixels(pixels, width, 1, height - 2,
+                width - 1, width - 1));
+        metadata.mOriginAuthor = convertHexToString(getHexFromPixels(pixels, width, 0, 0, 1,
+                width - 2));
+        metadata.mSolutionInputData = convertHexToString(getHexFromPixels(pixels, width,
+                height - 1, height - 1, 1, width - 2));
+        return metadata;
+    }
 
-        final int count = (lastRow - startRow + 1) * (lastColumn - startColumn + 1);
-        int row = startRow;
-        int column = startColumn;
-        for (int i = 0; i < count; i++) {
-            int currNumber = 0xFF000000;
-            raster[row][column] = currNumber; // clear pixel
-            if (currIndex > 0) {
-                int endIndex = currIndex;
-                currIndex = Math.max(endIndex - 3, 0);
-                // at most 24 bits that fit into the RGB part of the raster pixels
-                currNumber |= Integer.parseInt(hex.substring(currIndex, endIndex), 16);
-                raster[row][column] = currNumber;
-                if (column < lastColumn) {
-                    column++;
-                } else {
-                    column = startColumn;
-                    row++;
-                }
-            }
+    // version 2: all border pixels but the corners used for version, identifier and preferred type
+    // store 3 bytes of metadata each in their color channels
+    private static int[] getMetadataPixelIndices(int width, int height) {
+        int[] indices = new int[2 * width + 2 * height - 7];
+        int index = 0;
+        for (int x = 1; x < width - 1; x++) {
+            indices[index++] = x; // top row
+        }
+        for (int x = 0; x < width - 1; x++) {
+            indices[index++] = (height - 1) * width + x; // bottom row
         }
-        // if currIndex>0 hash longer than image raster, we cannot fit the hash into the pixels
-        return currIndex <= 0;
+        for (int y = 1; y < height - 1; y++) {
+            indices[index++] = y * width; // left column
+            indices[index++] = y * width + width - 1; // right column
+        }
+        return indices;
     }
 
-    private static boolean addImagedataToImage(Image image, int[][] raster, String
-            solutionInputData) {
+    private static boolean writeMetadataVersion2(Metadata metadata, int[] pixels, int width, int
+            height) {
+        byte[] body = metadata.toBytes();
+        int[] indices = getMetadataPixelIndices(width, height);
+        if (METADATA_HEADER_BYTES + body.length > indices.length * 3) {
+            return false;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(body);
+        byte[] data = ByteBuffer.allocate(METADATA_HEADER_BYTES + body.length)
+                .putInt(body.length)
+                .putInt((int) checksum.getValue())
+                .put(body)
+                .array();
+        for (int index : indices) {
+            pixels[index] = 0xFF000000; // clear pixel
+        }
+        for (int i = 0; i < data.length; i++) {
+            pixels[indices[i / 3]] |= (data[i] & 0xFF) << (16 - 8 * (i % 3));
+        }
+        return true;
+    }
 
+    private static byte[] readMetadataBytes(int[] pixels, int[] indices, int offset, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int byteIndex = offset + i;
+            data[i] = (byte) (pixels[indices[byteIndex / 3]] >> (16 - 8 * (byteIndex % 3)));
+        }
+        return data;
+    }
+
+    // returns null if the metadata is corrupt
+    private static Metadata readMetadataVersion2(int[] pixels, int width, int height) {
+        int[] indices = getMetadataPixelIndices(width, height);
+        final int capacity = indices.length * 3;
+        if (capacity < METADATA_HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(readMetadataBytes(pixels, indices, 0,
+                METADATA_HEADER_BYTES));
+        final int length = header.getInt();
+        final int expectedChecksum = header.getInt();
+        if (length < 0 || length > capacity - METADATA_HEADER_BYTES) {
+            Log.e("Image", "Illegal obfuscated metadata length " + length);
+            return null;
+        }
+        byte[] body = readMetadataBytes(pixels, indices, METADATA_HEADER_BYTES, length);
+        CRC32 checksum = new CRC32();
+        checksum.update(body);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            Log.e("Image", "Obfuscated metadata checksum mismatch.");
+            return null;
+        }
+        try {
+            return Metadata.fromBytes(body);
+        } catch (IOException e) {
+            Log.e("Image", "Obfuscated metadata corrupt: " + e);
+            return null;
+        }
+    }
+
+    // returns null for unknown versions or corrupt metadata
+    private static Metadata readMetadata(int[] pixels, int width, int height) {
+        switch (extractMetadataFromImageVersionNumber(pixels)) {
+            case VERSION_1:
+                return readMetadataVersion1(pixels, width, height);
+            case VERSION_2:
+                return readMetadataVersion2(pixels, width, height);
+            default:
+                return null;
+        }
+    }
+
+    private static Metadata makeMetadata(Image image, String solutionInputData) {
         // 1. HASH:
         String hash = image.getHash(); // very important info as this identifies the image (if already known to recipient)
         if (hash == null) {
-            return false; // illegal image
-        }
-        Log.d("Image", "Adding imagedata for image with hash " + hash + " and raster size " + raster.length + " on " + raster[0].length);
-        if (!addHexToRaster(hash, raster, 1, raster.length - 2, 0, 0)) {
-            Log.d("Image", "Failed adding hash to raster: " + hash);
-            return false;
+            return null; // illegal image
         }
+        Metadata metadata = new Metadata();
+        metadata.mHash = hash;
 
         // 2. SOLUTION WORD IN USER LANGUAGE (or any available language):
         Tongue tongue = Language.getInstance().getTongue();
@@ -161,64 +297,57 @@ public class ImageObfuscator {
         for (String word : solution.getWords()) {
             wordsCmp.appendData(word);
         }
-        String words = wordsCmp.compact();
-        String wordsHex = toHex(words);
-        if (!addHexToRaster(wordsHex, raster, 1, raster.length - 2, raster[0].length - 1, raster[0].length - 1)) {
-            Log.d("Image", "Failed adding wordsHex to raster: " + wordsHex);
-            return false;
-        }
+        metadata.mWords = wordsCmp.compact();
 
         // 3. IMAGE ORIGIN AND AUTHOR (at least the name, maybe source)
         ImageAuthor author = image.getAuthor();
         Compacter imageOriginAuthorCmp = new Compacter(2);
         imageOriginAuthorCmp.appendData(image.getOrigin());
         imageOriginAuthorCmp.appendData(author.compact());
-        String imageOriginAuthorHex = toHex(imageOriginAuthorCmp.compact());
-        if (!addHexToRaster(imageOriginAuthorHex, raster, 0, 0, 1, raster[0].length - 2)) {
-            Log.d("Image", "Failed adding authorHex to raster: " + imageOriginAuthorHex);
-            // but we do not fail in this case
-        } else {
-            Log.d("Image", "Added imageoriginauthor data: " + imageOriginAuthorCmp);
-        }
+        metadata.mOriginAuthor = imageOriginAuthorCmp.compact();
 
         // 4. SOLUTION DATA (so that the same solution input is created for everyone)
-        // if something is given we need to add all, no partial data allowed
         if (!TextUtils.isEmpty(solutionInputData)) {
-            String solutionDataHex = toHex(solutionInputData);
-            if (!addHexToRaster(solutionDataHex, raster, raster.length - 1, raster.length - 1, 1, raster[0].length - 2)) {
-                Log.d("Image", "Failed adding solutionInputData to raster: " + solutionDataHex);
-                return false;
-            }
+            metadata.mSolutionInputData = solutionInputData;
         }
-        return true;
+        return metadata;
     }
 
-	private static int extractMetadataFromImagePreferredRiddle(int[][] raster) {
-        return raster[0][raster[0].length - 1] & 0xFFFFFF;
+	private static int extractMetadataFromImagePreferredRiddle(int[] pixels, int width) {
+        return pixels[width - 1] & 0xFFFFFF;
     }
 
-	private static int extractMetadataFromImageVersionNumber(int[][] raster) {
-		return raster[0][0];
+	private static int extractMetadataFromImageVersionNumber(int[] pixels) {
+		return pixels[0];
 	}
 	
-	private static int extractMetadataFromImageIdentifierId(int[][] raster) {
-		return raster[raster.length-1][raster[0].length-1]; // fixed indices
+	private static int extractMetadataFromImageIdentifierId(int[] pixels, int width, int height) {
+		return pixels[width * height - 1]; // fixed indices
 	}
 
     public static int registerObfuscated(Context context, Bitmap obfuscated, String obfuscatedFileName) {
-        if (context == null || obfuscated == null) {
+        if (context == null || obfuscated == null || obfuscated.getWidth() < 3 || obfuscated
+                .getHeight() < 3) {
             return RESULT_REGISTRATION_FAILED;
         }
-        int[][] raster = new int[obfuscated.getHeight()][obfuscated.getWidth()];
-        for (int x = 0; x < obfuscated.getWidth(); x++) {
-            for (int y = 0; y < obfuscated.getHeight(); y++) {
-                raster[y][x] = obfuscated.getPixel(x, y);
-            }
-        }
-        int id = extractMetadataFromImageIdentifierId(raster);
+        final int width = obfuscated.getWidth();
+        final int height = obfuscated.getHeight();
+        PixelRaster raster = PixelRaster.obtain(obfuscated);
+        final int[] pixels = raster.getPixels();
+        int id = extractMetadataFromImageIdentifierId(pixels, width, height);
         if (id != HIDDEN_IMAGE_IDENTIFIER_ID) {
+            raster.release();
             return RESULT_REGISTRATION_FAILED_INVALID_ID;
         }
+        int obfuscationVersionId = extractMetadataFromImageVersionNumber(pixels);
+        int preferredRiddleId = extractMetadataFromImagePreferredRiddle(pixels, width);
+        Metadata metadata = readMetadata(pixels, width, height);
+        // restoring reuses the raster, so the metadata needs to be read before
+        Bitmap restored = metadata == null ? null : restoreImage(raster, obfuscated.getConfig());
+        raster.release();
+        if (restored == null) {
+            return RESULT_REGISTRATION_FAILED_NOT_RESTORABLE;
+        }
         if (TextUtils.isEmpty(obfuscatedFileName)) {
             obfuscatedFileName = "-_" + System.currentTimeMillis();
         }
@@ -229,18 +358,16 @@ public class ImageObfuscator {
         } else {
             riddleOrigin = "-";
         }
-        String solutionInputData = convertHexToString(getHexFromRaster(raster, raster.length - 1,
-                raster.length - 1, 1, raster[0].length - 2));
+        String solutionInputData = metadata.mSolutionInputData;
 
-        Compacter imageOriginAndAuthorCmp = new Compacter(convertHexToString(getHexFromRaster
-                (raster, 0, 0, 1, raster[0].length - 2)));
-        Log.d("Image", "READ IMAGEORIGINANDAUTHOR DATA: " + imageOriginAndAuthorCmp);
+        Compacter imageOriginAndAuthorCmp = new Compacter(metadata.mOriginAuthor);
+        Log.d("Image", "READ IMAGEORIGINANDAUTHOR DATA: " + imageOriginAndAuthorCmp + " for hash "
+                + metadata.mHash);
         String imageOrigin = imageOriginAndAuthorCmp.getSize() == 0 ? Image
                 .ORIGIN_IS_EXTERNAL_OBFUSCATED : imageOriginAndAuthorCmp.getData(0);
         String authorData = imageOriginAndAuthorCmp.getSize() <= 1 ? "" : imageOriginAndAuthorCmp
                 .getData(1);
 
-        int preferredRiddleId = extractMetadataFromImagePreferredRiddle(raster);
         PracticalRiddleType preferredType = null;
         for (PracticalRiddleType type : PracticalRiddleType.ALL_PLAYABLE_TYPES) {
             if (type.getId() == preferredRiddleId) {
@@ -262,12 +389,8 @@ public class ImageObfuscator {
             return RESULT_REGISTRATION_FAILED_COULDNT_SAVE_IMAGE_3;
         }
 
-        Bitmap restored = restoreImage(obfuscated);
-        if (restored == null) {
-            return RESULT_REGISTRATION_FAILED_NOT_RESTORABLE;
-        }
         Image.Builder builder = new Image.Builder();
-        builder.calculateHashAndPreferences(new BitmapUtil.ByteBufferHolder(), restored);
+        builder.calculateHashAndPreferences(restored);
         if (preferredType != null) {
             builder.addPreferredRiddleType(preferredType);
         }
@@ -281,7 +404,7 @@ public class ImageObfuscator {
             Log.e("Image", "Compacted author data from raster corrupt: " + e);
         }
 
-        Compacter cmp = new Compacter(convertHexToString(getHexFromRaster(raster, 1, raster.length - 2, raster[0].length - 1, raster[0].length - 1)));
+        Compacter cmp = new Compacter(metadata.mWords);
         if (cmp.getSize() == 0) {
             cmp.appendData(Tongue.ENGLISH.getShortcut());
         }
@@ -295,7 +418,6 @@ public class ImageObfuscator {
         }
         builder.addSolution(new Solution(tongue, words));
 
-        int obfuscationVersionId = extractMetadataFromImageVersionNumber(raster);
         builder.setObfuscation(obfuscationVersionId);
         builder.setRelativeImagePath(obfuscatedFileName);
         builder.setOrigin(imageOrigin);
@@ -351,111 +473,147 @@ public class ImageObfuscator {
         }
         Log.d("Image", "Making hidden: " + image + " origin " + image.getOrigin() + " obfuscation " + image.getObfuscation()
                 + " solutions " + image.getSolutions() + " author " + image.getAuthor());
+        Metadata metadata = makeMetadata(image, solutionInputData);
+        if (metadata == null) {
+            return null;
+        }
 
-        Bitmap logo = logoSource.getSized(original.getWidth(), original.getHeight());
-
-		int hiddenHeight = original.getHeight() + 2;
-        int hiddenWidth = original.getWidth() + 2;
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final int count = width * height;
+        Bitmap logo = logoSource.getSized(width, height);
 		//extract image data for easier working
-		int[][] raster = new int[hiddenHeight][hiddenWidth];
-		for (int x=0;x<original.getWidth();x++) {
-			for (int y=0;y<original.getHeight();y++) {
-				raster[y + 1][x + 1]=original.getPixel(x, y);
-			}
-		}
+        PixelRaster raster = PixelRaster.obtain(original);
+        final int[] pixels = raster.getPixels();
+        PixelRaster logoRaster = PixelRaster.obtain(logo);
+        final int[] logoPixels = logoRaster.getPixels();
 		
 		// do the transformation, we loose very little information and do not need to save a bigger picture for it
 		// the extra lines are for the purpose of storing identifying and metadata if needed
 		
-		// Step1: Fixed permutation, one transposition for each pixel of the original image
-		FixedRandom random = new FixedRandom();
-		for (int y=1;y<raster.length - 1;y++) {
-			for (int x=1;x<raster[y].length - 1;x++) {
-				int currRGB = raster[y][x];
-				int tarX=random.next(raster[y].length - 3) + 1; // x in [1,image width - 1]
-				int tarY=random.next(raster.length - 3) + 1; // y in [1, image height - 1]
-				raster[y][x]=raster[tarY][tarX];
-				raster[tarY][tarX]=currRGB;
-			}
-		}	
+		// Step1: Fixed permutation of all pixels of the original image
+        shuffle(pixels, count);
 		
 		//Step2: Make all pixels not in the logo darker and the logo pixel brighter
-		for (int y=1;y<raster.length - 1;y++) {
-			for (int x=1;x<raster[y].length - 1;x++) {
-				int rgb = raster[y][x];
-				int logoRgb=logo.getPixel(x - 1, y - 1);
-				int red = Color.red(rgb);
-				int green = Color.green(rgb);
-				int blue = Color.blue(rgb);
-				int alpha = Color.alpha(rgb);
-				
-				//Make some assumptions to improve and allow us to manipulate the image without needing much extra memory.
-				// We will lose the 4 least significant bits for alpha, we cannot use other colors since Bitmaps store these values
-                // in premultiplied alpha format, which will make getPixel(setPixel(rgb)) != rgb because of rounding errors.
-                // Additional bits can be sacrificed to get the alpha even higher or to adjust the greyness of the pixels, but this results
-                // in restored obfuscated images with lots of different alpha to become significantly different from their original image.
-				alpha = (alpha/8)*8+7; // assume alpha mod 8 == 7 (to leave 255 (no alpha) the same)!!
-
-                 //increase alpha as much as possible with mostly having a delta of 4 to the original image and leaving alpha=255 as is
-                // stores information in bits 1 and 2 of alpha
-                int alphaFactor = 3-alpha/64; // 0, 1, 2 or 3
-                alpha += alphaFactor * 64 - alphaFactor;
-				
-				/*//Move the color by the line 64/128/256 (arbitary multiples of 2) and maximize the greyness to get a better contrast
-				// for images with pixels that have strong colors and little grey; stores information in bit4 of alpha
-				int maxGreynessIndex = 0;
-				double maxGreyness = Double.MAX_VALUE;
-				for (int i=0; i < 2; i++) {
-					double greyness = ColorAnalysisUtil.getGreyness(red + 64*i, green + 128*i, blue);
-					if (greyness < maxGreyness) {
-						maxGreynessIndex = i;
-						maxGreyness = greyness;
-					}
-				}
-				red+=(64*maxGreynessIndex)%256;red%=256;
-				green+=(128*maxGreynessIndex)%256;green%=256;
-				//blue+=(256*maxGreynessIndex)%256;blue%=256;
-				alpha-= 8*maxGreynessIndex;
-                */
-
-                // make the logo by changing pixel brightness accordingly, storing this information in bit3 of alpha
-				raster[y][x]=rgb=ColorAnalysisUtil.toRGB(red, green, blue, alpha);
-				boolean pixelVeryBright = ColorAnalysisUtil.getBrightnessNoAlpha(rgb) > BRIGHTNESS_THRESHOLD;
-				boolean insideLogo = ColorAnalysisUtil.getBrightnessWithAlpha(logoRgb) <= logoSource.getThreshold();
-				if ((!pixelVeryBright && insideLogo)
-						|| (pixelVeryBright && !insideLogo)) {
-					// It is a pixel of the logo and it currently is too dark or
-					// it is a pixel not in the logo and it is too bright
-					red = 255 - red;
-					green = 255 - green;
-					blue = 255 - blue;
-                    alpha -= 4;
-				}
-
-				raster[y][x] = ColorAnalysisUtil.toRGB(red, green, blue, alpha);
-			}
-		}
+        final double logoThreshold = logoSource.getThreshold();
+        for (int i = 0; i < count; i++) {
+            pixels[i] = hidePixel(pixels[i], logoPixels[i], logoThreshold);
+        }
 		
 		// end transformation
+        logoRaster.release();
+
+        final int hiddenWidth = width + 2;
+        final int hiddenHeight = height + 2;
+        PixelRaster hiddenRaster = PixelRaster.obtain(hiddenWidth, hiddenHeight);
+        final int[] hiddenPixels = hiddenRaster.getPixels();
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width, hiddenPixels, (y + 1) * hiddenWidth + 1, width);
+        }
+        raster.release();
 		
 		// include the metadata
-		addMetadataToImage(prefferedType, raster);
-        if (!addImagedataToImage(image, raster, solutionInputData)) {
-            return null;
+		addMetadataToImage(prefferedType, hiddenPixels, hiddenWidth, hiddenHeight);
+        if (!writeMetadataVersion2(metadata, hiddenPixels, hiddenWidth, hiddenHeight)) {
+            // the author is optional, drop it if all data does not fit into the border
+            Log.d("Image", "Failed adding author data to raster: " + metadata.mOriginAuthor);
+            metadata.mOriginAuthor = "";
+            if (!writeMetadataVersion2(metadata, hiddenPixels, hiddenWidth, hiddenHeight)) {
+                Log.d("Image", "Failed adding metadata to raster for " + image);
+                hiddenRaster.release();
+                return null;
+            }
         }
         Bitmap hidden = Bitmap.createBitmap(hiddenWidth, hiddenHeight, original.getConfig());
         hidden.setHasAlpha(true);
 
 		// draw the raster in the new image
-		for (int y=0;y<raster.length;y++) {
-			for (int x=0;x<raster[y].length;x++) {
-				hidden.setPixel(x, y, raster[y][x]);
-			}
-		}
+        hiddenRaster.writeTo(hidden);
+        hiddenRaster.release();
 
 		return hidden;
 	}
-	
+
+    // version 2 Step1: Fisher-Yates shuffle of the given amount of pixels
+    private static void shuffle(int[] pixels, int count) {
+        ReversibleRandom random = new ReversibleRandom(PERMUTATION_SEED);
+        for (int i = count - 1; i > 0; i--) {
+            random.forward();
+            int target = random.current(i + 1);
+            int currRGB = pixels[i];
+            pixels[i] = pixels[target];
+            pixels[target] = currRGB;
+        }
+    }
+
+    // reverts the shuffle by doing the same swaps in reverse order
+    private static void unshuffle(int[] pixels, int count) {
+        ReversibleRandom random = new ReversibleRandom(PERMUTATION_SEED);
+        for (int i = count - 1; i > 0; i--) {
+            random.forward();
+        }
+        for (int i = 1; i < count; i++) {
+            int target = random.current(i + 1);
+            int currRGB = pixels[i];
+            pixels[i] = pixels[target];
+            pixels[target] = currRGB;
+            random.backward();
+        }
+    }
+
+    // Step2 for a single pixel
+    private static int hidePixel(int rgb, int logoRgb, double logoThreshold) {
+        int red = Color.red(rgb);
+        int green = Color.green(rgb);
+        int blue = Color.blue(rgb);
+        int alpha = Color.alpha(rgb);
+
+        //Make some assumptions to improve and allow us to manipulate the image without needing much extra memory.
+        // We will lose the 4 least significant bits for alpha, we cannot use other colors since Bitmaps store these values
+        // in premultiplied alpha format, which will make getPixel(setPixel(rgb)) != rgb because of rounding errors.
+        // Additional bits can be sacrificed to get the alpha even higher or to adjust the greyness of the pixels, but this results
+        // in restored obfuscated images with lots of different alpha to become significantly different from their original image.
+        alpha = (alpha/8)*8+7; // assume alpha mod 8 == 7 (to leave 255 (no alpha) the same)!!
+
+         //increase alpha as much as possible with mostly having a delta of 4 to the original image and leaving alpha=255 as is
+        // stores information in bits 1 and 2 of alpha
+        int alphaFactor = 3-alpha/64; // 0, 1, 2 or 3
+        alpha += alphaFactor * 64 - alphaFactor;
+
+        // make the logo by changing pixel brightness accordingly, storing this information in bit3 of alpha
+        rgb = ColorAnalysisUtil.toRGB(red, green, blue, alpha);
+        boolean pixelVeryBright = ColorAnalysisUtil.getBrightnessNoAlpha(rgb) > BRIGHTNESS_THRESHOLD;
+        boolean insideLogo = ColorAnalysisUtil.getBrightnessWithAlpha(logoRgb) <= logoThreshold;
+        if ((!pixelVeryBright && insideLogo)
+                || (pixelVeryBright && !insideLogo)) {
+            // It is a pixel of the logo and it currently is too dark or
+            // it is a pixel not in the logo and it is too bright
+            red = 255 - red;
+            green = 255 - green;
+            blue = 255 - blue;
+            alpha -= 4;
+        }
+        return ColorAnalysisUtil.toRGB(red, green, blue, alpha);
+    }
+
+    // reverts Step2 for a single pixel
+    private static int restorePixel(int rgb) {
+        int red = Color.red(rgb);
+        int green = Color.green(rgb);
+        int blue = Color.blue(rgb);
+        int alpha = Color.alpha(rgb);
+
+        if ((alpha&4)==0) {
+            red = 255 - red;
+            green = 255 - green;
+            blue = 255 - blue;
+            alpha += 4;
+        }
+
+        int alphaFactor = 3 - alpha % 4;
+        alpha -= alphaFactor * 64 - alphaFactor;
+        return ColorAnalysisUtil.toRGB(red, green, blue, alpha);
+    }
 
 	public static Bitmap restoreImage(Bitmap hidden) {
 		if (hidden.getHeight() < 3 || hidden.getWidth() < 3) {
@@ -464,90 +622,93 @@ public class ImageObfuscator {
         // must not use the logo! Then we can restore images from unknown logo sources and have the logo customizable
 
 		//extract image data for easier working
-		int[][] raster = new int[hidden.getHeight()][hidden.getWidth()];
-		for (int x=0;x<hidden.getWidth();x++) {
-			for (int y=0;y<hidden.getHeight();y++) {
-				raster[y][x]=hidden.getPixel(x, y);
-			}
-		}
+        PixelRaster raster = PixelRaster.obtain(hidden);
+        Bitmap original = restoreImage(raster, hidden.getConfig());
+        raster.release();
+        return original;
+    }
 
-		if (extractMetadataFromImageIdentifierId(raster) != HIDDEN_IMAGE_IDENTIFIER_ID) {
+    // restores the image from the pixels of the hidden raster, which are modified in the process
+    private static Bitmap restoreImage(PixelRaster hiddenRaster, Bitmap.Config config) {
+        final int[] hiddenPixels = hiddenRaster.getPixels();
+        final int hiddenWidth = hiddenRaster.getWidth();
+        final int hiddenHeight = hiddenRaster.getHeight();
+		if (extractMetadataFromImageIdentifierId(hiddenPixels, hiddenWidth, hiddenHeight) != HIDDEN_IMAGE_IDENTIFIER_ID) {
 			return null;
 		}
+        final int width = hiddenWidth - 2;
+        final int height = hiddenHeight - 2;
+        final int count = width * height;
 
         // Choose restoration algorithm by version number.
-        if (extractMetadataFromImageVersionNumber(raster) != VERSION_1) {
+        int version = extractMetadataFromImageVersionNumber(hiddenPixels);
+        PixelRaster raster;
+        if (version == VERSION_1) {
+            restoreVersion1(hiddenPixels, hiddenWidth, hiddenHeight);
+            raster = PixelRaster.obtain(width, height);
+            copyInterior(hiddenPixels, hiddenWidth, raster.getPixels(), width, height);
+        } else if (version == VERSION_2) {
+            if (readMetadataVersion2(hiddenPixels, hiddenWidth, hiddenHeight) == null) {
+                return null; // damaged image
+            }
+            raster = PixelRaster.obtain(width, height);
+            final int[] pixels = raster.getPixels();
+            copyInterior(hiddenPixels, hiddenWidth, pixels, width, height);
+            // Revert Step2:
+            for (int i = 0; i < count; i++) {
+                pixels[i] = restorePixel(pixels[i]);
+            }
+            // Revert Step1:
+            unshuffle(pixels, count);
+        } else {
             return null; // cannot restore that version
         }
-		// Revert transformation
-		
+
+        Bitmap original = Bitmap.createBitmap(width, height, config);
+        original.setHasAlpha(true);
+		// draw the raster in the new image
+        raster.writeTo(original);
+        raster.release();
+		return original;
+	}
+
+    private static void copyInterior(int[] hiddenPixels, int hiddenWidth, int[] pixels, int width,
+                                     int height) {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(hiddenPixels, (y + 1) * hiddenWidth + 1, pixels, y * width, width);
+        }
+    }
+
+    // reverts the version 1 transformation in place, the border stays untouched
+    private static void restoreVersion1(int[] pixels, int width, int height) {
 		// Revert Step2:
 		//(Step2: Make all pixels not in the logo darker and the logo pixel brighter)
-
-		for (int y=1;y<raster.length - 1;y++) {
-			for (int x=1;x<raster[y].length - 1;x++) {
-				int rgb = raster[y][x];
-				int red = Color.red(rgb);
-				int green = Color.green(rgb);
-				int blue = Color.blue(rgb);
-				int alpha = Color.alpha(rgb);
-				
-				if ((alpha&4)==0) {
-					red = 255 - red;
-					green = 255 - green;
-					blue = 255 - blue;
-                    alpha += 4;
-                }
-				
-				/*int greynessIndex = 1 - (alpha&8)/8;
-				red+=((256-64)*greynessIndex)%256;red%=256;
-				green+=((256-128)*greynessIndex)%256;green%=256;
-				//blue+=((256-256)*greynessIndex)%256;blue%=256;
-                */
-
-                int alphaFactor = 3 - alpha % 4;
-                alpha -= alphaFactor * 64 - alphaFactor;
-
-				raster[y][x]=ColorAnalysisUtil.toRGB(red, green, blue, alpha);
-				
+		for (int y = 1; y < height - 1; y++) {
+			for (int x = 1; x < width - 1; x++) {
+                int index = y * width + x;
+				pixels[index] = restorePixel(pixels[index]);
 			}
 		}
 		
 		//Revert Step1:
 		// (Step1: Fixed permutation, one transposition for each pixel of the original image)
 		FixedRandom random = new FixedRandom();
-		int permutations = (raster.length - 2) * (raster[0].length - 2);
-		int[] tarX = new int[permutations];
-		int[] tarY = new int[permutations];
+		final int permutations = (height - 2) * (width - 2);
+		int[] targets = new int[permutations];
 		for (int i = 0; i < permutations; i++) {
-			tarX[i] = random.next(raster[0].length - 3) + 1; // x in [1,image width - 1]
-			tarY[i] = random.next(raster.length - 3) + 1; // y in [1, image height - 1]
+			int tarX = random.next(width - 3) + 1; // x in [1,image width - 1]
+			int tarY = random.next(height - 3) + 1; // y in [1, image height - 1]
+            targets[i] = tarY * width + tarX;
 		}
 		for (int i = permutations - 1; i >= 0; i--) {
-			int x = i % (raster[0].length - 2) + 1;
-			int y = i / (raster[0].length - 2) + 1;
-			int currRGB = raster[y][x];
-			int tarXCurr=tarX[i];
-			int tarYCurr=tarY[i];
-			raster[y][x]=raster[tarYCurr][tarXCurr];
-			raster[tarYCurr][tarXCurr]=currRGB;
-		}
-		
-		// End Revert transformation
-
-        Bitmap original = Bitmap.createBitmap(hidden.getWidth() - 2, hidden.getHeight() - 2, hidden.getConfig());
-        original.setHasAlpha(true);
-		// draw the raster in the new image
-		for (int y=1;y<raster.length - 1;y++) {
-			for (int x=1;x<raster[y].length - 1;x++) {
-				original.setPixel(x - 1, y - 1, raster[y][x]);
-			}
+			int index = (i / (width - 2) + 1) * width + i % (width - 2) + 1;
+			int currRGB = pixels[index];
+			pixels[index] = pixels[targets[i]];
+			pixels[targets[i]] = currRGB;
 		}
-
-		return original;
 	}
 
     public static boolean checkIfValidObfuscatedImage(Bitmap image) {
         return image != null && image.getPixel(image.getWidth() - 1, image.getHeight() - 1) == HIDDEN_IMAGE_IDENTIFIER_ID;
     }
-}
\ No newline at end of file
+}
@@ -38,7 +38,6 @@ import dan.dit.whatsthat.solution.Solution;
 import dan.dit.whatsthat.storage.ImageTable;
 import dan.dit.whatsthat.util.general.BuildException;
 import dan.dit.whatsthat.util.general.PercentProgressListener;
-import dan.dit.whatsthat.util.image.BitmapUtil;
 
 /**
  * XML for easily initializing and loading new images into the app. Format:
@@ -108,7 +107,6 @@ public class ImageXmlParser {
     private SparseArray<List<Image>> mReadBundles = new SparseArray<>();
     private SparseArray<String> mReadBundlesOrigin = new SparseArray<>();
     private boolean mModeAbortOnImageBuildFailure;
-    private BitmapUtil.ByteBufferHolder mBuffer = new BitmapUtil.ByteBufferHolder();
     private String mCurrOrigin;
 
     public List<Image> getBundle(int bundleNumber) {
@@ -158,6 +156,8 @@ public class ImageXmlParser {
             imageCount += mReadBundles.get(k).size();
         }
         if (imageCount > 0) {
+            ImageDuplicateIndex duplicates = ImageDuplicateIndex.loadFromDatabase(mContext);
+            int skipped = 0;
             double progress = 0;
             double parseProgressPerImage = PercentProgressListener.PROGRESS_COMPLETE / (double) imageCount;
             for (Integer version : keyList) {
@@ -165,12 +165,19 @@ public class ImageXmlParser {
                     if (listener != null && listener.isSyncCancelled()) {
                         return false;
                     }
-                    img.saveToDatabase(mContext);
+                    String duplicate = duplicates.findDuplicate(img);
+                    if (duplicate == null) {
+                        img.saveToDatabase(mContext);
+                        duplicates.add(img);
+                    } else {
+                        Log.d("Image", "Not syncing " + img + ", near duplicate of " + duplicate);
+                        skipped++;
+                    }
                     progress += parseProgressPerImage;
                     postProgress((int) progress, listener);
                 }
             }
-            Log.d("Image", "Synced " + imageCount + " images to database from " + getReadBundlesCount() + " read bundles.");
+            Log.d("Image", "Synced " + (imageCount - skipped) + " images to database from " + getReadBundlesCount() + " read bundles, skipped duplicates: " + skipped);
             return true;
         }
         return false;
@@ -295,13 +302,16 @@ public class ImageXmlParser {
                 case ImageTable.COLUMN_AVERAGE_COLOR:
                     builder.setAverageColor(readTextChecked(parser, ImageTable.COLUMN_AVERAGE_COLOR));
                     break;
+                case ImageTable.COLUMN_PERCEPTUAL_HASH:
+                    builder.setPerceptualHash(readTextChecked(parser, ImageTable.COLUMN_PERCEPTUAL_HASH));
+                    break;
                 default:
                     skip(parser);
                     break;
             }
         }
         try {
-            return builder.build(mContext, mBuffer);
+            return builder.build(mContext);
         } catch (BuildException be) {
             if (mModeAbortOnImageBuildFailure) {
                 throw new XmlPullParserException("Could not parse image: " + be);
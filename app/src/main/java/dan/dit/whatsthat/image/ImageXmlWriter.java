@@ -213,6 +213,9 @@ class ImageXmlWriter {
                 writeText(serializer, ImageTable.COLUMN_HASH, image.getHash());
                 writeText(serializer, ImageTable.COLUMN_OBFUSCATION, String.valueOf(image.getObfuscation()));
                 writeText(serializer, ImageTable.COLUMN_AVERAGE_COLOR, String.valueOf(image.getAverageColor()));
+                if (image.hasPerceptualHash()) {
+                    writeText(serializer, ImageTable.COLUMN_PERCEPTUAL_HASH, String.valueOf(image.getPerceptualHash()));
+                }
                 writeSolutions(serializer, ImageTable.COLUMN_SOLUTIONS, image.getSolutions());
                 writeAuthor(serializer, ImageTable.COLUMN_AUTHOR, image.getAuthor());
                 writeTypes(serializer, ImageTable.COLUMN_RIDDLEPREFTYPES, image.getPreferredRiddleTypes());
@@ -349,7 +349,7 @@ public class RiddleMaker {
             if (isCancelled()) {
                 return null;
             }
-            Bitmap bitmap = mUseImage.loadBitmap(mContext, mBitmapDimension, mType.enforcesBitmapAspectRatio());
+            Bitmap bitmap = mUseImage.loadBitmapCached(mContext, mBitmapDimension, mType.enforcesBitmapAspectRatio());
             publishProgress(PROGRESS_LOADED_IMAGE_BITMAP);
 
             // Step4: Check if everything is fine and if yes create and initialize the final riddle.
@@ -19,7 +19,6 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.util.LruCache;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +29,7 @@ import dan.dit.whatsthat.riddle.types.PracticalRiddleType;
 import dan.dit.whatsthat.testsubject.TestSubject;
 import dan.dit.whatsthat.util.general.ObserverController;
 import dan.dit.whatsthat.util.image.Dimension;
+import dan.dit.whatsthat.util.image.ImageUtil;
 
 /**
  * Class to keep track of all unsolved riddles and making new riddles by using the RiddleMaker class. Retrieve
@@ -38,45 +38,33 @@ import dan.dit.whatsthat.util.image.Dimension;
  */
 public class RiddleManager {
     private final List<Riddle> mAllUnsolvedRiddles = new LinkedList<>();
-    private static LruCache<Riddle, Bitmap> mMemoryCache;
 
     private ObserverController<UnsolvedRiddleListener, Void> mUnsolvedRiddleListenerController
             = new ObserverController<>();
     private RiddleMaker mMaker;
     private int mSolvedRiddlesCount;
 
+    private static String getCacheKey(Riddle riddle) {
+        return "riddle_snapshot_" + riddle.getId();
+    }
+
     public static void addToCache(Riddle riddle, Bitmap image) {
         if (riddle == null || image == null) {
             return;
         }
-        if (mMemoryCache == null) {
-            final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-            final int cacheSize = maxMemory / 20;
-
-            mMemoryCache = new LruCache<Riddle, Bitmap>(cacheSize) {
-                @Override
-                protected int sizeOf(Riddle key, Bitmap bitmap) {
-                    // The cache size will be measured in kilobytes rather than
-                    // number of items.
-                    return bitmap.getByteCount() / 1024;
-                }
-            };
-        }
-        mMemoryCache.put(riddle, image);
+        ImageUtil.CACHE.putSharedBitmap(getCacheKey(riddle), image);
     }
 
     public static Bitmap getFromCache(Riddle riddle) {
-        if (riddle == null || mMemoryCache == null) {
+        if (riddle == null) {
             return null;
         }
-        return mMemoryCache.get(riddle);
+        return ImageUtil.CACHE.getSharedBitmap(getCacheKey(riddle));
     }
 
     public void onRiddleInvalidated(Riddle riddle) {
         if (riddle != null) {
-            if (mMemoryCache != null) {
-                mMemoryCache.remove(riddle);
-            }
+            ImageUtil.CACHE.removeSharedBitmap(getCacheKey(riddle));
             if (mAllUnsolvedRiddles.remove(riddle)) {
                 mUnsolvedRiddleListenerController.notifyObservers(null);
             }
@@ -116,9 +104,7 @@ public class RiddleManager {
         if (mAllUnsolvedRiddles.remove(riddle)) {
             mUnsolvedRiddleListenerController.notifyObservers(null);
         }
-        if (mMemoryCache != null) {
-            mMemoryCache.remove(riddle);
-        }
+        ImageUtil.CACHE.removeSharedBitmap(getCacheKey(riddle));
         Log.d("Riddle", "Solved riddles: " + mSolvedRiddlesCount + ", unsolved riddles " + mAllUnsolvedRiddles.size());
     }
 
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.riddle.control;
+
+/**
+ * Timing of the frames executed by the periodic event of a RiddleController. Written by the
+ * game thread only, can be read from any thread. Times are in nanoseconds, averages are
+ * exponentially smoothed over roughly the last 16 frames.
+ */
+public class FrameTiming {
+    private static final double SMOOTHING = 1. / 16.;
+    private volatile long mDrawTime;
+    private volatile long mUpdateTime;
+    private volatile double mAverageDrawTime;
+    private volatile double mAverageUpdateTime;
+    private volatile double mAverageFrameTime;
+    private volatile long mFrameCount;
+    private volatile long mSkippedDrawCount;
+
+    void onFrame(long drawTime, long updateTime, long frameTime, boolean drawSkipped) {
+        mUpdateTime = updateTime;
+        if (drawSkipped) {
+            mSkippedDrawCount++;
+        } else {
+            mDrawTime = drawTime;
+            mAverageDrawTime = smooth(mAverageDrawTime, drawTime);
+        }
+        mAverageUpdateTime = smooth(mAverageUpdateTime, updateTime);
+        mAverageFrameTime = smooth(mAverageFrameTime, frameTime);
+        mFrameCount++;
+    }
+
+    private double smooth(double average, long value) {
+        return mFrameCount == 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    /**
+     * The time required to draw the last drawn frame.
+     * @return The draw time in nanoseconds.
+     */
+    public long getDrawTime() {
+        return mDrawTime;
+    }
+
+    /**
+     * The time required by the game and animations to update the last frame.
+     * @return The update time in nanoseconds.
+     */
+    public long getUpdateTime() {
+        return mUpdateTime;
+    }
+
+    public double getAverageDrawTime() {
+        return mAverageDrawTime;
+    }
+
+    public double getAverageUpdateTime() {
+        return mAverageUpdateTime;
+    }
+
+    /**
+     * The average time between the start of two frames, including the time slept.
+     * @return The average frame period in nanoseconds.
+     */
+    public double getAverageFrameTime() {
+        return mAverageFrameTime;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * The amount of frames that were only updated but not drawn to catch up with the target
+     * rate.
+     * @return The amount of skipped draws.
+     */
+    public long getSkippedDrawCount() {
+        return mSkippedDrawCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Frames " + mFrameCount + " (" + mSkippedDrawCount + " not drawn), avg draw "
+                + (long) (mAverageDrawTime / 1000L) + "us, avg update "
+                + (long) (mAverageUpdateTime / 1000L) + "us, avg frame "
+                + (long) (mAverageFrameTime / 1000L) + "us";
+    }
+}
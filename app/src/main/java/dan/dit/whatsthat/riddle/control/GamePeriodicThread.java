@@ -19,12 +19,19 @@ import android.os.Handler;
 import android.util.Log;
 
 /**
- * In case the game requires periodic updates, this is the used thread class. Time
- * slept is fetched form the RiddleController after each periodic event.
+ * In case the game requires periodic updates, this is the used thread class. It paces the
+ * periodic events to the target rate fetched from the RiddleController: the next frame is only
+ * posted when the previous one is completed and the thread sleeps until the frame is due instead
+ * of polling. If frames take longer than the target period, up to MAX_SKIPPED_DRAWS frames in
+ * a row are only updated but not drawn to catch up.
  * Stuffing drawing queue, see http://source.android.com/devices/graphics/architecture.html
  * Created by daniel on 07.05.15.
  */
 class GamePeriodicThread extends Thread {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int MAX_SKIPPED_DRAWS = 4;
+    // waiting for a frame is bounded so that stopping is noticed in any case
+    private static final long MAX_FRAME_WAIT = 100L; //ms
     private RiddleController mController;
     private volatile boolean mIsRunning;
     private volatile boolean mStopped;
@@ -43,14 +50,42 @@ class GamePeriodicThread extends Thread {
     @Override
     public void run() {
         Log.d("Riddle", "Periodic thread started.");
+        long nextFrameTime = System.nanoTime();
+        int skippedDraws = 0;
+        boolean skipDraw = false;
         while (mIsRunning && !mStopped && !isInterrupted()) {
-            mController.onPeriodicEvent();
+            final long period = NANOS_PER_SECOND / Math.max(1, mController
+                    .getTargetUpdatesPerSecond());
+            mController.onPeriodicEvent(skipDraw);
+            if (!mController.awaitPeriodicEvent(MAX_FRAME_WAIT)) {
+                continue; // frame still executing, wait again
+            }
+            final long now = System.nanoTime();
+            nextFrameTime += period;
+            final long delay = nextFrameTime - now;
+            if (delay > 0L) {
+                skipDraw = false;
+                skippedDraws = 0;
+                try {
+                    Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+                } catch (InterruptedException e) {
+                    interrupt();
+                }
+            } else {
+                // behind by more than a whole frame, skip drawing if allowed
+                skipDraw = -delay > period && skippedDraws < MAX_SKIPPED_DRAWS;
+                skippedDraws = skipDraw ? skippedDraws + 1 : 0;
+                if (-delay > MAX_SKIPPED_DRAWS * period) {
+                    // too slow for the target rate, do not try to catch up
+                    nextFrameTime = now;
+                }
+            }
         }
         mStopped = true;
         if (mStoppedNotifier != null && mOnStopCallback != null) {
             mStoppedNotifier.post(mOnStopCallback);
         }
-        Log.d("Riddle", "Periodic thread ended.");
+        Log.d("Riddle", "Periodic thread ended. " + mController.getFrameTiming());
     }
 
     /**
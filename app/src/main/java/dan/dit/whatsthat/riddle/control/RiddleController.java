@@ -71,7 +71,11 @@ public class RiddleController implements RiddleAnimationController.OnAnimationCo
     private GameHandlerThread mGameThread;
     private final Runnable mDrawAction;
     private final Runnable mPeriodicAction;
-    private volatile int mPeriodActionPostedCount;
+    private final Object mPeriodicActionLock = new Object();
+    private boolean mPeriodicActionPending; // guarded by mPeriodicActionLock
+    private volatile boolean mSkipNextDraw;
+    private volatile boolean mResetFrameTime;
+    private final FrameTiming mFrameTiming = new FrameTiming();
     private volatile boolean mIsClosing;
 
     /**
@@ -93,18 +97,54 @@ public class RiddleController implements RiddleAnimationController.OnAnimationCo
         };
         mPeriodicAction = new Runnable() {
 
-            private long mMissingUpdateTime; // will only be zero at start for first game controlled
+            private long mLastFrameTime;
+            private long mLastUpdateTime; // the time the game is updated to
+            private long mStepAccumulator; // time not yet simulated by fixed timesteps
             @Override
             public void run() {
-                long requiredDrawingTime = mRiddleView.performDrawRiddle();
-                long updateTime = mMissingUpdateTime + requiredDrawingTime;
+                final long frameStartTime = System.nanoTime();
+                if (mResetFrameTime) {
+                    // the time the periodic event was paused must not be given to the game
+                    mResetFrameTime = false;
+                    mLastFrameTime = frameStartTime;
+                    mLastUpdateTime = frameStartTime;
+                    mStepAccumulator = 0L;
+                }
+                final boolean skipDraw = mSkipNextDraw;
+                if (!skipDraw) {
+                    mRiddleView.performDrawRiddle();
+                }
                 long periodicEventStartTime = System.nanoTime();
+                long updateTime = (periodicEventStartTime - mLastUpdateTime) / 1000000;
                 if (updateTime > 0) {
-                    mRiddleGame.onPeriodicEvent(updateTime);
+                    updateGame(updateTime);
                     mRiddleAnimationController.update(updateTime);
+                    // keep the remainder for the next update
+                    mLastUpdateTime += updateTime * 1000000;
+                }
+                long endTime = System.nanoTime();
+                mFrameTiming.onFrame(periodicEventStartTime - frameStartTime, endTime -
+                        periodicEventStartTime, frameStartTime - mLastFrameTime, skipDraw);
+                mLastFrameTime = frameStartTime;
+                onPeriodicActionDone();
+            }
+
+            private void updateGame(long updateTime) {
+                final long step = mRiddleGame.getFixedTimestep();
+                if (step <= 0L) {
+                    mRiddleGame.onPeriodicEvent(updateTime);
+                    return;
                 }
-                mMissingUpdateTime = (System.nanoTime() - periodicEventStartTime) / 1000000;
-                --mPeriodActionPostedCount;
+                mStepAccumulator += updateTime;
+                int steps = 0;
+                while (mStepAccumulator >= step && steps < RiddleGame.MAX_FIXED_STEPS_PER_FRAME) {
+                    mRiddleGame.onPeriodicEvent(step);
+                    mStepAccumulator -= step;
+                    steps++;
+                }
+                // drop the time that could not be simulated, the game slows down
+                mStepAccumulator %= step;
+                mRiddleGame.onInterpolate(mStepAccumulator / (float) step);
             }
         };
     }
@@ -161,11 +201,20 @@ public class RiddleController implements RiddleAnimationController.OnAnimationCo
             });
         }
 
-        public void onPeriodicEvent() {
-            if (mPeriodActionPostedCount == 0 && !mIsClosing) {
-                ++mPeriodActionPostedCount;
-                mHandler.post(mPeriodicAction);
+        public boolean onPeriodicEvent(boolean skipDraw) {
+            synchronized (mPeriodicActionLock) {
+                if (mPeriodicActionPending || mIsClosing) {
+                    return false;
+                }
+                mPeriodicActionPending = true;
             }
+            mSkipNextDraw = skipDraw;
+            if (!mHandler.post(mPeriodicAction)) {
+                // game thread already quit
+                onPeriodicActionDone();
+                return false;
+            }
+            return true;
         }
 
         public Handler getHandler() {
@@ -382,6 +431,7 @@ public class RiddleController implements RiddleAnimationController.OnAnimationCo
     }
 
     private void resumePeriodicEventExecute() {
+        mResetFrameTime = true;
         mPeriodicThread = new GamePeriodicThread(RiddleController.this);
         mPeriodicThread.setUncaughtExceptionHandler(Thread.getDefaultUncaughtExceptionHandler());
         mPeriodicThread.startPeriodicEvent();
@@ -453,14 +503,70 @@ public class RiddleController implements RiddleAnimationController.OnAnimationCo
     }
 
     /**
-     * The periodic event happened, forward to the RiddleGame if possible.
+     * The periodic event happened, post the next frame to the game thread if possible and the
+     * previous frame is completed.
+     * @param skipDraw If the frame should only update the game without drawing it.
+     * @return If a frame was posted.
      */
-    void onPeriodicEvent() {
-        if (riddleAvailable()) {
-            mGameThread.onPeriodicEvent();
+    boolean onPeriodicEvent(boolean skipDraw) {
+        return riddleAvailable() && mGameThread.onPeriodicEvent(skipDraw);
+    }
+
+    private void onPeriodicActionDone() {
+        synchronized (mPeriodicActionLock) {
+            mPeriodicActionPending = false;
+            mPeriodicActionLock.notifyAll();
         }
     }
 
+    /**
+     * Waits until the posted frame is completed by the game thread.
+     * @param timeout The maximum time to wait in milliseconds.
+     * @return True if there is no pending frame (anymore), false if the timeout elapsed or the
+     * waiting thread was interrupted.
+     */
+    boolean awaitPeriodicEvent(long timeout) {
+        synchronized (mPeriodicActionLock) {
+            if (mPeriodicActionPending) {
+                try {
+                    mPeriodicActionLock.wait(timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !mPeriodicActionPending;
+        }
+    }
+
+    /**
+     * The rate the periodic event should be executed at. This is the rate of the game if it
+     * requires periodic events, animations and particles use at least the default rate.
+     * @return The target amount of frames per second.
+     */
+    int getTargetUpdatesPerSecond() {
+        RiddleGame game = mRiddleGame;
+        RiddleView view = mRiddleView;
+        if (game == null || !game.requiresPeriodicEvent()) {
+            return RiddleGame.DEFAULT_UPDATES_PER_SECOND;
+        }
+        int target = game.getTargetUpdatesPerSecond();
+        if (mRiddleAnimationController.getActiveAnimationsCount() > 0
+                || (view != null && view.getActiveParticleSystemsCount() > 0)) {
+            target = Math.max(target, RiddleGame.DEFAULT_UPDATES_PER_SECOND);
+        }
+        return target;
+    }
+
+    /**
+     * Returns the timing of the frames of the periodic event, like the time required for drawing
+     * and updating the game.
+     * @return The frame timing.
+     */
+    public FrameTiming getFrameTiming() {
+        return mFrameTiming;
+    }
+
     public boolean hasRunningPeriodicThread() {
         return mPeriodicThread != null && mPeriodicThread.isRunning();
     }
@@ -66,6 +66,22 @@ public abstract class RiddleGame {
 
     public static final int BASE_SCORE_MULTIPLIER = 1; //should not change
 
+    /**
+     * The default rate of periodic events per second, animations use at least this rate.
+     */
+    public static final int DEFAULT_UPDATES_PER_SECOND = 60;
+
+    /**
+     * A fixed timestep for games that opt in to it, one step per frame at the default rate.
+     */
+    public static final long DEFAULT_FIXED_TIMESTEP = 1000L / DEFAULT_UPDATES_PER_SECOND;
+
+    /**
+     * The maximum amount of fixed timesteps per frame. If a device cannot keep up, the game
+     * runs slower instead of spending even more time on catching up.
+     */
+    public static final int MAX_FIXED_STEPS_PER_FRAME = 5;
+
     private final Riddle mRiddle; // should be hidden
     private final RiddleController mRiddleController;
     protected final Image mImage; // image with hash of mRiddle.mCore.imageHash
@@ -318,6 +334,37 @@ public abstract class RiddleGame {
     public void onPeriodicEvent(long updateTime) {
     }
 
+    /**
+     * The rate at which the periodic event is invoked and the game drawn if periodic events
+     * are required. Games that do not need smooth animations can save CPU and battery by using
+     * a lower rate.
+     * @return The target amount of updates per second, positive.
+     */
+    public int getTargetUpdatesPerSecond() {
+        return DEFAULT_UPDATES_PER_SECOND;
+    }
+
+    /**
+     * Opt-in to update the game with a fixed timestep. Then onPeriodicEvent is always invoked
+     * with exactly this update time, zero or more times per frame, so fast actors cannot skip
+     * each other on slow frames and the game behaves the same on all devices. After the steps
+     * of a frame onInterpolate is invoked.
+     * @return The fixed timestep in milliseconds or 0 to be updated with the variable frame time.
+     */
+    public long getFixedTimestep() {
+        return 0L;
+    }
+
+    /**
+     * Invoked once per frame after the fixed timesteps if the game uses a fixed timestep. The
+     * simulated state lags behind the real time by the given fraction of a step, the game
+     * should be drawn between the previous and the current state by this fraction, for example
+     * by drawing the FlatWorld with this interpolation.
+     * @param interpolation The fraction of a step, from 0 inclusive to 1 exclusive.
+     */
+    public void onInterpolate(float interpolation) {
+    }
+
     protected abstract void initBitmap(Resources res, PercentProgressListener listener);
 
     public abstract boolean onMotionEvent(MotionEvent event);
@@ -53,8 +53,8 @@ import dan.dit.whatsthat.util.compaction.Compacter;
 import dan.dit.whatsthat.util.flatworld.look.Frames;
 import dan.dit.whatsthat.util.flatworld.look.FramesOneshot;
 import dan.dit.whatsthat.util.general.PercentProgressListener;
-import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ImageUtil;
+import dan.dit.whatsthat.util.image.SummedAreaTable;
 import dan.dit.whatsthat.util.listlock.ListLockMaxIndex;
 import dan.dit.whatsthat.util.listlock.LockDistanceRefresher;
 import dan.dit.whatsthat.util.mosaic.reconstruction.pattern.CirclePatternReconstructor;
@@ -83,7 +83,7 @@ public class RiddleCircle extends RiddleGame {
     /*
      * Holds the brightness for each pixel of the original bitmap (row wise pixel evaluation).
      */
-    private double[]mRaster;
+    private SummedAreaTable mBrightnessTable;
 
     /*
      * Store each circles essential values for easy lightweight plotting. Could also be done by drawing
@@ -132,7 +132,7 @@ public class RiddleCircle extends RiddleGame {
             mTimer.cancel();
             mTimer = null;
         }
-        mRaster = null;
+        mBrightnessTable = null;
         mPaint = null;
         mFramePaint = null;
         mCirclesCanvas = null;
@@ -155,19 +155,9 @@ public class RiddleCircle extends RiddleGame {
                         .spark, 400L).setFadeOut(200, new AccelerateInterpolator());
             }
         }, 10);
-        // fill raster with brightness and calculate average brightness
-        {
-            mRaster = new double[mBitmap.getHeight() * mBitmap.getWidth()];
-            int index = 0;
-            for (int y = 0; y < mBitmap.getHeight(); y++) {
-                for (int x = 0; x < mBitmap.getWidth(); x++) {
-                    mRaster[index] = ColorAnalysisUtil.getBrightnessWithAlpha(mBitmap.getPixel(x, y));
-                    mAverageBrightness += mRaster[index];
-                    index++;
-                }
-            }
-        }
-        mAverageBrightness /= mBitmap.getWidth() * mBitmap.getHeight();
+        // summed brightness to get the color of any circle in constant time
+        mBrightnessTable = new SummedAreaTable(mBitmap, SummedAreaTable.FEATURE_BRIGHTNESS);
+        mAverageBrightness = mBrightnessTable.getAverageBrightness();
 
         listener.onProgressUpdate(35);
         mFeatureDivideByMove = TestSubject.getInstance().hasFeature(SortimentHolder.ARTICLE_KEY_CIRCLE_DIVIDE_BY_MOVE_FEATURE);
@@ -331,8 +321,8 @@ public class RiddleCircle extends RiddleGame {
         mCircleCenterX.add(x);
         mCircleCenterY.add(y);
         mCircleRadius.add(r);
-        int color = CirclePatternReconstructor.calculateColor(mRaster, mAverageBrightness,
-                mBitmap.getWidth(), mBitmap.getHeight(), x, y, r);
+        int color = CirclePatternReconstructor.calculateColor(mBrightnessTable, mAverageBrightness,
+                x, y, r);
         mColor.add(color);
         if (draw) {
             mPaint.setColor(color);
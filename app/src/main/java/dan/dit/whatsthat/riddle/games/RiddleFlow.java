@@ -48,6 +48,7 @@ import dan.dit.whatsthat.util.image.BitmapUtil;
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
 import dan.dit.whatsthat.util.image.ImageUtil;
+import dan.dit.whatsthat.util.image.PixelRaster;
 
 /**
  * Created by daniel on 18.08.15.
@@ -168,11 +169,11 @@ public class RiddleFlow extends RiddleGame {
         mClearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
         mOutputRaster = new int[mHeight * mWidth];
         mSolutionRaster = new int[mHeight][mWidth];
-        for (int x = 0; x < mWidth; x++) {
-            for (int y = 0; y < mHeight; y++) {
-                mSolutionRaster[y][x] = mBitmap.getPixel(x, y);
-            }
+        PixelRaster solution = PixelRaster.obtain(mBitmap);
+        for (int y = 0; y < mHeight; y++) {
+            System.arraycopy(solution.getPixels(), y * mWidth, mSolutionRaster[y], 0, mWidth);
         }
+        solution.release();
         final int firstProgress = 10;
         listener.onProgressUpdate(firstProgress);
 
@@ -225,16 +226,12 @@ public class RiddleFlow extends RiddleGame {
     @Override
     public void onPeriodicEvent(long updatePeriod) {
         executeFlow(updatePeriod);
-        // Periodic Event runs in maximum possible rate the system allows, we do not need this here
-        // as we do not really use the updatePeriod given to update the flow. So we sleep some
-        // more time and reduce CPU usage a bit.
-        final long sleep = UPDATE_PERIOD - updatePeriod;
-        if (sleep > 0) {
-            try {
-                Thread.sleep(sleep);
-            } catch (InterruptedException e) {
-            }
-        }
+    }
+
+    @Override
+    public int getTargetUpdatesPerSecond() {
+        // the flow spreads slowly, no need to update it more often
+        return (int) (1000L / UPDATE_PERIOD);
     }
 
     private void executeFlow(long updatePeriod) {
@@ -143,6 +143,7 @@ public class RiddleJumper extends RiddleGame implements FlatWorldCallback {
     private long mNextObstacleCounter;
     private Random mRand;
     private boolean mCollisionBreak;
+    private float mInterpolation = 1.f;
     private int mObstaclesPassed;
     private Obstacle mNextObstacle;
     private float mDistanceRun;
@@ -484,7 +485,7 @@ public class RiddleJumper extends RiddleGame implements FlatWorldCallback {
 
     private void drawForeground() {
         mForegroundCanvas.drawPaint(mClearPaint);
-        mWorld.draw(mForegroundCanvas, null);
+        mWorld.draw(mForegroundCanvas, null, mInterpolation);
         if (mCollisionBreak) {
             Canvas canvas = mForegroundCanvas;
             if (mDifficulty < mCollisionBreakTexts.length) {
@@ -694,13 +695,25 @@ public class RiddleJumper extends RiddleGame implements FlatWorldCallback {
     public void onPeriodicEvent(long updateTime) {
         if (!mCollisionBreak) {
             mWorld.update(updateTime);
-            drawForeground();
             onDistanceRun(updateTime);
             onBackgroundUpdate(updateTime);
             checkNextObstacle(updateTime);
         }
     }
 
+    @Override
+    public long getFixedTimestep() {
+        return DEFAULT_FIXED_TIMESTEP;
+    }
+
+    @Override
+    public void onInterpolate(float interpolation) {
+        if (!mCollisionBreak) {
+            mInterpolation = interpolation;
+            drawForeground();
+        }
+    }
+
     private void onNextObstacle() {
         Obstacle o = mNextObstacle;
         if (o != null && !mCurrentObstacles.contains(o)) {
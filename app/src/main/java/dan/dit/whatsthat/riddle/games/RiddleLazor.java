@@ -460,10 +460,20 @@ public class RiddleLazor extends RiddleGame implements FlatWorldCallback {
     @Override
     public void onPeriodicEvent(long updatePeriod) {
         mFlatWorld.update(updatePeriod);
+        updateMeteorsController(updatePeriod);
+    }
+
+    @Override
+    public long getFixedTimestep() {
+        // meteors and cannon balls are fast and small
+        return DEFAULT_FIXED_TIMESTEP;
+    }
+
+    @Override
+    public void onInterpolate(float interpolation) {
         checkedRefreshLayers();
         mWorldCanvas.drawPaint(mWorldBackgroundPaint);
-        mFlatWorld.draw(mWorldCanvas, null);
-        updateMeteorsController(updatePeriod);
+        mFlatWorld.draw(mWorldCanvas, null, interpolation);
         mRefreshLayers = false;
     }
 
@@ -52,7 +52,6 @@ import dan.dit.whatsthat.util.compaction.Compacter;
 import dan.dit.whatsthat.util.flatworld.collision.GeneralHitboxCollider;
 import dan.dit.whatsthat.util.flatworld.collision.Hitbox;
 import dan.dit.whatsthat.util.flatworld.collision.HitboxCircle;
-import dan.dit.whatsthat.util.flatworld.effects.WorldEffect;
 import dan.dit.whatsthat.util.flatworld.look.BitmapLook;
 import dan.dit.whatsthat.util.flatworld.look.CircleLook;
 import dan.dit.whatsthat.util.flatworld.look.Frames;
@@ -105,6 +104,7 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
     private Bitmap[] mFullExplosion;
     private Paint mExplosionPaint;
     private FlatRectWorld mWorld;
+    private float mInterpolation = 1.f;
 
     private float mGravity;
     private float mRiddleOffsetX;
@@ -161,7 +161,7 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
             return;
         }
         canvas.drawBitmap(mBackgroundSnow, 0, 0, null);
-        mWorld.draw(canvas, null);
+        mWorld.draw(canvas, null, mInterpolation);
         canvas.drawRect(BORDER_WIDTH / 2.f, BORDER_WIDTH / 2.f, mConfig.mWidth - BORDER_WIDTH / 2.f, mConfig.mHeight - BORDER_WIDTH / 2.f, mBorderPaint);
     }
 
@@ -374,6 +374,17 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
         }
     }
 
+    @Override
+    public long getFixedTimestep() {
+        // the cell can get very fast and must not skip through ideas and devils
+        return DEFAULT_FIXED_TIMESTEP;
+    }
+
+    @Override
+    public void onInterpolate(float interpolation) {
+        mInterpolation = interpolation;
+    }
+
     @Override
     public boolean onOrientationEvent(float azimuth, float pitch, float roll) {
         if (mFeatureTouchGravity) {
@@ -867,6 +878,8 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
     private static final long[] SURROUND_DURATION = new long[] {1900L, 2000L, 3000L};
     private class Devil extends Actor {
         private static final long TOUCH_OUTSIDE_LOCK_DURATION = 250L;
+        private static final long TALKING_DURATION = 5000L;
+        private static final long TALKING_FADE_DURATION = 2000L;
         private static final long RECOVER_DURATION = 20000L;
         private static final int STATE_PROTECT = 0;
         private static final int STATE_DAMAGED = 1;
@@ -878,7 +891,7 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
         private long mLastOutsideTouch;
         private HitboxMoonMover mMoonMover;
         private NinePatchLook[] mTalkingBackground;
-        private WorldEffect mTalkingEffect;
+        private long mTalkingTimeLeft;
         private boolean mSilent;
         private long mTimeToRecover;
 
@@ -922,6 +935,9 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
         @Override
         public boolean update(long updateTime) {
             boolean result = super.update(updateTime);
+            if (mTalkingTimeLeft > 0L) {
+                mTalkingTimeLeft -= updateTime;
+            }
             if (mState == STATE_RECOVERING) {
                 mTimeToRecover -= updateTime;
                 if (mTimeToRecover <= 0) {
@@ -945,11 +961,11 @@ public class RiddleSnow extends RiddleGame implements FlatWorldCallback {
         }
 
         public boolean talk(int textId, double probability) {
-            if (!mSilent && (mTalkingEffect == null || mTalkingEffect.getState() == WorldEffect.STATE_TIMEOUT)
-                    && mRand.nextDouble() < probability) {
+            if (!mSilent && mTalkingTimeLeft <= 0L && mRand.nextDouble() < probability) {
                 String[] texts = mRes.getStringArray(textId);
-                mTalkingEffect = mWorld.attachTimedMessage(this, mTalkingBackground, texts[mRand.nextInt(texts.length)], 5000L);
-                mTalkingEffect.startFade(0xFFFFFFFF, 0x00FFFFFF, 2000L, 3000L, false);
+                mTalkingTimeLeft = TALKING_DURATION;
+                mWorld.attachTimedMessage(this, mTalkingBackground, texts[mRand.nextInt(texts.length)], TALKING_DURATION,
+                        TALKING_DURATION - TALKING_FADE_DURATION, 0xFFFFFFFF, 0x00FFFFFF, false);
                 return true;
             }
             return false;
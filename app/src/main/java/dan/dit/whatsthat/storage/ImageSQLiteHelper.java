@@ -26,8 +26,8 @@ import android.database.sqlite.SQLiteOpenHelper;
  * Created by daniel on 24.03.15.
  */
 class ImageSQLiteHelper extends SQLiteOpenHelper{
-    //Initial version number = 1
-    private static final int DATABASE_VERSION=1;
+    //Initial version number = 1, version 2 added the perceptual hash of images
+    private static final int DATABASE_VERSION=2;
 
     //Database name will not change
     private static final String DATABASE_NAME="imageData";
@@ -96,8 +96,15 @@ public class ImageTable {
      */
     public static final String COLUMN_AVERAGE_COLOR = "avcolor";
 
+    /**
+     * The perceptual hash of the image's bitmap to find near duplicates. Added on database
+     * version 2, null if not known.
+     */
+    public static final String COLUMN_PERCEPTUAL_HASH = "phash";
+
     public static final String[] ALL_COLUMNS = new String[] {COLUMN_HASH, COLUMN_TIMESTAMP, COLUMN_OBFUSCATION, COLUMN_AUTHOR,
-            COLUMN_NAME, COLUMN_ORIGIN, COLUMN_RESNAME, COLUMN_SAVELOC, COLUMN_SOLUTIONS,  COLUMN_RIDDLEPREFTYPES, COLUMN_RIDDLEREFUSEDTYPES, COLUMN_AVERAGE_COLOR};
+            COLUMN_NAME, COLUMN_ORIGIN, COLUMN_RESNAME, COLUMN_SAVELOC, COLUMN_SOLUTIONS,  COLUMN_RIDDLEPREFTYPES, COLUMN_RIDDLEREFUSEDTYPES, COLUMN_AVERAGE_COLOR,
+            COLUMN_PERCEPTUAL_HASH};
 
     //Database creation SQL statement
     private static final String DATABASE_CREATE =
@@ -115,9 +122,16 @@ public class ImageTable {
             + COLUMN_AUTHOR + " text, "
             + COLUMN_ORIGIN + " text, "
             + COLUMN_OBFUSCATION + " integer, "
-            + COLUMN_AVERAGE_COLOR + " integer"
+            + COLUMN_AVERAGE_COLOR + " integer, "
+            + COLUMN_PERCEPTUAL_HASH + " integer"
             + ");";
 
+    private static final String DATABASE_UPGRADE_2_ADD_PERCEPTUAL_HASH =
+            "alter table "
+            + TABLE_IMAGES
+            + " add column "
+            + COLUMN_PERCEPTUAL_HASH + " integer;";
+
     //private constructor to make sure it is never instantiated
     private ImageTable() {}
 
@@ -136,6 +150,8 @@ public class ImageTable {
      * @param newVersion The new version number.
      */
     public static void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
-
+        if (oldVersion < 2 && newVersion >= 2) {
+            database.execSQL(DATABASE_UPGRADE_2_ADD_PERCEPTUAL_HASH);
+        }
     }
 }
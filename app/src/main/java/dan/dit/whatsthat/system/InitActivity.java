@@ -23,6 +23,7 @@ import android.util.Log;
 import dan.dit.whatsthat.R;
 import dan.dit.whatsthat.image.ImageManager;
 import dan.dit.whatsthat.riddle.RiddleInitializer;
+import dan.dit.whatsthat.util.image.ImageUtil;
 
 /**
  * Created by daniel on 26.04.15.
@@ -33,6 +34,7 @@ public class InitActivity extends Activity implements InitializationFragment.OnI
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.d("HomeStuff", "onCreate of InitActivity.");
+        ImageUtil.CACHE.registerMemoryCallbacks(this);
         setContentView(R.layout.init_activity);
     }
 
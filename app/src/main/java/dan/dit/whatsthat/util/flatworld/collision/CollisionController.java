@@ -15,29 +15,119 @@
 
 package dan.dit.whatsthat.util.flatworld.collision;
 
+import android.graphics.RectF;
+
+import java.util.Arrays;
 import java.util.List;
 
 import dan.dit.whatsthat.util.flatworld.world.Actor;
 
 /**
+ * Checks a list of actors for collisions. A sweep and prune broad phase sorts the actors by the
+ * left bound of their hitbox and only checks pairs whose bounding rects overlap with the narrow
+ * phase given by checkCollision(Hitbox, Hitbox). The bounding rects are extended by the
+ * movement of the last update, see {@link Hitbox#setSweep(float, float)}. The sort order is kept between checks, as
+ * actors move only a little between two checks the order is restored in almost linear time.
+ * No objects are allocated unless the amount of actors grows.
  * Created by daniel on 05.06.15.
  */
 public abstract class CollisionController {
+    private static final int INDEX_MASK = 0x7FFFFFFF;
+    // sortable left bound in the high bits and the index in the checked list in the low bits
+    private long[] mSortKeys = new long[0];
+    private int mSortedCount = -1;
+    // bounding rects of the actors by index in the checked list
+    private float[] mLefts = new float[0];
+    private float[] mTops = new float[0];
+    private float[] mRights = new float[0];
+    private float[] mBottoms = new float[0];
+
     public interface CollisionCallback {
         void onCollision(Actor colliding1, Actor colliding2);
     }
 
     public void checkCollision(List<Actor> toCheck, CollisionCallback callback) {
-        for (int i = 0; i < toCheck.size(); i++) {
-            Actor curr = toCheck.get(i);
-            for (int j = i + 1; j < toCheck.size(); j++) {
-                Actor subCheck = toCheck.get(j);
-                if (checkCollision(subCheck.getHitbox(), curr.getHitbox())) {
-                    callback.onCollision(subCheck, curr);
+        final int count = toCheck.size();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            // the bounds cover the whole path of the last update for swept tests
+            Hitbox hitbox = toCheck.get(i).getHitbox();
+            RectF bound = hitbox.getBoundingRect();
+            final float sweepX = hitbox.mSweepX;
+            final float sweepY = hitbox.mSweepY;
+            mLefts[i] = sweepX > 0.f ? bound.left - sweepX : bound.left;
+            mTops[i] = sweepY > 0.f ? bound.top - sweepY : bound.top;
+            mRights[i] = sweepX < 0.f ? bound.right - sweepX : bound.right;
+            mBottoms[i] = sweepY < 0.f ? bound.bottom - sweepY : bound.bottom;
+        }
+        sortByLeft(count);
+        final long[] keys = mSortKeys;
+        for (int a = 0; a < count; a++) {
+            final int indexA = (int) (keys[a] & INDEX_MASK);
+            final float right = mRights[indexA];
+            final float top = mTops[indexA];
+            final float bottom = mBottoms[indexA];
+            for (int b = a + 1; b < count; b++) {
+                final int indexB = (int) (keys[b] & INDEX_MASK);
+                if (mLefts[indexB] > right) {
+                    break; // all following start even further right
+                }
+                if (mTops[indexB] <= bottom && mBottoms[indexB] >= top) {
+                    // report in list order like checking all pairs would
+                    Actor curr = toCheck.get(Math.min(indexA, indexB));
+                    Actor subCheck = toCheck.get(Math.max(indexA, indexB));
+                    if (checkCollision(subCheck.getHitbox(), curr.getHitbox())) {
+                        callback.onCollision(subCheck, curr);
+                    }
                 }
             }
         }
     }
 
+    private void ensureCapacity(int count) {
+        if (mLefts.length < count) {
+            int capacity = Math.max(count, mLefts.length * 2);
+            mLefts = new float[capacity];
+            mTops = new float[capacity];
+            mRights = new float[capacity];
+            mBottoms = new float[capacity];
+            mSortKeys = Arrays.copyOf(mSortKeys, capacity);
+        }
+    }
+
+    private void sortByLeft(int count) {
+        final long[] keys = mSortKeys;
+        if (count != mSortedCount) {
+            // actors were added or removed, the previous order is of no use
+            for (int i = 0; i < count; i++) {
+                keys[i] = makeSortKey(mLefts[i], i);
+            }
+            Arrays.sort(keys, 0, count);
+            mSortedCount = count;
+            return;
+        }
+        // update the keys in the previous order, insertion sort is fast on almost sorted keys
+        for (int i = 0; i < count; i++) {
+            int index = (int) (keys[i] & INDEX_MASK);
+            keys[i] = makeSortKey(mLefts[index], index);
+        }
+        for (int i = 1; i < count; i++) {
+            long key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            keys[j + 1] = key;
+        }
+    }
+
+    private static long makeSortKey(float left, int index) {
+        int bits = Float.floatToIntBits(left);
+        // flip the magnitude of negative floats so that the ints compare like the floats
+        bits ^= (bits >> 31) & INDEX_MASK;
+        return ((long) bits << 32) | index;
+    }
+
     public abstract boolean checkCollision(Hitbox box1, Hitbox box2);
 }
@@ -15,7 +15,14 @@
 
 package dan.dit.whatsthat.util.flatworld.collision;
 
+import android.graphics.RectF;
+
 /**
+ * A visitor that tests a hitbox for collision with the hitbox that created the tester. The
+ * built in hitboxes form a complete matrix of exact tests: circles and rects are tested
+ * analytically, ghost points never collide. If hitboxes were moved during the last update (see
+ * {@link Hitbox#setSweep(float, float)}) the whole paths are tested, so fast hitboxes do
+ * not pass through each other within one update. Only unknown hitbox types are indefinite.
  * Created by daniel on 26.06.15.
  */
 public class CollisionTester {
@@ -33,9 +40,15 @@ public class CollisionTester {
             return RESULT_NO_COLLISION;
         }
 
+        @Override
         public int collisionTest(HitboxRect hitbox) {
             return RESULT_NO_COLLISION;
         }
+
+        @Override
+        public int collisionTest(HitboxGhostPoint hitbox) {
+            return RESULT_NO_COLLISION;
+        }
     };
 
     public int collisionTest(Hitbox hitbox) {
@@ -49,4 +62,87 @@ public class CollisionTester {
     public int collisionTest(HitboxRect hitbox) {
         return RESULT_INDEFINITE;
     }
+
+    public int collisionTest(HitboxGhostPoint hitbox) {
+        return RESULT_INDEFINITE;
+    }
+
+    static int toResult(boolean collision) {
+        return collision ? RESULT_COLLISION : RESULT_NO_COLLISION;
+    }
+
+    static boolean checkCircles(HitboxCircle circle1, HitboxCircle circle2) {
+        return isSegmentNearOrigin(circle1.getCenterX() - circle2.getCenterX(),
+                circle1.getCenterY() - circle2.getCenterY(),
+                circle1.mSweepX - circle2.mSweepX, circle1.mSweepY - circle2.mSweepY,
+                circle1.getRadius() + circle2.getRadius());
+    }
+
+    static boolean checkRects(HitboxRect rect1, HitboxRect rect2) {
+        RectF bound1 = rect1.getBoundingRect();
+        RectF bound2 = rect2.getBoundingRect();
+        return isSegmentInBox(bound1.centerX() - bound2.centerX(),
+                bound1.centerY() - bound2.centerY(),
+                rect1.mSweepX - rect2.mSweepX, rect1.mSweepY - rect2.mSweepY,
+                (bound1.width() + bound2.width()) / 2.f, (bound1.height() + bound2.height()) / 2.f);
+    }
+
+    static boolean checkCircleRect(HitboxCircle circle, HitboxRect rect) {
+        RectF bound = rect.getBoundingRect();
+        final float x = circle.getCenterX() - bound.centerX();
+        final float y = circle.getCenterY() - bound.centerY();
+        final float dx = circle.mSweepX - rect.mSweepX;
+        final float dy = circle.mSweepY - rect.mSweepY;
+        final float halfWidth = bound.width() / 2.f;
+        final float halfHeight = bound.height() / 2.f;
+        final float radius = circle.getRadius();
+        // the rect grown by the circle is the union of two rects and four corner circles
+        return isSegmentInBox(x, y, dx, dy, halfWidth + radius, halfHeight)
+                || isSegmentInBox(x, y, dx, dy, halfWidth, halfHeight + radius)
+                || isSegmentNearOrigin(x - halfWidth, y - halfHeight, dx, dy, radius)
+                || isSegmentNearOrigin(x + halfWidth, y - halfHeight, dx, dy, radius)
+                || isSegmentNearOrigin(x - halfWidth, y + halfHeight, dx, dy, radius)
+                || isSegmentNearOrigin(x + halfWidth, y + halfHeight, dx, dy, radius);
+    }
+
+    // if the segment from (x,y) back to (x-dx,y-dy) comes within the distance of the origin
+    private static boolean isSegmentNearOrigin(float x, float y, float dx, float dy, float
+            distance) {
+        float length2 = dx * dx + dy * dy;
+        float s = 0.f;
+        if (length2 > 0.f) {
+            s = (x * dx + y * dy) / length2;
+            s = s < 0.f ? 0.f : (s > 1.f ? 1.f : s);
+        }
+        float nearestX = x - s * dx;
+        float nearestY = y - s * dy;
+        return nearestX * nearestX + nearestY * nearestY <= distance * distance;
+    }
+
+    // if the segment from (x,y) back to (x-dx,y-dy) touches the box of the given half
+    // dimensions around the origin
+    private static boolean isSegmentInBox(float x, float y, float dx, float dy, float halfWidth,
+                                          float halfHeight) {
+        // the range of s in [0,1] where the point x-s*dx is inside the box horizontally
+        float minS = 0.f;
+        float maxS = 1.f;
+        if (dx == 0.f) {
+            if (x > halfWidth || x < -halfWidth) {
+                return false;
+            }
+        } else {
+            float s1 = (x - halfWidth) / dx;
+            float s2 = (x + halfWidth) / dx;
+            minS = Math.max(minS, Math.min(s1, s2));
+            maxS = Math.min(maxS, Math.max(s1, s2));
+        }
+        if (dy == 0.f) {
+            return minS <= maxS && y <= halfHeight && y >= -halfHeight;
+        }
+        float s1 = (y - halfHeight) / dy;
+        float s2 = (y + halfHeight) / dy;
+        minS = Math.max(minS, Math.min(s1, s2));
+        maxS = Math.min(maxS, Math.max(s1, s2));
+        return minS <= maxS;
+    }
 }
@@ -41,7 +41,7 @@ public class GeneralHitboxCollider extends CollisionController {
 
     @Override
     public boolean checkCollision(Hitbox box1, Hitbox box2) {
-        // first try direct collision
+        // exact for all built in hitboxes, random points are only tried for unknown hitbox types
         int result = box2.accept(box1.getCollisionTester());
         if (result != CollisionTester.RESULT_INDEFINITE) {
             return result == CollisionTester.RESULT_COLLISION;
@@ -24,6 +24,9 @@ import java.util.Random;
  */
 public abstract class Hitbox {
     RectF mBoundingRect = new RectF();
+    // movement of the center during the last update
+    float mSweepX;
+    float mSweepY;
 
     public abstract RectF getBoundingRect();
 
@@ -63,6 +66,26 @@ public abstract class Hitbox {
     public abstract float getCenterX();
     public abstract float getCenterY();
 
+    /**
+     * Sets how far the hitbox moved during the last update. Collision tests then check the
+     * whole path from the previous to the current position instead of only the current
+     * position, so fast hitboxes cannot pass through others within one update.
+     * @param deltaX The horizontal movement of the center.
+     * @param deltaY The vertical movement of the center.
+     */
+    public void setSweep(float deltaX, float deltaY) {
+        mSweepX = deltaX;
+        mSweepY = deltaY;
+    }
+
+    /* Invoked by every method that moves or places the hitbox. Outside of an update this is a
+     jump that must not be tested as a sweep, during an update the actor sets the sweep of the
+     whole movement afterwards. */
+    void resetSweep() {
+        mSweepX = 0.f;
+        mSweepY = 0.f;
+    }
+
     public abstract CollisionTester getCollisionTester();
 
     public abstract int accept(CollisionTester collisionTester);
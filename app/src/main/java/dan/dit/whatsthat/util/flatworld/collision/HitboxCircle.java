@@ -72,6 +72,7 @@ public class HitboxCircle extends Hitbox {
 
     @Override
     public void move(float deltaX, float deltaY) {
+        resetSweep();
         mCenterX += deltaX;
         mCenterY += deltaY;
         updateBoundingRect();
@@ -79,30 +80,35 @@ public class HitboxCircle extends Hitbox {
 
     @Override
     public void setTop(float top) {
+        resetSweep();
         mCenterY = top + mRadius;
         updateBoundingRect();
     }
 
     @Override
     public void setLeft(float left) {
+        resetSweep();
         mCenterX = left + mRadius;
         updateBoundingRect();
     }
 
     @Override
     public void setRight(float right) {
+        resetSweep();
         mCenterX = right - mRadius;
         updateBoundingRect();
     }
 
     @Override
     public void setBottom(float bottom) {
+        resetSweep();
         mCenterY = bottom - mRadius;
         updateBoundingRect();
     }
 
     @Override
     public void setCenter(float centerX, float centerY) {
+        resetSweep();
         mCenterX = centerX;
         mCenterY = centerY;
         updateBoundingRect();
@@ -128,13 +134,6 @@ public class HitboxCircle extends Hitbox {
         return collisionTester.collisionTest(this);
     }
 
-    private boolean checkCollision(HitboxCircle with) {
-        float dx = mCenterX - with.mCenterX;
-        float dy = mCenterY - with.mCenterY;
-        float r = mRadius + with.mRadius;
-        return dx * dx + dy * dy <= r * r;
-    }
-
     public float getRadius() {
         return mRadius;
     }
@@ -143,7 +142,17 @@ public class HitboxCircle extends Hitbox {
 
         @Override
         public int collisionTest(HitboxCircle toCheck) {
-            return checkCollision(toCheck) ? RESULT_COLLISION : RESULT_NO_COLLISION;
+            return toResult(checkCircles(HitboxCircle.this, toCheck));
+        }
+
+        @Override
+        public int collisionTest(HitboxRect toCheck) {
+            return toResult(checkCircleRect(HitboxCircle.this, toCheck));
+        }
+
+        @Override
+        public int collisionTest(HitboxGhostPoint toCheck) {
+            return RESULT_NO_COLLISION;
         }
     }
 
@@ -60,6 +60,7 @@ public class HitboxGhostPoint extends Hitbox {
 
     @Override
     public void move(float deltaX, float deltaY) {
+        resetSweep();
         mX += deltaX;
         mY += deltaY;
         updateBounds();
@@ -67,30 +68,35 @@ public class HitboxGhostPoint extends Hitbox {
 
     @Override
     public void setTop(float top) {
+        resetSweep();
         mY = top;
         updateBounds();
     }
 
     @Override
     public void setLeft(float left) {
+        resetSweep();
         mX = left;
         updateBounds();
     }
 
     @Override
     public void setRight(float right) {
+        resetSweep();
         mX = right;
         updateBounds();
     }
 
     @Override
     public void setBottom(float bottom) {
+        resetSweep();
         mY = bottom;
         updateBounds();
     }
 
     @Override
     public void setCenter(float centerX, float centerY) {
+        resetSweep();
         mX = centerX;
         mY = centerY;
         updateBounds();
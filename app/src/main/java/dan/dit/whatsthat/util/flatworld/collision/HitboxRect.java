@@ -39,10 +39,6 @@ public class HitboxRect extends Hitbox {
         mBoundingRect.set(mLeft, mTop, mRight, mBottom);
     }
 
-    private boolean checkCollision(HitboxRect other) {
-        return mRight >= other.mLeft && mLeft <= other.mRight && mBottom >= other.mTop && mTop <= other.mBottom;
-    }
-
     @Override
     public RectF getBoundingRect() {
         return mBoundingRect;
@@ -62,6 +58,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void move(float x, float y) {
+        resetSweep();
         mLeft += x;
         mRight += x;
         mTop += y;
@@ -71,6 +68,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void setTop(float newTop) {
+        resetSweep();
         mBottom = newTop + mBottom - mTop;
         mTop = newTop;
         mBoundingRect.top = mTop;
@@ -79,6 +77,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void setLeft(float newLeft) {
+        resetSweep();
         mRight = newLeft + mRight - mLeft;
         mLeft = newLeft;
         mBoundingRect.right = mRight;
@@ -87,6 +86,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void setRight(float right) {
+        resetSweep();
         mLeft = right - (mRight - mLeft);
         mRight = right;
         mBoundingRect.right = mRight;
@@ -95,6 +95,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void setBottom(float bottom) {
+        resetSweep();
         mTop = bottom - (mBottom - mTop);
         mBottom = bottom;
         mBoundingRect.top = mTop;
@@ -103,6 +104,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public void setCenter(float centerX, float centerY) {
+        resetSweep();
         float width = mRight - mLeft;
         float height = mBottom - mTop;
         mTop = centerY - height / 2.f;
@@ -114,7 +116,7 @@ public class HitboxRect extends Hitbox {
 
     @Override
     public float getCenterX() {
-        return mLeft + (mTop - mLeft) / 2.f;
+        return mLeft + (mRight - mLeft) / 2.f;
     }
 
     @Override
@@ -135,7 +137,17 @@ public class HitboxRect extends Hitbox {
     private class Tester extends CollisionTester {
         @Override
         public int collisionTest(HitboxRect toCheck) {
-            return checkCollision(toCheck) ? RESULT_COLLISION : RESULT_NO_COLLISION;
+            return toResult(checkRects(HitboxRect.this, toCheck));
+        }
+
+        @Override
+        public int collisionTest(HitboxCircle toCheck) {
+            return toResult(checkCircleRect(toCheck, HitboxRect.this));
+        }
+
+        @Override
+        public int collisionTest(HitboxGhostPoint toCheck) {
+            return RESULT_NO_COLLISION;
         }
     }
 
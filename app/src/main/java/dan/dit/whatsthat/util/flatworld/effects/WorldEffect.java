@@ -37,13 +37,41 @@ public abstract class WorldEffect {
     long mFadeTime;
     long mFadeTimeTotal;
     boolean mFadeAlphaOnly;
+    private int mWorldSlot = -1; // not added to a world
 
     WorldEffect(Look look) {
+        reset(look);
+    }
+
+    // prepares the effect to be used again like a new one
+    void reset(Look look) {
         mLook = look;
         if (mLook == null) {
             throw new IllegalArgumentException("Null frames given to WorldEffect.");
         }
         mDuration = DURATION_INFINITE;
+        mFadeFrom = 0;
+        mFadeTo = 0;
+        mFadeOffsetDuration = 0L;
+        mFadeTime = 0L;
+        mFadeTimeTotal = 0L;
+        mFadeAlphaOnly = false;
+    }
+
+    /**
+     * The slot of this effect in the world it is added to. Only used by the world.
+     * @return The slot or a negative number if the effect is not added.
+     */
+    public final int getWorldSlot() {
+        return mWorldSlot;
+    }
+
+    /**
+     * Sets the slot of this effect in the world it is added to. Only used by the world.
+     * @param slot The new slot.
+     */
+    public final void setWorldSlot(int slot) {
+        mWorldSlot = slot;
     }
 
     public void setDuration(long duration) {
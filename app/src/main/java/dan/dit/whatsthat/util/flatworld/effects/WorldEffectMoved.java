@@ -35,6 +35,8 @@ public class WorldEffectMoved extends  WorldEffect {
     private HitboxGhostPoint mPoint;
     private HitboxMover mMover;
     private Paint mPaint;
+    private int mFilterColor;
+    private ColorFilter mFilter;
 
     public WorldEffectMoved(Look look, float x, float y, HitboxMover mover) {
         super(look);
@@ -42,6 +44,16 @@ public class WorldEffectMoved extends  WorldEffect {
         mMover = mover;
     }
 
+    void reset(Look look, float x, float y, HitboxMover mover) {
+        reset(look);
+        mPoint.setCenter(x, y);
+        mMover = mover;
+    }
+
+    HitboxMover getMover() {
+        return mMover;
+    }
+
     public void setCenter(float x, float y) {
         mPoint.setCenter(x - mLook.getWidth() / 2, y - mLook.getHeight() / 2);
     }
@@ -82,11 +94,13 @@ public class WorldEffectMoved extends  WorldEffect {
                         mFadeTo, fadeFraction));
             } else {
                 int currColor = ColorAnalysisUtil.interpolateColorLinear(mFadeFrom, mFadeTo, fadeFraction);
-                ColorFilter colorFilter = new LightingColorFilter(
-                        ColorAnalysisUtil.colorMultiples(currColor, FADE_COLOR_IMPACT)
-                        , 0);
+                int filterColor = ColorAnalysisUtil.colorMultiples(currColor, FADE_COLOR_IMPACT);
+                if (mFilter == null || filterColor != mFilterColor) {
+                    mFilter = new LightingColorFilter(filterColor, 0);
+                    mFilterColor = filterColor;
+                }
 
-                paint.setColorFilter(colorFilter);
+                paint.setColorFilter(mFilter);
                 paint.setAlpha(Color.alpha(currColor));
             }
         }
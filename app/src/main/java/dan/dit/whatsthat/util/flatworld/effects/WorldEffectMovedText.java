@@ -15,7 +15,9 @@
 
 package dan.dit.whatsthat.util.flatworld.effects;
 
+import dan.dit.whatsthat.util.flatworld.collision.Hitbox;
 import dan.dit.whatsthat.util.flatworld.look.NinePatchLook;
+import dan.dit.whatsthat.util.flatworld.mover.HitboxAttachedMover;
 import dan.dit.whatsthat.util.flatworld.mover.HitboxMover;
 
 /**
@@ -28,4 +30,36 @@ public class WorldEffectMovedText extends WorldEffectMoved {
         background.setText(text, maxTextWidth);
     }
 
+    /**
+     * Reuses this effect for a new text as if it was newly created.
+     * @param background The background that displays the text.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param mover The mover of the text.
+     * @param text The text to display.
+     * @param maxTextWidth The maximum width of the text or a non positive value for no limit.
+     */
+    public void reset(NinePatchLook background, float x, float y, HitboxMover mover, String text, int maxTextWidth) {
+        reset(background, x, y, mover);
+        background.setText(text, maxTextWidth);
+    }
+
+    /**
+     * Reuses this effect for a new text that follows the given hitbox. The mover of this
+     * effect is reused if it is already attached to some hitbox.
+     * @param background The background that displays the text.
+     * @param attachTo The hitbox to follow.
+     * @param text The text to display.
+     * @param maxTextWidth The maximum width of the text or a non positive value for no limit.
+     */
+    public void resetAttached(NinePatchLook background, Hitbox attachTo, String text, int maxTextWidth) {
+        HitboxMover mover = getMover();
+        if (mover instanceof HitboxAttachedMover) {
+            ((HitboxAttachedMover) mover).attachTo(attachTo);
+        } else {
+            mover = new HitboxAttachedMover(attachTo);
+        }
+        reset(background, 0, 0, mover, text, maxTextWidth);
+    }
+
 }
@@ -22,13 +22,17 @@ import dan.dit.whatsthat.util.flatworld.collision.Hitbox;
  */
 public class HitboxAttachedMover extends HitboxMover {
 
-    private final Hitbox mAttachedTo;
+    private Hitbox mAttachedTo;
 
     public HitboxAttachedMover(Hitbox attachTo) {
-        mAttachedTo = attachTo;
-        if (mAttachedTo == null) {
+        attachTo(attachTo);
+    }
+
+    public void attachTo(Hitbox attachTo) {
+        if (attachTo == null) {
             throw new IllegalArgumentException("Cannot attack to null hitbox.");
         }
+        mAttachedTo = attachTo;
     }
 
     @Override
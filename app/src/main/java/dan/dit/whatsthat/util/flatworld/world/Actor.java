@@ -33,6 +33,14 @@ public class Actor {
     private final SparseArray<Look> mStateFrames = new SparseArray<>();
     protected Look mCurrentLook;
     private boolean mActive;
+    // the center before and right after the last update, used to interpolate drawing
+    private float mPreviousCenterX;
+    private float mPreviousCenterY;
+    private float mUpdatedCenterX;
+    private float mUpdatedCenterY;
+    // the first update after getting active places the actor, it does not move continuously
+    private boolean mPlaced;
+    int mWorldSlot = WorldStore.SLOT_NONE; // maintained by the world's actor store
 
     public Actor(Hitbox hitbox, HitboxMover mover, Look defaultLook) {
         mHitbox = hitbox;
@@ -54,7 +62,17 @@ public class Actor {
     }
 
     public boolean update(long updatePeriod) {
+        mPreviousCenterX = mHitbox.getCenterX();
+        mPreviousCenterY = mHitbox.getCenterY();
         boolean stateChange = mMover.update(mHitbox, updatePeriod);
+        mUpdatedCenterX = mHitbox.getCenterX();
+        mUpdatedCenterY = mHitbox.getCenterY();
+        if (mPlaced) {
+            mHitbox.setSweep(mUpdatedCenterX - mPreviousCenterX, mUpdatedCenterY - mPreviousCenterY);
+        } else {
+            mHitbox.setSweep(0.f, 0.f);
+            mPlaced = true;
+        }
         if (stateChange) {
             onUpdateChangedMoverState();
         }
@@ -76,6 +94,11 @@ public class Actor {
     public final boolean setActive(boolean active) {
         boolean oldState = mActive;
         mActive = active;
+        if (active && !oldState) {
+            // an actor that joins again did not move since its last update
+            mHitbox.setSweep(0.f, 0.f);
+            mPlaced = false;
+        }
         return oldState != mActive;
     }
 
@@ -108,9 +131,29 @@ public class Actor {
     }
 
     public void draw(Canvas canvas, Paint paint) {
+        draw(canvas, paint, 1.f);
+    }
+
+    /**
+     * Draws the actor at a position between the one before and the one after the last update.
+     * If the hitbox was moved after the last update, it is drawn at its current position.
+     * @param canvas The canvas to draw onto.
+     * @param paint The paint to use, can be null.
+     * @param interpolation The fraction of the last update's movement, 1 for the current
+     *                      position.
+     */
+    public void draw(Canvas canvas, Paint paint, float interpolation) {
         if (mCurrentLook != null && mActive) {
             RectF bound = mHitbox.getBoundingRect();
-            mCurrentLook.draw(canvas, bound.left, bound.top, paint);
+            float x = bound.left;
+            float y = bound.top;
+            float centerX = mHitbox.getCenterX();
+            float centerY = mHitbox.getCenterY();
+            if (interpolation < 1.f && centerX == mUpdatedCenterX && centerY == mUpdatedCenterY) {
+                x += (interpolation - 1.f) * (centerX - mPreviousCenterX);
+                y += (interpolation - 1.f) * (centerY - mPreviousCenterY);
+            }
+            mCurrentLook.draw(canvas, x, y, paint);
         }
     }
 
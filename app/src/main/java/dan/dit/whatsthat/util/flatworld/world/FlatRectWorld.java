@@ -21,7 +21,6 @@ import java.util.Random;
 
 import dan.dit.whatsthat.util.flatworld.collision.CollisionController;
 import dan.dit.whatsthat.util.flatworld.collision.Hitbox;
-import dan.dit.whatsthat.util.flatworld.effects.WorldEffect;
 import dan.dit.whatsthat.util.flatworld.look.NinePatchLook;
 
 /**
@@ -106,7 +105,22 @@ public class FlatRectWorld extends FlatWorld {
         checkLeaveWorld(actor);
     }
 
-    public WorldEffect attachTimedMessage(Actor attachTo, NinePatchLook[] cornerPatches, String text, long duration) {
+    /**
+     * Shows the text next to the given actor, following it, for the given duration. The text
+     * starts fading after the given offset like effects added by addEffect.
+     * @param attachTo The actor to follow.
+     * @param cornerPatches Backgrounds pointing to the top left, top right, bottom right and
+     *                      bottom left, chosen so that the text points to the actor from the
+     *                      inside of the world.
+     * @param text The text to show.
+     * @param duration The duration in milliseconds.
+     * @param fadeOffset The time in milliseconds before fading starts.
+     * @param fadeFrom The color to fade from.
+     * @param fadeTo The color to fade to.
+     * @param fadeAlphaOnly If only the alpha value of the colors is faded.
+     */
+    public void attachTimedMessage(Actor attachTo, NinePatchLook[] cornerPatches, String text, long duration,
+                                   long fadeOffset, int fadeFrom, int fadeTo, boolean fadeAlphaOnly) {
         float width = getRight() - getLeft();
         float height = getBottom() - getTop();
         NinePatchLook look;
@@ -140,9 +154,9 @@ public class FlatRectWorld extends FlatWorld {
             }
         }
         look.reset();
-        WorldEffect effect = attachTimedMessage(look, text, (int) (width * TEXT_EFFECT_MAX_WIDTH_FACTOR), attachTo, duration);
+        attachTimedMessage(look, text, (int) (width * TEXT_EFFECT_MAX_WIDTH_FACTOR), attachTo, duration,
+                fadeOffset, fadeFrom, fadeTo, fadeAlphaOnly);
         look.setOffset(offsetX + (offsetX < 0 ? -look.getWidth() : 0), offsetY + heightFactor * look.getHeight());
-        return effect;
     }
 
     public float getLeft() {
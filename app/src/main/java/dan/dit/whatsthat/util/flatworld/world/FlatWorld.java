@@ -19,8 +19,6 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
@@ -38,12 +36,32 @@ public abstract class FlatWorld {
     private final CollisionController mCollider;
     final FlatWorldCallback mCallback;
 
-    private List<Actor> mActorsIterateData = new ArrayList<>();
-    private final List<Actor> mActorsData = Collections.synchronizedList(new ArrayList<Actor>());
+    private final WorldStore<Actor> mActors = new WorldStore<Actor>() {
+        @Override
+        int getSlot(Actor actor) {
+            return actor.mWorldSlot;
+        }
+
+        @Override
+        void setSlot(Actor actor, int slot) {
+            actor.mWorldSlot = slot;
+        }
+    };
     private final List<Actor> mActiveActors = new ArrayList<>();
 
-    private List<WorldEffect> mEffectsIterateData = new ArrayList<>();
-    private final List<WorldEffect> mEffectsData = Collections.synchronizedList(new ArrayList<WorldEffect>());
+    private final WorldStore<WorldEffect> mEffects = new WorldStore<WorldEffect>() {
+        @Override
+        int getSlot(WorldEffect effect) {
+            return effect.getWorldSlot();
+        }
+
+        @Override
+        void setSlot(WorldEffect effect, int slot) {
+            effect.setWorldSlot(slot);
+        }
+    };
+    // all text effects created by this world, the timed out ones are reused for new messages
+    private final List<WorldEffectMovedText> mTextEffects = new ArrayList<>();
 
     FlatWorld(CollisionController collider, FlatWorldCallback callback) {
         mCollider = collider;
@@ -56,35 +74,68 @@ public abstract class FlatWorld {
         }
     }
 
+    /**
+     * Updates the world. Actors and effects added or removed since the last update or draw
+     * are applied first. Must be invoked by the same thread as the draw methods.
+     * @param updatePeriod The time since the last update in milliseconds.
+     */
     public final void update(long updatePeriod) {
+        applyChanges();
         updateActors(updatePeriod);
         updateEffects(updatePeriod);
         checkCollision();
     }
 
+    private void applyChanges() {
+        mActors.applyChanges();
+        mEffects.applyChanges();
+    }
+
     private void updateEffects(long updatePeriod) {
-        List<WorldEffect> effectIterate = mEffectsIterateData;
-        for (int i = 0; i < effectIterate.size(); i++) {
-            effectIterate.get(i).update(updatePeriod);
+        WorldStore<WorldEffect> effects = mEffects;
+        for (int i = 0; i < effects.size(); i++) {
+            WorldEffect effect = effects.get(i);
+            if (effect != null && effect.update(updatePeriod) == WorldEffect.STATE_TIMEOUT) {
+                effects.remove(effect);
+            }
         }
     }
 
     public void draw(Canvas canvas, Paint paint) {
-        drawActors(canvas, paint);
+        draw(canvas, paint, 1.f);
+    }
+
+    /**
+     * Draws the world with the actors interpolated between their position before and after the
+     * last update. Used by games with a fixed timestep to render the state that lags behind the
+     * real time by the given fraction of a step.
+     * @param canvas The canvas to draw onto.
+     * @param paint The paint to use, can be null.
+     * @param interpolation The fraction of the last update, from 0 to 1.
+     */
+    public void draw(Canvas canvas, Paint paint, float interpolation) {
+        applyChanges();
+        drawActors(canvas, paint, interpolation);
         drawEffects(canvas, paint);
     }
 
-    private void drawActors(Canvas canvas, Paint paint) {
-        List<Actor> actorIterate = mActorsIterateData;
-        for (int i = 0; i < actorIterate.size(); i++) {
-            actorIterate.get(i).draw(canvas, paint);
+    private void drawActors(Canvas canvas, Paint paint, float interpolation) {
+        WorldStore<Actor> actors = mActors;
+        for (int i = 0; i < actors.size(); i++) {
+            Actor actor = actors.get(i);
+            if (actor != null) {
+                actor.draw(canvas, paint, interpolation);
+            }
         }
     }
 
     private void drawEffects(Canvas canvas, Paint paint) {
-        List<WorldEffect> effectIterate = mEffectsIterateData;
-        for (int i = 0; i < effectIterate.size(); i++) {
-            effectIterate.get(i).draw(canvas, paint);
+        WorldStore<WorldEffect> effects = mEffects;
+        for (int i = 0; i < effects.size(); i++) {
+            WorldEffect effect = effects.get(i);
+            if (effect != null) {
+                effect.draw(canvas, paint);
+            }
         }
     }
 
@@ -94,10 +145,10 @@ public abstract class FlatWorld {
 
     private void updateActors(long updatePeriod) {
         mActiveActors.clear();
-        List<Actor> actorIterate = mActorsIterateData;
-        for (int i = 0; i < actorIterate.size(); i++) {
-            Actor actor = actorIterate.get(i);
-            if (actor.isActive()) {
+        WorldStore<Actor> actors = mActors;
+        for (int i = 0; i < actors.size(); i++) {
+            Actor actor = actors.get(i);
+            if (actor != null && actor.isActive()) {
                 if (actor.update(updatePeriod)) {
                     mCallback.onMoverStateChange(actor);
                 }
@@ -112,57 +163,80 @@ public abstract class FlatWorld {
         mCollider.checkCollision(mActiveActors, mCallback);
     }
 
-    private void pushEffect(WorldEffect effect) {
-        synchronized (mEffectsData) {
-            Iterator<WorldEffect> it = mEffectsData.iterator();
-            while (it.hasNext()) {
-                WorldEffect next = it.next();
-                if (next == effect) {
-                    return; // trying to add already added effect!
-                }
-                if (next.getState() == WorldEffect.STATE_TIMEOUT) {
-                    it.remove();
-                }
-            }
-            mEffectsData.add(effect);
-            mEffectsIterateData = new ArrayList<>(mEffectsData);
-        }
-    }
-
     public void addEffect(WorldEffect effect, long duration, long fadeOffset, int fadeFrom, int
             fadeTo, boolean fadeAlphaOnly) {
         effect.setDuration(duration);
         effect.startFade(fadeFrom, fadeTo, duration - fadeOffset, fadeOffset, fadeAlphaOnly);
-        pushEffect(effect);
+        mEffects.add(effect);
     }
 
-    public WorldEffect addTimedMessage(NinePatchLook background, String message, float x, float y, long duration) {
-        WorldEffectMovedText effect = new WorldEffectMovedText(background, x, y, HitboxNoMover.INSTANCE, message, -1);
-        effect.setDuration(duration);
-        pushEffect(effect);
-        return effect;
+    // returns a timed out text effect of this world that is not shown anymore, holding the lock
+    private WorldEffectMovedText obtainTextEffect() {
+        for (int i = 0; i < mTextEffects.size(); i++) {
+            WorldEffectMovedText effect = mTextEffects.get(i);
+            if (effect.getWorldSlot() < 0 && effect.getState() == WorldEffect.STATE_TIMEOUT) {
+                return effect;
+            }
+        }
+        return null;
     }
 
-    WorldEffect attachTimedMessage(NinePatchLook background, String message, int textMaxWidth, Actor toAttach, long duration) {
-        WorldEffectMovedText effect = new WorldEffectMovedText(background, 0, 0, new HitboxAttachedMover(toAttach.getHitbox()), message, textMaxWidth);
-        effect.setDuration(duration);
-        pushEffect(effect);
-        return effect;
+    /**
+     * Shows the message at the given position for the given duration. The effect showing the
+     * message belongs to the world and is reused for later messages after it timed out.
+     * @param background The background that displays the message.
+     * @param message The message to show.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param duration The duration in milliseconds.
+     */
+    public void addTimedMessage(NinePatchLook background, String message, float x, float y, long duration) {
+        synchronized (mTextEffects) {
+            WorldEffectMovedText effect = obtainTextEffect();
+            if (effect == null) {
+                effect = new WorldEffectMovedText(background, x, y, HitboxNoMover.INSTANCE, message, -1);
+                mTextEffects.add(effect);
+            } else {
+                effect.reset(background, x, y, HitboxNoMover.INSTANCE, message, -1);
+            }
+            effect.setDuration(duration);
+            mEffects.add(effect);
+        }
     }
 
-    public void addActor(Actor actor) {
-        mActorsData.add(actor);
-        synchronized (mActorsData) {
-            mActorsIterateData = new ArrayList<>(mActorsData);
+    void attachTimedMessage(NinePatchLook background, String message, int textMaxWidth, Actor toAttach, long duration,
+                            long fadeOffset, int fadeFrom, int fadeTo, boolean fadeAlphaOnly) {
+        synchronized (mTextEffects) {
+            WorldEffectMovedText effect = obtainTextEffect();
+            if (effect == null) {
+                effect = new WorldEffectMovedText(background, 0, 0, new HitboxAttachedMover(toAttach.getHitbox()), message, textMaxWidth);
+                mTextEffects.add(effect);
+            } else {
+                effect.resetAttached(background, toAttach.getHitbox(), message, textMaxWidth);
+            }
+            effect.setDuration(duration);
+            effect.startFade(fadeFrom, fadeTo, duration - fadeOffset, fadeOffset, fadeAlphaOnly);
+            mEffects.add(effect);
         }
     }
 
+    /**
+     * Adds the actor to the world. It is updated and drawn starting with the next update or
+     * draw of the world.
+     * @param actor The actor to add.
+     */
+    public void addActor(Actor actor) {
+        mActors.add(actor);
+    }
+
+    /**
+     * Removes the actor from the world. It will not be updated or drawn anymore, even if
+     * the world is currently updating.
+     * @param actor The actor to remove.
+     * @return If the actor was added before.
+     */
     public boolean removeActor(Actor actor) {
-        boolean removed = mActorsData.remove(actor);
-        synchronized (mActorsData) {
-            mActorsIterateData = new ArrayList<>(mActorsData);
-        }
-        return removed;
+        return mActors.remove(actor);
     }
 
     public abstract void setRandomPositionInside(Actor actor, Random rand);
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.flatworld.world;
+
+/**
+ * The actors or effects of a world. Elements can be added and removed from any thread, but
+ * only the world's game thread iterates them and applies the changes at a frame boundary.
+ * Every element remembers its slot, so removal only clears the slot and the store is compacted
+ * in order when the changes are applied. Added elements are queued until then. No memory is
+ * allocated unless the store grows beyond its largest size so far.
+ * @param <E> The type of the elements.
+ */
+abstract class WorldStore<E> {
+    static final int SLOT_NONE = -1;
+    static final int SLOT_PENDING = -2;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // only written by the game thread while holding the lock, cleared slots are null
+    private Object[] mItems = new Object[INITIAL_CAPACITY];
+    private int mSize;
+    private int mClearedCount;
+    private Object[] mPending = new Object[INITIAL_CAPACITY];
+    private int mPendingCount;
+    private volatile boolean mChanged;
+
+    abstract int getSlot(E element);
+
+    abstract void setSlot(E element, int slot);
+
+    /**
+     * Adds the element, it will be iterated after the next frame boundary.
+     * @param element The element to add.
+     * @return False if the element is already stored or waiting to be added.
+     */
+    synchronized boolean add(E element) {
+        if (getSlot(element) != SLOT_NONE) {
+            return false;
+        }
+        if (mPendingCount == mPending.length) {
+            mPending = grow(mPending);
+        }
+        mPending[mPendingCount++] = element;
+        setSlot(element, SLOT_PENDING);
+        mChanged = true;
+        return true;
+    }
+
+    /**
+     * Removes the element. It is not iterated anymore from now on.
+     * @param element The element to remove.
+     * @return False if the element was not stored or waiting to be added.
+     */
+    synchronized boolean remove(E element) {
+        int slot = getSlot(element);
+        if (slot == SLOT_NONE) {
+            return false;
+        }
+        setSlot(element, SLOT_NONE);
+        if (slot == SLOT_PENDING) {
+            // removed before even being added, there are only few pending elements
+            for (int i = 0; i < mPendingCount; i++) {
+                if (mPending[i] == element) {
+                    mPendingCount--;
+                    System.arraycopy(mPending, i + 1, mPending, i, mPendingCount - i);
+                    mPending[mPendingCount] = null;
+                    break;
+                }
+            }
+            return true;
+        }
+        mItems[slot] = null;
+        mClearedCount++;
+        mChanged = true;
+        return true;
+    }
+
+    /**
+     * Compacts the cleared slots and appends the added elements. Must only be called by the
+     * game thread and not while iterating.
+     */
+    void applyChanges() {
+        if (!mChanged) {
+            return;
+        }
+        synchronized (this) {
+            if (mClearedCount > 0) {
+                int size = 0;
+                for (int i = 0; i < mSize; i++) {
+                    Object item = mItems[i];
+                    if (item != null) {
+                        if (size != i) {
+                            mItems[size] = item;
+                            mItems[i] = null;
+                            setSlot(get(size), size);
+                        }
+                        size++;
+                    }
+                }
+                mSize = size;
+                mClearedCount = 0;
+            }
+            if (mSize + mPendingCount > mItems.length) {
+                Object[] items = new Object[Math.max(mItems.length * 2, mSize + mPendingCount)];
+                System.arraycopy(mItems, 0, items, 0, mSize);
+                mItems = items;
+            }
+            for (int i = 0; i < mPendingCount; i++) {
+                mItems[mSize] = mPending[i];
+                setSlot(get(mSize), mSize);
+                mSize++;
+                mPending[i] = null;
+            }
+            mPendingCount = 0;
+            mChanged = false;
+        }
+    }
+
+    private static Object[] grow(Object[] array) {
+        Object[] grown = new Object[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * The amount of slots to iterate, some of them can be cleared.
+     * @return The amount of slots.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the element in the given slot.
+     * @param slot The slot, smaller than size().
+     * @return The element or null if it was removed since the last frame boundary.
+     */
+    @SuppressWarnings("unchecked")
+    E get(int slot) {
+        return (E) mItems[slot];
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.general;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A Burkhard-Keller tree of 64 bit keys using the hamming distance. Finding all keys within a
+ * small distance of a given key only visits a small part of the tree instead of comparing with
+ * every key. Multiple values can be stored for the same key.
+ * @param <T> The type of the values stored for the keys.
+ */
+public class BKTree<T> {
+    private static final int MAX_DISTANCE = 64;
+
+    private Node<T> mRoot;
+    private int mSize;
+
+    private static class Node<T> {
+        private final long mKey;
+        private final List<T> mValues = new ArrayList<>(1);
+        // indexed by the distance of the child's key to this key, created on demand
+        private Node<T>[] mChildren;
+
+        private Node(long key) {
+            mKey = key;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Node<T> getOrCreateChild(int distance, long key) {
+            if (mChildren == null) {
+                mChildren = (Node<T>[]) new Node[MAX_DISTANCE + 1];
+            }
+            Node<T> child = mChildren[distance];
+            if (child == null) {
+                child = new Node<>(key);
+                mChildren[distance] = child;
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Returns the hamming distance of the given keys.
+     * @param key1 The first key.
+     * @param key2 The second key.
+     * @return The amount of differing bits.
+     */
+    public static int getDistance(long key1, long key2) {
+        return Long.bitCount(key1 ^ key2);
+    }
+
+    /**
+     * Adds the value for the given key.
+     * @param key The key.
+     * @param value The value to add.
+     */
+    public void add(long key, T value) {
+        if (mRoot == null) {
+            mRoot = new Node<>(key);
+        }
+        Node<T> node = mRoot;
+        int distance;
+        while ((distance = getDistance(node.mKey, key)) != 0) {
+            node = node.getOrCreateChild(distance, key);
+        }
+        node.mValues.add(value);
+        mSize++;
+    }
+
+    /**
+     * Finds all values whose keys are within the given distance of the key.
+     * @param key The key to search for.
+     * @param maxDistance The maximum hamming distance, inclusive.
+     * @return A new list of all found values, empty if there are none.
+     */
+    public List<T> find(long key, int maxDistance) {
+        List<T> result = new ArrayList<>();
+        if (mRoot == null) {
+            return result;
+        }
+        Deque<Node<T>> toVisit = new ArrayDeque<>();
+        toVisit.add(mRoot);
+        while (!toVisit.isEmpty()) {
+            Node<T> node = toVisit.poll();
+            int distance = getDistance(node.mKey, key);
+            if (distance <= maxDistance) {
+                result.addAll(node.mValues);
+            }
+            if (node.mChildren != null) {
+                // by the triangle inequality only children in this distance range can match
+                int from = Math.max(1, distance - maxDistance);
+                int to = Math.min(MAX_DISTANCE, distance + maxDistance);
+                for (int i = from; i <= to; i++) {
+                    if (node.mChildren[i] != null) {
+                        toVisit.add(node.mChildren[i]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the amount of added values.
+     * @return The size of the tree.
+     */
+    public int size() {
+        return mSize;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes a bitmap in a single sweep to get its hash, perceptual hash, brightness histogram,
+ * average color, contrast and greyness.
+ * The pixels are read in bands of rows, so no copy of the whole bitmap is needed. Big bitmaps
+ * are analyzed by multiple threads, each band is analyzed on its own and the partial results are
+ * merged in order. The hash equals the MD5 hash of the bitmap's raw pixel data as given by
+ * Bitmap.copyPixelsToBuffer and therefore stays compatible with hashes of existing images.<br>
+ * Each thread uses its own digest, so bitmaps can be analyzed concurrently.
+ */
+public class BitmapAnalysis {
+    /**
+     * The amount of buckets of the brightness histogram.
+     */
+    public static final int HISTOGRAM_DEPTH = 256;
+    private static final int BAND_PIXELS = 16384;
+    // smaller bitmaps are faster analyzed by the calling thread alone
+    private static final int MIN_PARALLEL_PIXELS = 8 * BAND_PIXELS;
+    // bands that are analyzed or waiting to be merged per thread
+    private static final int BANDS_PER_THREAD = 2;
+    // the perceptual hash compares horizontally neighboring cells of a 9x8 grid
+    private static final int PERCEPTUAL_HASH_COLUMNS = 9;
+    private static final int PERCEPTUAL_HASH_ROWS = 8;
+    private static final int PERCEPTUAL_HASH_CELLS = PERCEPTUAL_HASH_COLUMNS * PERCEPTUAL_HASH_ROWS;
+
+    private final String mHash;
+    private final long mPerceptualHash;
+    private final int[] mHistogram;
+    private final int mAverageColor;
+    private final double mContrast;
+    private final double mGreyness;
+
+    private BitmapAnalysis(String hash, long perceptualHash, int[] histogram, int averageColor,
+                           double contrast, double greyness) {
+        mHash = hash;
+        mPerceptualHash = perceptualHash;
+        mHistogram = histogram;
+        mAverageColor = averageColor;
+        mContrast = contrast;
+        mGreyness = greyness;
+    }
+
+    // the sums of a band of rows or of all bands merged so far
+    private static class Sums {
+        long mRed, mGreen, mBlue, mAlpha;
+        double mGreyness;
+        final int[] mContrastFrequencies = new int[BitmapUtil.CONTRAST_DEPTH];
+        final int[] mHistogram = new int[HISTOGRAM_DEPTH];
+        final long[] mCellLuminance = new long[PERCEPTUAL_HASH_CELLS];
+        final int[] mCellPixels = new int[PERCEPTUAL_HASH_CELLS];
+
+        void add(Sums other) {
+            mRed += other.mRed;
+            mGreen += other.mGreen;
+            mBlue += other.mBlue;
+            mAlpha += other.mAlpha;
+            mGreyness += other.mGreyness;
+            for (int i = 0; i < mContrastFrequencies.length; i++) {
+                mContrastFrequencies[i] += other.mContrastFrequencies[i];
+            }
+            for (int i = 0; i < mHistogram.length; i++) {
+                mHistogram[i] += other.mHistogram[i];
+            }
+            for (int i = 0; i < PERCEPTUAL_HASH_CELLS; i++) {
+                mCellLuminance[i] += other.mCellLuminance[i];
+                mCellPixels[i] += other.mCellPixels[i];
+            }
+        }
+    }
+
+    // a band of rows, the buffers are reused for the next band once the band is merged
+    private static class Band extends Sums {
+        private final Bitmap mImage;
+        private final int mWidth;
+        private final int mHeight;
+        private final int[] mCellOfColumn;
+        private final boolean mPremultiplied;
+        private final int[] mPixels;
+        private final byte[] mBytes; // null if the bytes are not hashed
+        private int mCount;
+
+        Band(Bitmap image, int rows, int[] cellOfColumn, boolean hashBytes, boolean premultiplied) {
+            mImage = image;
+            mWidth = image.getWidth();
+            mHeight = image.getHeight();
+            mCellOfColumn = cellOfColumn;
+            mPremultiplied = premultiplied;
+            mPixels = new int[rows * mWidth];
+            mBytes = hashBytes ? new byte[mPixels.length * 4] : null;
+        }
+
+        private void reset() {
+            mRed = mGreen = mBlue = mAlpha = 0L;
+            mGreyness = 0.;
+            Arrays.fill(mContrastFrequencies, 0);
+            Arrays.fill(mHistogram, 0);
+            Arrays.fill(mCellLuminance, 0L);
+            Arrays.fill(mCellPixels, 0);
+        }
+
+        void analyze(int fromY, int rows) {
+            reset();
+            final int width = mWidth;
+            final int[] pixels = mPixels;
+            final byte[] bytes = mBytes;
+            mCount = rows * width;
+            mImage.getPixels(pixels, 0, width, 0, fromY, width, rows);
+            for (int row = 0; row < rows; row++) {
+                final int cellRowStart = ((fromY + row) * PERCEPTUAL_HASH_ROWS / mHeight)
+                        * PERCEPTUAL_HASH_COLUMNS;
+                for (int x = 0, i = row * width; x < width; x++, i++) {
+                    final int color = pixels[i];
+                    final int r = Color.red(color);
+                    final int g = Color.green(color);
+                    final int b = Color.blue(color);
+                    final int a = Color.alpha(color);
+                    mRed += r;
+                    mGreen += g;
+                    mBlue += b;
+                    mAlpha += a;
+                    mGreyness += ColorAnalysisUtil.getGreyness(r, g, b);
+                    final double brightness = ColorAnalysisUtil.getBrightnessWithAlpha(color);
+                    mContrastFrequencies[(int) ((BitmapUtil.CONTRAST_DEPTH - 1) * brightness)]++;
+                    mHistogram[(int) ((HISTOGRAM_DEPTH - 1) * brightness)]++;
+                    final int cell = cellRowStart + mCellOfColumn[x];
+                    mCellLuminance[cell] += r * 299 + g * 587 + b * 114;
+                    mCellPixels[cell]++;
+                    if (bytes != null) {
+                        // the native pixel layout of ARGB_8888 in memory is RGBA
+                        final int offset = i * 4;
+                        if (mPremultiplied && a != 255) {
+                            bytes[offset] = (byte) premultiply(r, a);
+                            bytes[offset + 1] = (byte) premultiply(g, a);
+                            bytes[offset + 2] = (byte) premultiply(b, a);
+                        } else {
+                            bytes[offset] = (byte) r;
+                            bytes[offset + 1] = (byte) g;
+                            bytes[offset + 2] = (byte) b;
+                        }
+                        bytes[offset + 3] = (byte) a;
+                    }
+                }
+            }
+        }
+
+        // must be invoked for the bands in order of their rows
+        void mergeInto(Sums total, MessageDigest digest) {
+            total.add(this);
+            if (mBytes != null) {
+                digest.update(mBytes, 0, mCount * 4);
+            }
+        }
+    }
+
+    /**
+     * Analyzes the given bitmap using all available processors.
+     * @param image The bitmap to analyze, not empty.
+     * @return The analysis result.
+     */
+    public static BitmapAnalysis analyze(Bitmap image) {
+        return analyze(image, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Analyzes the given bitmap.
+     * @param image The bitmap to analyze, not empty.
+     * @param parallelism The maximum amount of threads to use.
+     * @return The analysis result.
+     */
+    public static BitmapAnalysis analyze(Bitmap image, int parallelism) {
+        if (image == null || image.getWidth() <= 0 || image.getHeight() <= 0) {
+            throw new IllegalArgumentException("No bitmap to analyze given: " + image);
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final boolean hashRows = image.getConfig() == Bitmap.Config.ARGB_8888;
+        final boolean premultiplied = Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+                || image.isPremultiplied();
+        MessageDigest digest = ImageUtil.obtainDigest();
+        final boolean hashBytes = hashRows && digest != null;
+
+        final int bandRows = Math.max(1, Math.min(height, BAND_PIXELS / width));
+        final int bands = (height + bandRows - 1) / bandRows;
+        int[] cellOfColumn = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellOfColumn[x] = x * PERCEPTUAL_HASH_COLUMNS / width;
+        }
+        Sums total = new Sums();
+        final int threads = Math.min(parallelism, bands);
+        if (threads <= 1 || (long) width * height < MIN_PARALLEL_PIXELS) {
+            Band band = new Band(image, bandRows, cellOfColumn, hashBytes, premultiplied);
+            for (int fromY = 0; fromY < height; fromY += bandRows) {
+                band.analyze(fromY, Math.min(bandRows, height - fromY));
+                band.mergeInto(total, digest);
+            }
+        } else if (!analyzeParallel(image, threads, bandRows, cellOfColumn, hashBytes,
+                premultiplied, total, digest)) {
+            return analyze(image, 1);
+        }
+
+        String hash = null;
+        if (digest != null) {
+            if (!hashRows) {
+                // other configs have their own pixel layout, hash the raw data
+                ByteBuffer buffer = ByteBuffer.allocate(image.getByteCount());
+                image.copyPixelsToBuffer(buffer);
+                digest.update(buffer.array(), 0, buffer.position());
+            }
+            hash = ImageUtil.digestToHash(digest);
+        }
+        final long pixelCount = (long) width * height;
+        int averageColor = Color.argb((int) (total.mAlpha / pixelCount),
+                (int) (total.mRed / pixelCount), (int) (total.mGreen / pixelCount),
+                (int) (total.mBlue / pixelCount));
+        return new BitmapAnalysis(hash,
+                calculatePerceptualHash(total.mCellLuminance, total.mCellPixels),
+                total.mHistogram, averageColor,
+                BitmapUtil.calculateContrast(total.mContrastFrequencies, pixelCount),
+                total.mGreyness / pixelCount);
+    }
+
+    // returns false if interrupted, the digest and sums are then incomplete
+    private static boolean analyzeParallel(Bitmap image, int threads, int bandRows,
+                                           int[] cellOfColumn, boolean hashBytes,
+                                           boolean premultiplied, Sums total,
+                                           MessageDigest digest) {
+        final int height = image.getHeight();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Queue<Future<Band>> pending = new ArrayDeque<>();
+        Queue<Band> idle = new ArrayDeque<>();
+        try {
+            int fromY = 0;
+            while (fromY < height || !pending.isEmpty()) {
+                // keep all threads busy while the finished bands are merged in order
+                while (fromY < height && pending.size() < threads * BANDS_PER_THREAD) {
+                    final Band band = idle.isEmpty()
+                            ? new Band(image, bandRows, cellOfColumn, hashBytes, premultiplied)
+                            : idle.poll();
+                    final int bandFromY = fromY;
+                    final int rows = Math.min(bandRows, height - fromY);
+                    pending.add(executor.submit(new Callable<Band>() {
+                        @Override
+                        public Band call() throws Exception {
+                            band.analyze(bandFromY, rows);
+                            return band;
+                        }
+                    }));
+                    fromY += rows;
+                }
+                Band band = pending.poll().get();
+                band.mergeInto(total, digest);
+                idle.add(band);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return true;
+    }
+
+    // difference hash: one bit for each cell that is darker than its right neighbor
+    private static long calculatePerceptualHash(long[] cellLuminance, int[] cellPixels) {
+        double[] average = new double[cellLuminance.length];
+        for (int i = 0; i < average.length; i++) {
+            average[i] = cellPixels[i] == 0 ? 0. : cellLuminance[i] / (double) cellPixels[i];
+        }
+        long hash = 0L;
+        for (int y = 0; y < PERCEPTUAL_HASH_ROWS; y++) {
+            for (int x = 0; x < PERCEPTUAL_HASH_COLUMNS - 1; x++) {
+                int cell = y * PERCEPTUAL_HASH_COLUMNS + x;
+                hash <<= 1;
+                if (average[cell] < average[cell + 1]) {
+                    hash |= 1L;
+                }
+            }
+        }
+        return hash;
+    }
+
+    // the same rounding the native bitmap uses, exactly restores the stored premultiplied value
+    private static int premultiply(int value, int alpha) {
+        int product = value * alpha + 128;
+        return (product + (product >> 8)) >> 8;
+    }
+
+    /**
+     * The MD5 hash of the raw pixel data.
+     * @return The hash or null if MD5 is not available.
+     */
+    public String getHash() {
+        return mHash;
+    }
+
+    /**
+     * The 64 bit difference hash of the downscaled brightness. Images that look alike have
+     * perceptual hashes with a small hamming distance, see {@link dan.dit.whatsthat.util.general
+     * .BKTree#getDistance(long, long)}.
+     * @return The perceptual hash.
+     */
+    public long getPerceptualHash() {
+        return mPerceptualHash;
+    }
+
+    /**
+     * The brightness histogram. Bucket i counts the pixels whose brightness as given by {@link
+     * ColorAnalysisUtil#getBrightnessWithAlpha(int)} times HISTOGRAM_DEPTH - 1 rounds down to i.
+     * @return A new array of length HISTOGRAM_DEPTH.
+     */
+    public int[] getHistogram() {
+        return mHistogram.clone();
+    }
+
+    /**
+     * The average color as given by {@link ColorAnalysisUtil#getAverageColor(Bitmap)}.
+     * @return The average color.
+     */
+    public int getAverageColor() {
+        return mAverageColor;
+    }
+
+    /**
+     * The contrast as given by {@link BitmapUtil#calculateContrast(Bitmap)}.
+     * @return The contrast.
+     */
+    public double getContrast() {
+        return mContrast;
+    }
+
+    /**
+     * The greyness as given by {@link BitmapUtil#calculateGreyness(Bitmap)}.
+     * @return The greyness.
+     */
+    public double getGreyness() {
+        return mGreyness;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of mutable bitmaps that are no longer used and can be reused instead of allocating
+ * new ones. Bitmaps are kept in buckets by their config and by a size class, the power of two
+ * their allocated bytes round up to, so a request only looks at two small buckets. Each bucket
+ * has its own lock.<br>
+ * The pool holds at most the given amount of bytes, the biggest bitmaps are evicted
+ * first when it gets full. Evicted bitmaps are only dropped from the pool, not recycled.
+ */
+public class BitmapPool {
+    private static final int SIZE_CLASSES = 33; // byte counts up to 2^32
+    private static final Bitmap.Config[] CONFIGS = Bitmap.Config.values();
+
+    private final long mMaxBytes;
+    // indexed by config ordinal and size class
+    private final ArrayDeque<Entry>[][] mBuckets;
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+
+    // remembers the size as a recycled bitmap does not know it anymore
+    private static class Entry {
+        private final Bitmap mBitmap;
+        private final long mBytes;
+
+        private Entry(Bitmap bitmap, long bytes) {
+            mBitmap = bitmap;
+            mBytes = bytes;
+        }
+    }
+
+    /**
+     * Creates a new empty pool.
+     * @param maxBytes The maximum amount of bytes of all pooled bitmaps.
+     */
+    public BitmapPool(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Illegal pool size " + maxBytes);
+        }
+        mMaxBytes = maxBytes;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Entry>[][] buckets = new ArrayDeque[CONFIGS.length][SIZE_CLASSES];
+        mBuckets = buckets;
+        for (ArrayDeque<Entry>[] configBuckets : mBuckets) {
+            for (int i = 0; i < configBuckets.length; i++) {
+                configBuckets[i] = new ArrayDeque<>();
+            }
+        }
+    }
+
+    private static int getSizeClass(long bytes) {
+        return bytes <= 1L ? 0 : 64 - Long.numberOfLeadingZeros(bytes - 1L);
+    }
+
+    private static long getAllocatedBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Returns the byte usage per pixel of a bitmap based on its configuration.
+     * @param config The bitmap config.
+     * @return The bytes per pixel.
+     */
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 4;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 1;
+    }
+
+    /**
+     * Adds the bitmap to the pool. Immutable or recycled bitmaps and bitmaps that are already
+     * pooled are ignored.
+     * @param bitmap The bitmap that is no longer used by the caller.
+     * @return If the bitmap was added.
+     */
+    public boolean put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || bitmap.getConfig() == null) {
+            return false;
+        }
+        final long bytes = getAllocatedBytes(bitmap);
+        if (bytes > mMaxBytes) {
+            return false;
+        }
+        ArrayDeque<Entry> bucket = mBuckets[bitmap.getConfig().ordinal()][getSizeClass(bytes)];
+        synchronized (bucket) {
+            for (Entry pooled : bucket) {
+                if (pooled.mBitmap == bitmap) {
+                    return false;
+                }
+            }
+            bucket.addLast(new Entry(bitmap, bytes));
+        }
+        if (mBytes.addAndGet(bytes) > mMaxBytes) {
+            trimToSize(mMaxBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a bitmap from the pool that can hold a bitmap of the given dimension and config.
+     * Since KitKat this is any bitmap with enough allocated bytes which needs to be
+     * reconfigured by the caller, before it has to match exactly.
+     * @param width The required width.
+     * @param height The required height.
+     * @param config The required config or null for any config.
+     * @return A pooled bitmap or null if there is none.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap result = null;
+        if (config == null) {
+            for (int i = 0; i < CONFIGS.length && result == null; i++) {
+                result = getWithConfig(width, height, CONFIGS[i]);
+            }
+        } else {
+            result = getWithConfig(width, height, config);
+        }
+        if (result == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return result;
+    }
+
+    private Bitmap getWithConfig(int width, int height, Bitmap.Config config) {
+        final long requiredBytes = (long) width * height * getBytesPerPixel(config);
+        final int sizeClass = getSizeClass(requiredBytes);
+        final boolean reconfigurable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        ArrayDeque<Entry>[] configBuckets = mBuckets[config.ordinal()];
+        // the next bigger class always fits but can waste up to three quarters of its memory
+        final int maxSizeClass = reconfigurable ? Math.min(sizeClass + 1, SIZE_CLASSES - 1) : sizeClass;
+        for (int i = sizeClass; i <= maxSizeClass; i++) {
+            ArrayDeque<Entry> bucket = configBuckets[i];
+            synchronized (bucket) {
+                Iterator<Entry> it = bucket.iterator();
+                while (it.hasNext()) {
+                    Entry candidate = it.next();
+                    if (candidate.mBitmap.isRecycled()) {
+                        // recycled by someone else after being pooled
+                        it.remove();
+                        mBytes.addAndGet(-candidate.mBytes);
+                        continue;
+                    }
+                    if (reconfigurable ? candidate.mBytes >= requiredBytes
+                            : candidate.mBitmap.getWidth() == width
+                                && candidate.mBitmap.getHeight() == height) {
+                        it.remove();
+                        mBytes.addAndGet(-candidate.mBytes);
+                        return candidate.mBitmap;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts bitmaps until the pool holds at most the given amount of bytes. The biggest
+     * and among those the oldest bitmaps are evicted first.
+     * @param maxBytes The maximum amount of bytes to keep, 0 to evict all.
+     */
+    public void trimToSize(long maxBytes) {
+        for (int sizeClass = SIZE_CLASSES - 1; sizeClass >= 0 && mBytes.get() > maxBytes;
+             sizeClass--) {
+            for (int config = 0; config < CONFIGS.length && mBytes.get() > maxBytes; config++) {
+                ArrayDeque<Entry> bucket = mBuckets[config][sizeClass];
+                synchronized (bucket) {
+                    while (!bucket.isEmpty() && mBytes.get() > maxBytes) {
+                        Entry evicted = bucket.pollFirst();
+                        mBytes.addAndGet(-evicted.mBytes);
+                        mEvictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts all bitmaps.
+     */
+    public void evictAll() {
+        trimToSize(0L);
+    }
+
+    /**
+     * Returns the amount of bytes allocated by the pooled bitmaps.
+     * @return The pool size in bytes.
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    public int getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapPool[" + (mBytes.get() / 1024) + "/" + (mMaxBytes / 1024) + "KB, hits="
+                + mHits.get() + ", misses=" + mMisses.get() + ", evictions=" + mEvictions.get()
+                + "]";
+    }
+}
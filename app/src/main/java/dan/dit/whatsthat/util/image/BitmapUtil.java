@@ -17,9 +17,7 @@ package dan.dit.whatsthat.util.image;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.util.Log;
 
-import java.nio.ByteBuffer;
 
 /**
  * Created by daniel on 08.04.15.
@@ -62,53 +60,64 @@ public class BitmapUtil {
     public static final double GREYNESS_MEDIUM_THRESHOLD = 0.3; // everything between this and STRONG is medium grey, everything above is getting very colorful
 
     public static double calculateContrast(Bitmap image) {
-        final int depth = 64;
-        int[] frequencies = new int[depth];
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgba = image.getPixel(x, y);
-                int value = (int) ((depth - 1) * ColorAnalysisUtil.getBrightnessWithAlpha(rgba));
-                frequencies[value]++;
-            }
-        }
+        int[] frequencies = new int[CONTRAST_DEPTH];
+        PixelRaster raster = PixelRaster.obtain(image);
+        final int[] pixels = raster.getPixels();
+        final int count = image.getWidth() * image.getHeight();
+        for (int i = 0; i < count; i++) {
+            frequencies[getContrastBucket(pixels[i])]++;
+        }
+        raster.release();
+        return calculateContrast(frequencies, count);
+    }
 
+    // the amount of brightness buckets used for contrast calculation
+    static final int CONTRAST_DEPTH = 64;
+
+    static int getContrastBucket(int rgba) {
+        return (int) ((CONTRAST_DEPTH - 1) * ColorAnalysisUtil.getBrightnessWithAlpha(rgba));
+    }
+
+    static double calculateContrast(int[] frequencies, long pixels) {
         //wolfram alpha: interpolating polynomial | {{0, 1}, {11, 0.2}, {32, 0}, {52, 0.2}, {63, 1}}
         //1 - 0.12162 x + 0.00562105 x^2 - 0.000117161 x^3 + 9.298497201723005*^-7 x^4
         double contrast = 0.;
-        for (int i = 1; i < depth; i++) {
+        for (int i = 1; i < CONTRAST_DEPTH; i++) {
             contrast += frequencies[i] * (1. + i * (-0.12162 + i * (0.00562105 + i * (-0.000117161 + i * 9.298497201723005E-7))));
 
         }
-        return contrast / ((double) (image.getWidth() * image.getHeight()));
+        return contrast / ((double) pixels);
     }
 
     public static double calculateGreyness(Bitmap image) {
         // calculate average greyness of pixels
         double greyness = 0.;
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getPixel(x, y);
-                greyness += ColorAnalysisUtil.getGreyness(Color.red(rgb), Color.green(rgb), Color.blue(rgb));
-            }
-        }
+        PixelRaster raster = PixelRaster.obtain(image);
+        final int[] pixels = raster.getPixels();
+        final int count = image.getWidth() * image.getHeight();
+        for (int i = 0; i < count; i++) {
+            int rgb = pixels[i];
+            greyness += ColorAnalysisUtil.getGreyness(Color.red(rgb), Color.green(rgb), Color.blue(rgb));
+        }
+        raster.release();
         return greyness / ((double) (image.getWidth() * image.getHeight()));
     }
 
     public static Bitmap improveContrast(Bitmap originalImage) {
-        Bitmap result = Bitmap.createBitmap(originalImage.getWidth(), originalImage.getHeight(), originalImage.getConfig());
         // http://de.wikipedia.org/wiki/Punktoperator_%28Bildverarbeitung%29, Histogrammäqualisation
+        PixelRaster raster = PixelRaster.obtain(originalImage);
+        final int[] pixels = raster.getPixels();
+        final int count = originalImage.getWidth() * originalImage.getHeight();
 
         // calculate relative frequencies of occurances of certain brightness values
-        final int depth = 256;
+        final int depth = BitmapAnalysis.HISTOGRAM_DEPTH;
         int[] frequencies = new int[depth];
-        for (int x = 0; x < originalImage.getWidth(); x++) {
-            for (int y = 0; y < originalImage.getHeight(); y++) {
-                int oldRgba = originalImage.getPixel(x, y);
-                int value = (int) ((depth - 1) * ColorAnalysisUtil.getBrightnessWithAlpha(oldRgba));
-                // use alpha=255 to restore value without rounding error, save alpha in blue
-                result.setPixel(x, y, ColorAnalysisUtil.toRGB(value, value, Color.alpha(oldRgba), 255));
-                frequencies[value]++;
-            }
+        for (int i = 0; i < count; i++) {
+            int oldRgba = pixels[i];
+            int value = (int) ((depth - 1) * ColorAnalysisUtil.getBrightnessWithAlpha(oldRgba));
+            // keep the alpha and the brightness value in blue
+            pixels[i] = (oldRgba & 0xFF000000) | value;
+            frequencies[value]++;
         }
 
         // accumulate frequencies
@@ -116,18 +125,21 @@ public class BitmapUtil {
             frequencies[i] = frequencies[i] + frequencies[i - 1];
         }
 
-        // Histogrammhyperbolisation
+        // Histogrammhyperbolisation, the new brightness only depends on the old one so it is
+        // looked up in a table holding the resulting grey color
         final double power = 3./2.;
-        for (int x = 0; x < result.getWidth(); x++) {
-            for (int y = 0; y < result.getHeight(); y++) {
-                int rgba = result.getPixel(x, y);
-                int value = Color.red(rgba);
-                value = Math.max(Math.min(depth - 1, value), 0);
-                value = (int) (value * Math.pow(frequencies[value] / ((double) (result.getWidth() * result.getHeight())), power));
-                value = Math.max(Math.min(depth - 1, value), 0);
-                result.setPixel(x, y, ColorAnalysisUtil.toRGB(value, value, value, Color.blue(rgba)));
-            }
-        }
+        int[] lookup = new int[depth];
+        for (int value = 0; value < depth; value++) {
+            int newValue = (int) (value * Math.pow(frequencies[value] / ((double) count), power));
+            newValue = Math.max(Math.min(depth - 1, newValue), 0);
+            lookup[value] = ColorAnalysisUtil.toRGB(newValue, newValue, newValue, 0);
+        }
+        for (int i = 0; i < count; i++) {
+            int rgba = pixels[i];
+            pixels[i] = (rgba & 0xFF000000) | lookup[rgba & 0xFF];
+        }
+        Bitmap result = raster.toBitmap(originalImage.getConfig());
+        raster.release();
         return result;
     }
 
@@ -153,84 +165,47 @@ public class BitmapUtil {
         return Bitmap.createScaledBitmap(originalImage, wantedWidth, wantedHeight, true);
     }
 
-    public static class ByteBufferHolder {
-        private ByteBuffer mBuffer;
-
-        public byte[] array() {
-            return mBuffer == null ? null : mBuffer.array();
-        }
-    }
-
     /**
-     * Extract the data bytes from the given png image.
-     *
-     * @param buffer A buffer holder to use to copy pixel data into, can be uninitialized to allocate new storage.
-     * @param image The image in png format.
+     * Calculates the dimension an image of the given dimension gets scaled to by
+     * attemptBitmapScaling. This allows to compute the target size from the bounds of an image
+     * before decoding it.
+     * @param imageWidth The width of the image.
+     * @param imageHeight The height of the image.
+     * @param reqWidth The required width, if not positive the image is not scaled.
+     * @param reqHeight The required height, if not positive the image is not scaled.
+     * @param mode The scaling mode, one of the MODE_ constants.
+     * @return The dimension of the scaled image.
      */
-    public static void extractDataFromBitmap(ByteBufferHolder buffer, Bitmap image) {
-        int requiredCapacity = image.getByteCount();
-        if (buffer.mBuffer == null || buffer.mBuffer.capacity() < requiredCapacity) {
-            // we need a new or bigger buffer
-            Runtime runtime = Runtime.getRuntime();
-            runtime.gc();
-            long maxRemainingBytes = (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory()) / 2; // we only talk half
-            if (requiredCapacity < maxRemainingBytes) {
-                buffer.mBuffer = ByteBuffer.allocate(requiredCapacity);
-                buffer.mBuffer.mark();
-                image.copyPixelsToBuffer(buffer.mBuffer);
-                return;
-            } else {
-                // we dont have so much memory left, panic mode
-                if (buffer.mBuffer == null) {
-                    buffer.mBuffer = ByteBuffer.allocate((int) maxRemainingBytes);
-                    buffer.mBuffer.mark();
-                } else {
-                    buffer.mBuffer.reset();
-                }
-                for (int i = 0; i < Math.min(image.getHeight(), Math.max(maxRemainingBytes, buffer.mBuffer.capacity())) / 4; i++) {
-                    int x = Math.min(i, image.getWidth() - 1);
-                    int y = i;
-                    if (y >= image.getHeight()) {
-                        break;
-                    }
-                    int pixel = image.getPixel(x, y);
-                    buffer.mBuffer.put((byte) ((pixel & 0xFF000000) >> 6));
-                    buffer.mBuffer.put((byte) ((pixel & 0x00FF0000) >> 4));
-                    buffer.mBuffer.put((byte) ((pixel & 0x0000FF00) >> 2));
-                    buffer.mBuffer.put((byte) ((pixel & 0x000000FF)));
-                }
-                Log.e("Image", "Too little memory to exract all data from bitmap: " + maxRemainingBytes + ", required: " + requiredCapacity);
-                return;
-            }
-        }
-        buffer.mBuffer.reset();
-        image.copyPixelsToBuffer(buffer.mBuffer);
-    }
-
-    public static Bitmap attemptBitmapScaling(Bitmap result, int reqWidth, int reqHeight, int mode) {
+    public static Dimension getScaledDimension(int imageWidth, int imageHeight, int reqWidth, int reqHeight, int mode) {
         if (reqWidth <= 0 || reqHeight <= 0) {
-            return result;
+            return new Dimension(imageWidth, imageHeight);
         }
-        int imageWidth = result.getWidth();
-        int imageHeight = result.getHeight();
         if (imageWidth == reqWidth && imageHeight == reqHeight) {
-            return result;
+            return new Dimension(imageWidth, imageHeight);
         }
         if (mode == MODE_FIT_NO_GROW) {
             if (imageWidth <= reqWidth && imageHeight <= reqHeight) {
-                return result; // we already fit inside, do not grow
+                return new Dimension(imageWidth, imageHeight); // we already fit inside, do not grow
             }
             // else scale down to fit inside, keeping aspect ratio
         }
         //      for fitting similar aspect ratios, calculate how bad it is to forced scale the image to desired dimensions
         if (mode == MODE_FIT_EXACT
-                || (mode == MODE_FIT_INSIDE_GENEROUS && ImageUtil.areAspectRatiosSimilar(reqWidth, reqHeight, result.getWidth(), result.getHeight()))) {
+                || (mode == MODE_FIT_INSIDE_GENEROUS && ImageUtil.areAspectRatiosSimilar(reqWidth, reqHeight, imageWidth, imageHeight))) {
             // scale the image exactly to required dimensions, will most likely break the aspect ratio but not too hard
-            return Bitmap.createScaledBitmap(result, reqWidth, reqHeight, true);
+            return new Dimension(reqWidth, reqHeight);
         }
         // scale the bitmap so that bitmaps dimensions are smaller or equal to required dimensions, keeping aspect ratio
-        double scalingFactor = Math.min(reqHeight / ((double) result.getHeight()), reqWidth / ((double) result.getWidth()));
-        return Bitmap.createScaledBitmap(result, (int) (result.getWidth() * scalingFactor), (int) (result.getHeight() * scalingFactor), true);
+        double scalingFactor = Math.min(reqHeight / ((double) imageHeight), reqWidth / ((double) imageWidth));
+        return new Dimension((int) (imageWidth * scalingFactor), (int) (imageHeight * scalingFactor));
+    }
+
+    public static Bitmap attemptBitmapScaling(Bitmap result, int reqWidth, int reqHeight, int mode) {
+        Dimension scaled = getScaledDimension(result.getWidth(), result.getHeight(), reqWidth, reqHeight, mode);
+        if (scaled.getWidth() == result.getWidth() && scaled.getHeight() == result.getHeight()) {
+            return result;
+        }
+        return Bitmap.createScaledBitmap(result, scaled.getWidth(), scaled.getHeight(), true);
     }
 
     public static Bitmap attemptBitmapScaling(Bitmap result, int reqWidth, int reqHeight, boolean enforceDimension) {
@@ -18,6 +18,8 @@ package dan.dit.whatsthat.util.image;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
+import java.util.Arrays;
+
 /**
  * This class is an utility class. It offers RGB convertion
  * methods and helping methods to compare and store the rgb data.
@@ -159,15 +161,16 @@ public final class ColorAnalysisUtil {
 		int width = image.getWidth();
 		int height = image.getHeight();
 		long averageRed = 0, averageGreen = 0, averageBlue = 0, averageAlpha = 0;
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int rgba = image.getPixel(x, y);
-				averageRed += Color.red(rgba);
-				averageGreen += Color.green(rgba);
-				averageBlue += Color.blue(rgba);
-				averageAlpha += Color.alpha(rgba);
-			}
+		PixelRaster raster = PixelRaster.obtain(image);
+		final int[] colors = raster.getPixels();
+		for (int i = 0; i < colors.length; i++) {
+			int rgba = colors[i];
+			averageRed += Color.red(rgba);
+			averageGreen += Color.green(rgba);
+			averageBlue += Color.blue(rgba);
+			averageAlpha += Color.alpha(rgba);
 		}
+		raster.release();
 		long pixels = width * height;
 		return Color.argb((int) (averageAlpha / pixels), (int) (averageRed / pixels), (int) (averageGreen / pixels), (int) (averageBlue / pixels));
 	}
@@ -194,6 +197,57 @@ public final class ColorAnalysisUtil {
         return Color.argb((int) (averageAlpha / pixels), (int) (averageRed / pixels), (int) (averageGreen / pixels), (int) (averageBlue / pixels));
 	}
 
+	/**
+	 * Calculates the average colors of a grid of equally sized rects that starts at the top left
+	 * of the image. The pixels are read once, one row of rects at a time, so only the pixels
+	 * of a single row of rects are held in memory.
+	 * @param image The image, at least as big as the grid.
+	 * @param rectWidth The width of each rect.
+	 * @param rectHeight The height of each rect.
+	 * @param averages Receives the average color of each rect, indexed by row and column. The
+	 *                 size of the array defines the size of the grid.
+	 */
+	public static void getAverageColors(Bitmap image, int rectWidth, int rectHeight, int[][] averages) {
+		if (averages.length == 0 || averages[0].length == 0 || rectWidth <= 0 || rectHeight <= 0) {
+			return;
+		}
+		final int columns = averages[0].length;
+		final long pixelsPerRect = (long) rectWidth * rectHeight;
+		PixelRaster band = PixelRaster.obtain(columns * rectWidth, rectHeight);
+		final int[] colors = band.getPixels();
+		long[] sums = new long[columns * 4]; // alpha, red, green and blue of each column
+		for (int row = 0; row < averages.length; row++) {
+			band.readFrom(image, 0, row * rectHeight);
+			Arrays.fill(sums, 0L);
+			int index = 0;
+			for (int y = 0; y < rectHeight; y++) {
+				for (int column = 0; column < columns; column++) {
+					long alpha = 0, red = 0, green = 0, blue = 0;
+					for (int x = 0; x < rectWidth; x++) {
+						int rgba = colors[index++];
+						alpha += Color.alpha(rgba);
+						red += Color.red(rgba);
+						green += Color.green(rgba);
+						blue += Color.blue(rgba);
+					}
+					int sumIndex = column * 4;
+					sums[sumIndex] += alpha;
+					sums[sumIndex + 1] += red;
+					sums[sumIndex + 2] += green;
+					sums[sumIndex + 3] += blue;
+				}
+			}
+			for (int column = 0; column < columns; column++) {
+				int sumIndex = column * 4;
+				averages[row][column] = Color.argb((int) (sums[sumIndex] / pixelsPerRect),
+						(int) (sums[sumIndex + 1] / pixelsPerRect),
+						(int) (sums[sumIndex + 2] / pixelsPerRect),
+						(int) (sums[sumIndex + 3] / pixelsPerRect));
+			}
+		}
+		band.release();
+	}
+
 	/**
 	 * Returns a String representation of the given average color in HEX format, optionally with the alpha.
 	 * @param rgb The rgb to visualize.
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dan.dit.whatsthat.util.general.PercentProgressListener;
+
+/**
+ * Clusters the colors of an image with the k-means algorithm. The assignment of pixels
+ * to clusters is split into bands of rows that are processed in parallel, each with its own
+ * accumulators for the new cluster centers.<br>
+ * If the color metric offers a triangle distance (see {@link ColorMetric#toTriangleDistance(double)})
+ * bounds for each pixel skip most distance calculations once the centers start to settle (Hamerly's
+ * algorithm). This needs two additional floats per pixel and can be disabled.<br>
+ * Alternatively the centers can be learned on random mini batches of pixels, which needs
+ * only a final full assignment and is much faster for huge images at a small cost of quality.
+ */
+public class ColorClusterer {
+    private static final int BANDS_PER_THREAD = 2;
+    // for few clusters the plain search is faster than keeping the bounds up to date
+    private static final int PRUNING_MIN_CLUSTERS = 16;
+    // below this amount of distance calculations per run starting threads costs more than it gains
+    private static final long MIN_PARALLEL_WORK = 1L << 20;
+
+    private final ColorMetric mColorMetric;
+    private final boolean mUseAlpha;
+    private int mParallelism;
+    private boolean mPruning;
+    private int mMiniBatchSize;
+    private int mMaxIterations;
+
+    // per run state
+    private int[] mPixels;
+    private int[] mClusterNumbers;
+    private int[] mCenters;
+    private float[] mUpperBounds;
+    private float[] mLowerBounds;
+    private double[] mHalfMinCenterDistance;
+    private double[] mCenterMovement;
+    private int mMaxMovementIndex;
+    private double mMaxMovement;
+    private double mSecondMaxMovement;
+
+    /**
+     * Creates a new clusterer that runs on all available processors with pruning enabled and
+     * without mini batches.
+     * @param metric The metric to measure distances of colors.
+     * @param useAlpha If the alpha channel is used.
+     */
+    public ColorClusterer(ColorMetric metric, boolean useAlpha) {
+        if (metric == null) {
+            throw new IllegalArgumentException("No color metric given.");
+        }
+        mColorMetric = metric;
+        mUseAlpha = useAlpha;
+        mParallelism = Runtime.getRuntime().availableProcessors();
+        mPruning = true;
+        mMaxIterations = 10;
+    }
+
+    /**
+     * Sets the amount of threads used for assigning pixels.
+     * @param threads The amount of threads, at least one is used.
+     */
+    public void setParallelism(int threads) {
+        mParallelism = Math.max(1, threads);
+    }
+
+    /**
+     * Sets if distance calculations are skipped by bounds. Only has an effect if the metric supports
+     * triangle distances and there are enough clusters to make it worth it.
+     * @param pruning If pruning is enabled.
+     */
+    public void setPruning(boolean pruning) {
+        mPruning = pruning;
+    }
+
+    /**
+     * Sets the size of the random samples that the centers are learned on.
+     * @param miniBatchSize The amount of pixels per iteration, zero or less to use all pixels.
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        mMiniBatchSize = Math.max(0, miniBatchSize);
+    }
+
+    /**
+     * Sets the maximum amount of iterations. Without mini batches the clustering stops earlier
+     * if the amount of pixels that changed their cluster stops decreasing.
+     * @param maxIterations The maximum amount of iterations, at least one.
+     */
+    public void setMaxIterations(int maxIterations) {
+        mMaxIterations = Math.max(1, maxIterations);
+    }
+
+    /**
+     * Clusters the given pixels.
+     * @param pixels The colors of the pixels, row after row.
+     * @param width The width of a row.
+     * @param centers The initial cluster centers, will be changed to the resulting centers.
+     * @param clusterNumbers Receives the index of the cluster of each pixel. Must be of the same
+     *                       length as pixels.
+     * @param progress Is informed about the progress, can be null.
+     * @return False if the clustering was interrupted or failed. Then the centers and cluster
+     * numbers are only partially updated and the interrupt flag of the thread is set again.
+     */
+    public boolean cluster(int[] pixels, int width, int[] centers, int[] clusterNumbers,
+                        PercentProgressListener progress) {
+        if (pixels.length != clusterNumbers.length || centers.length == 0 || width <= 0) {
+            throw new IllegalArgumentException("Illegal pixels or centers given.");
+        }
+        mPixels = pixels;
+        mCenters = centers;
+        mClusterNumbers = clusterNumbers;
+        boolean parallel = mParallelism > 1 && (long) pixels.length * centers.length >= MIN_PARALLEL_WORK;
+        ExecutorService executor = parallel ? Executors.newFixedThreadPool(mParallelism) : null;
+        boolean success = false;
+        try {
+            List<Band> bands = makeBands(width);
+            if (mMiniBatchSize > 0 && mMiniBatchSize < pixels.length) {
+                clusterMiniBatches(progress);
+                runBands(executor, bands, false, true);
+            } else {
+                clusterFully(executor, bands, progress);
+            }
+            success = true;
+        } catch (InterruptedException e) {
+            Log.e("HomeStuff", "ColorClusterer interrupted.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e("HomeStuff", "ColorClusterer failed: " + e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            mPixels = null;
+            mCenters = null;
+            mClusterNumbers = null;
+            mUpperBounds = null;
+            mLowerBounds = null;
+        }
+        if (success && progress != null) {
+            progress.onProgressUpdate(PercentProgressListener.PROGRESS_COMPLETE);
+        }
+        return success;
+    }
+
+    private List<Band> makeBands(int width) {
+        int rows = mPixels.length / width + (mPixels.length % width == 0 ? 0 : 1);
+        int bandCount = Math.max(1, Math.min(rows, mParallelism * BANDS_PER_THREAD));
+        int rowsPerBand = rows / bandCount + (rows % bandCount == 0 ? 0 : 1);
+        List<Band> bands = new ArrayList<>(bandCount);
+        for (int row = 0; row < rows; row += rowsPerBand) {
+            bands.add(new Band(row * width, Math.min(mPixels.length, (row + rowsPerBand) * width)));
+        }
+        return bands;
+    }
+
+    private void clusterFully(ExecutorService executor, List<Band> bands, PercentProgressListener progress)
+            throws InterruptedException, ExecutionException {
+        boolean pruning = mPruning && mCenters.length >= PRUNING_MIN_CLUSTERS
+                && !Double.isNaN(mColorMetric.toTriangleDistance(0.));
+        if (pruning) {
+            mUpperBounds = new float[mPixels.length];
+            mLowerBounds = new float[mPixels.length];
+            mHalfMinCenterDistance = new double[mCenters.length];
+            mCenterMovement = new double[mCenters.length];
+        }
+        int iteration = 0;
+        int changed = Integer.MAX_VALUE;
+        int lastChanged;
+        do {
+            // for improved speed we expect monotonous convergence in the amount of pixels changed, if this ever increases again we stop
+            lastChanged = changed;
+            if (pruning) {
+                calculateHalfMinCenterDistances();
+            }
+            int[] oldCenters = pruning ? Arrays.copyOf(mCenters, mCenters.length) : null;
+            changed = runBands(executor, bands, pruning, iteration == 0);
+            iteration++;
+            if (pruning) {
+                calculateCenterMovement(oldCenters);
+            }
+            if (progress != null) {
+                progress.onProgressUpdate((int) (PercentProgressListener.PROGRESS_COMPLETE * iteration / (double) mMaxIterations));
+            }
+            Log.d("HomeStuff", "ColorClusterer changed pixels: " + changed + " in run " + iteration);
+        } while (changed <= lastChanged && changed > 0 && iteration < mMaxIterations);
+    }
+
+    // assigns all pixels and moves the centers to the mean of their pixels, returns the amount of changed pixels
+    // the bands run on the calling thread if there is no executor
+    private int runBands(ExecutorService executor, List<Band> bands, boolean pruning, boolean firstRun)
+            throws InterruptedException, ExecutionException {
+        for (Band band : bands) {
+            band.prepare(pruning, firstRun);
+        }
+        if (executor != null) {
+            for (Future<Band> result : executor.invokeAll(bands)) {
+                result.get();
+            }
+        } else {
+            for (Band band : bands) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                band.call();
+            }
+        }
+        final int clusterCount = mCenters.length;
+        long[] red = new long[clusterCount];
+        long[] green = new long[clusterCount];
+        long[] blue = new long[clusterCount];
+        long[] alpha = new long[clusterCount];
+        long[] size = new long[clusterCount];
+        int changed = 0;
+        // merge in order so that the result does not depend on the scheduling
+        for (Band band : bands) {
+            changed += band.mChanged;
+            for (int cluster = 0; cluster < clusterCount; cluster++) {
+                red[cluster] += band.mRed[cluster];
+                green[cluster] += band.mGreen[cluster];
+                blue[cluster] += band.mBlue[cluster];
+                alpha[cluster] += band.mAlpha[cluster];
+                size[cluster] += band.mSize[cluster];
+            }
+        }
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            long clusterSize = size[cluster];
+            if (clusterSize > 0) {
+                int alphaValue = mUseAlpha ? (int) (alpha[cluster] / clusterSize) : 255;
+                mCenters[cluster] = (alphaValue << 24) | ((int) (red[cluster] / clusterSize) << 16)
+                        | ((int) (green[cluster] / clusterSize) << 8) | (int) (blue[cluster] / clusterSize);
+            }
+        }
+        return changed;
+    }
+
+    private double triangleDistance(int color1, int color2) {
+        return mColorMetric.toTriangleDistance(mColorMetric.getDistance(color1, color2, mUseAlpha));
+    }
+
+    private void calculateHalfMinCenterDistances() {
+        Arrays.fill(mHalfMinCenterDistance, Double.MAX_VALUE);
+        for (int i = 0; i < mCenters.length; i++) {
+            for (int j = i + 1; j < mCenters.length; j++) {
+                double half = triangleDistance(mCenters[i], mCenters[j]) / 2.;
+                mHalfMinCenterDistance[i] = Math.min(mHalfMinCenterDistance[i], half);
+                mHalfMinCenterDistance[j] = Math.min(mHalfMinCenterDistance[j], half);
+            }
+        }
+    }
+
+    private void calculateCenterMovement(int[] oldCenters) {
+        mMaxMovementIndex = -1;
+        mMaxMovement = 0.;
+        mSecondMaxMovement = 0.;
+        for (int cluster = 0; cluster < mCenters.length; cluster++) {
+            double movement = triangleDistance(oldCenters[cluster], mCenters[cluster]);
+            mCenterMovement[cluster] = movement;
+            if (movement > mMaxMovement) {
+                mSecondMaxMovement = mMaxMovement;
+                mMaxMovement = movement;
+                mMaxMovementIndex = cluster;
+            } else if (movement > mSecondMaxMovement) {
+                mSecondMaxMovement = movement;
+            }
+        }
+    }
+
+    private void clusterMiniBatches(PercentProgressListener progress) {
+        final int clusterCount = mCenters.length;
+        Random rand = new Random();
+        double[] red = new double[clusterCount];
+        double[] green = new double[clusterCount];
+        double[] blue = new double[clusterCount];
+        double[] alpha = new double[clusterCount];
+        long[] counts = new long[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int center = mCenters[cluster];
+            red[cluster] = (center >> 16) & 0xFF;
+            green[cluster] = (center >> 8) & 0xFF;
+            blue[cluster] = center & 0xFF;
+            alpha[cluster] = mUseAlpha ? center >>> 24 : 255;
+        }
+        int[] batch = new int[mMiniBatchSize];
+        int[] batchClusters = new int[mMiniBatchSize];
+        for (int iteration = 0; iteration < mMaxIterations; iteration++) {
+            // assign the whole batch to the current centers before moving them
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = mPixels[rand.nextInt(mPixels.length)];
+                batchClusters[i] = mColorMetric.getNearestIndex(batch[i], mCenters, 0, clusterCount, mUseAlpha);
+            }
+            for (int i = 0; i < batch.length; i++) {
+                int cluster = batchClusters[i];
+                int color = batch[i];
+                counts[cluster]++;
+                double rate = 1. / counts[cluster];
+                red[cluster] += rate * (((color >> 16) & 0xFF) - red[cluster]);
+                green[cluster] += rate * (((color >> 8) & 0xFF) - green[cluster]);
+                blue[cluster] += rate * ((color & 0xFF) - blue[cluster]);
+                if (mUseAlpha) {
+                    alpha[cluster] += rate * ((color >>> 24) - alpha[cluster]);
+                }
+            }
+            for (int cluster = 0; cluster < clusterCount; cluster++) {
+                mCenters[cluster] = ((int) Math.round(alpha[cluster]) << 24) | ((int) Math.round(red[cluster]) << 16)
+                        | ((int) Math.round(green[cluster]) << 8) | (int) Math.round(blue[cluster]);
+            }
+            if (progress != null) {
+                progress.onProgressUpdate((int) (PercentProgressListener.PROGRESS_COMPLETE * iteration / (double) mMaxIterations));
+            }
+        }
+    }
+
+    private class Band implements Callable<Band> {
+        private final int mFrom;
+        private final int mTo;
+        private long[] mRed;
+        private long[] mGreen;
+        private long[] mBlue;
+        private long[] mAlpha;
+        private long[] mSize;
+        private double[] mDistances;
+        private int mChanged;
+        private boolean mBandPruning;
+        private boolean mFirstRun;
+
+        private Band(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        private void prepare(boolean pruning, boolean firstRun) {
+            final int clusterCount = mCenters.length;
+            if (mRed == null || mRed.length != clusterCount) {
+                mRed = new long[clusterCount];
+                mGreen = new long[clusterCount];
+                mBlue = new long[clusterCount];
+                mAlpha = new long[clusterCount];
+                mSize = new long[clusterCount];
+                mDistances = new double[clusterCount];
+            } else {
+                Arrays.fill(mRed, 0L);
+                Arrays.fill(mGreen, 0L);
+                Arrays.fill(mBlue, 0L);
+                Arrays.fill(mAlpha, 0L);
+                Arrays.fill(mSize, 0L);
+            }
+            mChanged = 0;
+            mBandPruning = pruning;
+            mFirstRun = firstRun;
+        }
+
+        @Override
+        public Band call() {
+            final int[] pixels = mPixels;
+            final int[] centers = mCenters;
+            final int[] clusterNumbers = mClusterNumbers;
+            final int clusterCount = centers.length;
+            for (int i = mFrom; i < mTo; i++) {
+                final int color = pixels[i];
+                final int oldCluster = clusterNumbers[i];
+                int cluster;
+                if (!mBandPruning) {
+                    cluster = mColorMetric.getNearestIndex(color, centers, 0, clusterCount, mUseAlpha);
+                } else if (mFirstRun) {
+                    cluster = assignWithBounds(i, color);
+                } else {
+                    // the centers moved since the bounds were calculated
+                    mUpperBounds[i] = Math.nextUp((float) (mUpperBounds[i] + mCenterMovement[oldCluster]));
+                    mLowerBounds[i] = lowerFloat(mLowerBounds[i] - (oldCluster == mMaxMovementIndex ? mSecondMaxMovement : mMaxMovement));
+                    double bound = Math.max(mHalfMinCenterDistance[oldCluster], mLowerBounds[i]);
+                    cluster = oldCluster;
+                    if (mUpperBounds[i] > bound) {
+                        mUpperBounds[i] = Math.nextUp((float) triangleDistance(color, centers[oldCluster]));
+                        if (mUpperBounds[i] > bound) {
+                            cluster = assignWithBounds(i, color);
+                        }
+                    }
+                }
+                if (cluster != oldCluster || mFirstRun) {
+                    clusterNumbers[i] = cluster;
+                    mChanged++;
+                }
+                mRed[cluster] += (color >> 16) & 0xFF;
+                mGreen[cluster] += (color >> 8) & 0xFF;
+                mBlue[cluster] += color & 0xFF;
+                mAlpha[cluster] += color >>> 24;
+                mSize[cluster]++;
+            }
+            return this;
+        }
+
+        private int assignWithBounds(int index, int color) {
+            final double[] distances = mDistances;
+            mColorMetric.getDistances(color, mCenters, 0, mCenters.length, distances, mUseAlpha);
+            int nearest = 0;
+            double nearestDistance = Double.MAX_VALUE;
+            double secondDistance = Double.MAX_VALUE;
+            for (int cluster = 0; cluster < distances.length; cluster++) {
+                double distance = distances[cluster];
+                if (distance < nearestDistance) {
+                    secondDistance = nearestDistance;
+                    nearestDistance = distance;
+                    nearest = cluster;
+                } else if (distance < secondDistance) {
+                    secondDistance = distance;
+                }
+            }
+            mUpperBounds[index] = Math.nextUp((float) mColorMetric.toTriangleDistance(nearestDistance));
+            mLowerBounds[index] = secondDistance == Double.MAX_VALUE ? Float.MAX_VALUE
+                    : lowerFloat(mColorMetric.toTriangleDistance(secondDistance));
+            return nearest;
+        }
+    }
+
+    private static float lowerFloat(double value) {
+        float result = (float) value;
+        return result > value ? Math.nextAfter(result, Double.NEGATIVE_INFINITY) : result;
+    }
+}
@@ -24,10 +24,179 @@ import java.util.List;
  * Created by daniel on 03.07.15.
  */
 public abstract class ColorMetric {
+    public static final int CHANNEL_RED = 0;
+    public static final int CHANNEL_GREEN = 1;
+    public static final int CHANNEL_BLUE = 2;
+    public static final int CHANNEL_ALPHA = 3;
 
     public abstract double getDistance(int color1, int color2, boolean useAlpha);
     public abstract double maxValue(boolean useAlpha);
 
+    /**
+     * Returns a lower bound for the distance of two colors whose values in the given
+     * channel differ by the given amount, no matter what their other channels are.
+     * Spatial structures use this to skip colors that cannot be closer. The default
+     * of zero is always valid but allows no pruning at all.
+     * @param channel The channel, one of the CHANNEL_ constants.
+     * @param channelDelta The difference of the two colors in this channel.
+     * @param useAlpha If the alpha value is used.
+     * @return A lower bound for the distance, at least zero.
+     */
+    public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+        return 0.;
+    }
+
+    /**
+     * Converts a distance of this metric monotonically into a distance that satisfies the
+     * triangle inequality, which allows to skip distance calculations by bounds.
+     * @param distance A distance calculated by this metric.
+     * @return The converted distance or NaN if this metric does not know such a conversion.
+     */
+    public double toTriangleDistance(double distance) {
+        return Double.NaN;
+    }
+
+    /**
+     * Extracts the value of the given channel from the color.
+     * @param color The argb color.
+     * @param channel The channel, one of the CHANNEL_ constants.
+     * @return The channel's value from 0 to 255.
+     */
+    public static int getChannel(int color, int channel) {
+        switch (channel) {
+            case CHANNEL_RED:
+                return (color >> 16) & 0xFF;
+            case CHANNEL_GREEN:
+                return (color >> 8) & 0xFF;
+            case CHANNEL_BLUE:
+                return color & 0xFF;
+            case CHANNEL_ALPHA:
+                return color >>> 24;
+            default:
+                throw new IllegalArgumentException("Illegal channel " + channel);
+        }
+    }
+
+    /**
+     * Calculates the distances of the target color to the colors in the given range.
+     * @param target The target color.
+     * @param colors The colors.
+     * @param from The first index of the colors to use, inclusive.
+     * @param to The last index of the colors to use, exclusive.
+     * @param out Receives the distance of colors[i] at index i.
+     * @param useAlpha If the alpha value is used.
+     */
+    public void getDistances(int target, int[] colors, int from, int to, double[] out, boolean useAlpha) {
+        for (int i = from; i < to; i++) {
+            out[i] = getDistance(target, colors[i], useAlpha);
+        }
+    }
+
+    /**
+     * Calculates the distances of the target color to the split colors in the given range.
+     * @param target The target color.
+     * @param colors The split colors.
+     * @param from The first index of the colors to use, inclusive.
+     * @param to The last index of the colors to use, exclusive.
+     * @param out Receives the distance of the i-th color at index i.
+     * @param useAlpha If the alpha value is used.
+     */
+    public void getDistances(int target, SplitColors colors, int from, int to, double[] out, boolean useAlpha) {
+        for (int i = from; i < to; i++) {
+            out[i] = getDistance(target, colors.getColor(i), useAlpha);
+        }
+    }
+
+    /**
+     * Searches the palette color that is nearest to the target color. If there are multiple
+     * nearest colors the first one is returned.
+     * @param target The target color.
+     * @param palette The palette colors.
+     * @param from The first index of the palette to use, inclusive.
+     * @param to The last index of the palette to use, exclusive.
+     * @param useAlpha If the alpha value is used.
+     * @return The index of the nearest color or -1 if the range is empty.
+     */
+    public int getNearestIndex(int target, int[] palette, int from, int to, boolean useAlpha) {
+        double bestDistance = Double.MAX_VALUE;
+        int bestIndex = -1;
+        for (int i = from; i < to; i++) {
+            double distance = getDistance(target, palette[i], useAlpha);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Searches the palette color that is nearest to the target color. If there are multiple
+     * nearest colors the first one is returned.
+     * @param target The target color.
+     * @param palette The split palette colors.
+     * @param from The first index of the palette to use, inclusive.
+     * @param to The last index of the palette to use, exclusive.
+     * @param useAlpha If the alpha value is used.
+     * @return The index of the nearest color or -1 if the range is empty.
+     */
+    public int getNearestIndex(int target, SplitColors palette, int from, int to, boolean useAlpha) {
+        double bestDistance = Double.MAX_VALUE;
+        int bestIndex = -1;
+        for (int i = from; i < to; i++) {
+            double distance = getDistance(target, palette.getColor(i), useAlpha);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Colors split into one array per channel, so that specialized metrics
+     * do not need to extract the channels for every distance.
+     */
+    public static final class SplitColors {
+        public final int[] red;
+        public final int[] green;
+        public final int[] blue;
+        public final int[] alpha;
+
+        public SplitColors(int capacity) {
+            red = new int[capacity];
+            green = new int[capacity];
+            blue = new int[capacity];
+            alpha = new int[capacity];
+        }
+
+        public SplitColors(int[] colors) {
+            this(colors.length);
+            set(colors, 0, colors.length);
+        }
+
+        public void set(int index, int color) {
+            alpha[index] = color >>> 24;
+            red[index] = (color >> 16) & 0xFF;
+            green[index] = (color >> 8) & 0xFF;
+            blue[index] = color & 0xFF;
+        }
+
+        public void set(int[] colors, int from, int to) {
+            for (int i = from; i < to; i++) {
+                set(i, colors[i]);
+            }
+        }
+
+        public int getColor(int index) {
+            return (alpha[index] << 24) | (red[index] << 16) | (green[index] << 8) | blue[index];
+        }
+
+        public int getCapacity() {
+            return red.length;
+        }
+    }
+
     public static List<ColorMetric> makeAll() {
         List<ColorMetric> list = new ArrayList<>(5);
         list.add(Euclid2.INSTANCE);
@@ -79,6 +248,108 @@ public abstract class ColorMetric {
             return result;
         }
 
+        @Override
+        public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+            return channel == CHANNEL_ALPHA && !useAlpha ? 0. : channelDelta * channelDelta;
+        }
+
+        @Override
+        public double toTriangleDistance(double distance) {
+            // the squared euclid distance only becomes a metric by taking the root
+            return Math.sqrt(distance);
+        }
+
+        @Override
+        public void getDistances(int target, int[] colors, int from, int to, double[] out, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int alphaMask = useAlpha ? 0xFF : 0;
+            for (int i = from; i < to; i++) {
+                final int color = colors[i];
+                final int dr = ((color >> 16) & 0xFF) - red;
+                final int dg = ((color >> 8) & 0xFF) - green;
+                final int db = (color & 0xFF) - blue;
+                final int da = ((color >>> 24) & alphaMask) - alpha;
+                out[i] = dr * dr + dg * dg + db * db + da * da;
+            }
+        }
+
+        @Override
+        public void getDistances(int target, SplitColors colors, int from, int to, double[] out, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int[] reds = colors.red;
+            final int[] greens = colors.green;
+            final int[] blues = colors.blue;
+            for (int i = from; i < to; i++) {
+                final int dr = reds[i] - red;
+                final int dg = greens[i] - green;
+                final int db = blues[i] - blue;
+                out[i] = dr * dr + dg * dg + db * db;
+            }
+            if (useAlpha) {
+                final int alpha = target >>> 24;
+                final int[] alphas = colors.alpha;
+                for (int i = from; i < to; i++) {
+                    final int da = alphas[i] - alpha;
+                    out[i] += da * da;
+                }
+            }
+        }
+
+        @Override
+        public int getNearestIndex(int target, int[] palette, int from, int to, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int alphaMask = useAlpha ? 0xFF : 0;
+            int bestDistance = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            for (int i = from; i < to; i++) {
+                final int color = palette[i];
+                final int dr = ((color >> 16) & 0xFF) - red;
+                final int dg = ((color >> 8) & 0xFF) - green;
+                final int db = (color & 0xFF) - blue;
+                final int da = ((color >>> 24) & alphaMask) - alpha;
+                final int distance = dr * dr + dg * dg + db * db + da * da;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = i;
+                }
+            }
+            return bestIndex;
+        }
+
+        @Override
+        public int getNearestIndex(int target, SplitColors palette, int from, int to, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int[] reds = palette.red;
+            final int[] greens = palette.green;
+            final int[] blues = palette.blue;
+            int bestDistance = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            final int[] alphas = useAlpha ? palette.alpha : null;
+            for (int i = from; i < to; i++) {
+                final int dr = reds[i] - red;
+                final int dg = greens[i] - green;
+                final int db = blues[i] - blue;
+                final int da = alphas == null ? 0 : alphas[i] - alpha;
+                final int distance = dr * dr + dg * dg + db * db + da * da;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = i;
+                }
+            }
+            return bestIndex;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? GREATEST_VALUE_ALPHA : GREATEST_VALUE_NO_ALPHA;
@@ -103,6 +374,98 @@ public abstract class ColorMetric {
 
         }
 
+        @Override
+        public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+            return channel == CHANNEL_ALPHA && !useAlpha ? 0. : Math.abs(channelDelta);
+        }
+
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
+        @Override
+        public void getDistances(int target, int[] colors, int from, int to, double[] out, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int alphaMask = useAlpha ? 0xFF : 0;
+            for (int i = from; i < to; i++) {
+                final int color = colors[i];
+                out[i] = Math.abs(((color >> 16) & 0xFF) - red)
+                        + Math.abs(((color >> 8) & 0xFF) - green)
+                        + Math.abs((color & 0xFF) - blue)
+                        + Math.abs(((color >>> 24) & alphaMask) - alpha);
+            }
+        }
+
+        @Override
+        public void getDistances(int target, SplitColors colors, int from, int to, double[] out, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int[] reds = colors.red;
+            final int[] greens = colors.green;
+            final int[] blues = colors.blue;
+            for (int i = from; i < to; i++) {
+                out[i] = Math.abs(reds[i] - red) + Math.abs(greens[i] - green) + Math.abs(blues[i] - blue);
+            }
+            if (useAlpha) {
+                final int alpha = target >>> 24;
+                final int[] alphas = colors.alpha;
+                for (int i = from; i < to; i++) {
+                    out[i] += Math.abs(alphas[i] - alpha);
+                }
+            }
+        }
+
+        @Override
+        public int getNearestIndex(int target, int[] palette, int from, int to, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int alphaMask = useAlpha ? 0xFF : 0;
+            int bestDistance = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            for (int i = from; i < to; i++) {
+                final int color = palette[i];
+                final int distance = Math.abs(((color >> 16) & 0xFF) - red)
+                        + Math.abs(((color >> 8) & 0xFF) - green)
+                        + Math.abs((color & 0xFF) - blue)
+                        + Math.abs(((color >>> 24) & alphaMask) - alpha);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = i;
+                }
+            }
+            return bestIndex;
+        }
+
+        @Override
+        public int getNearestIndex(int target, SplitColors palette, int from, int to, boolean useAlpha) {
+            final int red = (target >> 16) & 0xFF;
+            final int green = (target >> 8) & 0xFF;
+            final int blue = target & 0xFF;
+            final int alpha = useAlpha ? target >>> 24 : 0;
+            final int[] reds = palette.red;
+            final int[] greens = palette.green;
+            final int[] blues = palette.blue;
+            int bestDistance = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            final int[] alphas = useAlpha ? palette.alpha : null;
+            for (int i = from; i < to; i++) {
+                final int distance = Math.abs(reds[i] - red) + Math.abs(greens[i] - green) + Math.abs(blues[i] - blue)
+                        + (alphas == null ? 0 : Math.abs(alphas[i] - alpha));
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = i;
+                }
+            }
+            return bestIndex;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? GREATEST_VALUE_ALPHA : GREATEST_VALUE_NO_ALPHA;
@@ -122,6 +485,11 @@ public abstract class ColorMetric {
                     - ColorAnalysisUtil.getGreyness(Color.red(color2), Color.green(color2), Color.blue(color2)));
         }
 
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return 1.0;
@@ -140,6 +508,16 @@ public abstract class ColorMetric {
             return Math.abs(Color.red(color1) - Color.red(color2)) + (useAlpha ? Math.abs(Color.alpha(color1) - Color.alpha(color2)) : 0);
         }
 
+        @Override
+        public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+            return channel == CHANNEL_RED || (channel == CHANNEL_ALPHA && useAlpha) ? Math.abs(channelDelta) : 0.;
+        }
+
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -160,6 +538,16 @@ public abstract class ColorMetric {
             return Math.abs(Color.green(color1) - Color.green(color2)) + (useAlpha ? Math.abs(Color.alpha(color1) - Color.alpha(color2)) : 0);
         }
 
+        @Override
+        public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+            return channel == CHANNEL_GREEN || (channel == CHANNEL_ALPHA && useAlpha) ? Math.abs(channelDelta) : 0.;
+        }
+
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -179,6 +567,16 @@ public abstract class ColorMetric {
             return Math.abs(Color.blue(color1) - Color.blue(color2)) + (useAlpha ? Math.abs(Color.alpha(color1) - Color.alpha(color2)) : 0);
         }
 
+        @Override
+        public double getChannelLowerBound(int channel, int channelDelta, boolean useAlpha) {
+            return channel == CHANNEL_BLUE || (channel == CHANNEL_ALPHA && useAlpha) ? Math.abs(channelDelta) : 0.;
+        }
+
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return useAlpha ? 255 * 2 : 255;
@@ -202,6 +600,11 @@ public abstract class ColorMetric {
             }
         }
 
+        @Override
+        public double toTriangleDistance(double distance) {
+            return distance;
+        }
+
         @Override
         public double maxValue(boolean useAlpha) {
             return 1.0;
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A persistent cache of decoded and scaled bitmaps. Each bitmap is stored as the raw pixel
+ * blob of its config behind a small header, so loading only needs to map the file and copy the
+ * pixels into a bitmap instead of decoding and scaling the original image again.<br>
+ * Keys are chosen by the caller, usually the image hash and the target dimension, see
+ * {@link #makeKey(String, int, int, boolean)}. Files are replaced atomically and the least
+ * recently used files are deleted when the cache grows above its maximum size. The cache can
+ * be used by multiple threads at once.
+ */
+public class DiskBitmapCache {
+    private static final int FILE_MAGIC = 0x42504958; // "BPIX"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final String FILE_SUFFIX = ".px";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // after exceeding the maximum size files are deleted until this fraction of it is reached
+    private static final float TRIM_FACTOR = 0.75f;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private long mSize = -1L; // unknown until the directory is scanned
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * Creates a new disk cache using the given directory.
+     * @param directory The directory, created if it does not exist. Should not be used for
+     *                  anything else.
+     * @param maxBytes The maximum amount of bytes used by the cached files.
+     */
+    public DiskBitmapCache(File directory, long maxBytes) {
+        if (directory == null) {
+            throw new IllegalArgumentException("No cache directory given.");
+        }
+        if (maxBytes <= 0L) {
+            throw new IllegalArgumentException("Illegal cache size " + maxBytes);
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Creates the key for a scaled image.
+     * @param hash The image hash.
+     * @param width The requested width.
+     * @param height The requested height.
+     * @param enforceDimension If the bitmap was scaled to exactly the requested dimension.
+     * @return The key.
+     */
+    public static String makeKey(String hash, int width, int height, boolean enforceDimension) {
+        return hash + "_" + width + "x" + height + (enforceDimension ? "e" : "f");
+    }
+
+    private File getFile(String key) {
+        StringBuilder name = new StringBuilder(key.length() + FILE_SUFFIX.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-';
+            name.append(valid ? c : '_');
+        }
+        name.append(FILE_SUFFIX);
+        return new File(mDirectory, name.toString());
+    }
+
+    /**
+     * Loads the bitmap stored for the given key. A reusable bitmap of the {@link ImageCache} is
+     * used if available.
+     * @param key The key.
+     * @return A new mutable bitmap or null if there is no valid file for the key.
+     */
+    public Bitmap get(String key) {
+        if (key == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (!file.exists()) {
+            countLookup(false);
+            return null;
+        }
+        Bitmap result = null;
+        boolean corrupt = false;
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            result = read(buffer);
+            corrupt = result == null;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e("Image", "Could not load cached bitmap " + file + ": " + e);
+            corrupt = true;
+        } catch (RuntimeException e) {
+            // copying the pixels failed, the file is fine but the bitmap is not
+            Log.e("Image", "Could not copy cached bitmap " + file + ": " + e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e("Image", "Could not close cached bitmap " + file + ": " + e);
+                }
+            }
+        }
+        if (corrupt) {
+            delete(file);
+        } else if (result != null && !file.setLastModified(System.currentTimeMillis())) {
+            Log.d("Image", "Could not touch cached bitmap " + file);
+        }
+        countLookup(result != null);
+        return result;
+    }
+
+    private static Bitmap read(MappedByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != FILE_MAGIC) {
+            throw new IOException("Not a cached bitmap.");
+        }
+        int version = buffer.getInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported cached bitmap version " + version);
+        }
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        final int configOrdinal = buffer.getInt();
+        Bitmap.Config[] configs = Bitmap.Config.values();
+        if (width <= 0 || height <= 0 || configOrdinal < 0 || configOrdinal >= configs.length) {
+            throw new IOException("Illegal cached bitmap " + width + "x" + height + " config "
+                    + configOrdinal);
+        }
+        Bitmap.Config config = configs[configOrdinal];
+        if ((long) width * height * BitmapPool.getBytesPerPixel(config) > buffer.remaining()) {
+            throw new IOException("Cached bitmap truncated.");
+        }
+        Bitmap bitmap = ImageUtil.CACHE.getReusableBitmap(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.copyPixelsFromBuffer(buffer);
+        return bitmap;
+    }
+
+    /**
+     * Stores the pixels of the given bitmap for the key, replacing any previous file.
+     * @param key The key.
+     * @param bitmap The bitmap to store, it is not modified.
+     * @return If the bitmap was stored.
+     */
+    public boolean put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled() || bitmap.getConfig() == null) {
+            return false;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e("Image", "Could not create bitmap cache directory " + mDirectory);
+            return false;
+        }
+        File file = getFile(key);
+        // every thread writes its own temporary file, the rename is atomic
+        File temp = new File(mDirectory, file.getName() + Thread.currentThread().getId()
+                + TEMP_SUFFIX);
+        final long bytes = HEADER_SIZE + (long) bitmap.getByteCount();
+        boolean success = false;
+        RandomAccessFile output = null;
+        try {
+            output = new RandomAccessFile(temp, "rw");
+            output.setLength(bytes);
+            MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    bytes);
+            buffer.putInt(FILE_MAGIC);
+            buffer.putInt(FILE_VERSION);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(bitmap.getConfig().ordinal());
+            bitmap.copyPixelsToBuffer(buffer);
+            output.close();
+            output = null;
+            long previousBytes = file.length(); // 0 if it does not exist
+            success = temp.renameTo(file);
+            if (success) {
+                onSizeChanged(bytes - previousBytes);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e("Image", "Could not save cached bitmap " + file + ": " + e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e("Image", "Could not close cached bitmap " + file + ": " + e);
+                }
+            }
+            if (!success) {
+                delete(temp);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Removes the file stored for the given key.
+     * @param key The key.
+     */
+    public void remove(String key) {
+        if (key == null) {
+            return;
+        }
+        File file = getFile(key);
+        long bytes = file.length();
+        if (file.exists() && delete(file)) {
+            onSizeChanged(-bytes);
+        }
+    }
+
+    /**
+     * Deletes all cached files.
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+        mSize = 0L;
+    }
+
+    private static boolean delete(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.e("Image", "Could not delete cached bitmap " + file);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void countLookup(boolean hit) {
+        if (hit) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+    }
+
+    private synchronized void onSizeChanged(long delta) {
+        if (mSize < 0L) {
+            mSize = scanSize();
+        } else {
+            mSize += delta;
+        }
+        if (mSize > mMaxBytes) {
+            trim();
+        }
+    }
+
+    private long scanSize() {
+        long size = 0L;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    // deletes the least recently used files
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                long diff = modified[first] - modified[second];
+                return diff < 0L ? -1 : (diff > 0L ? 1 : 0);
+            }
+        });
+        final long targetSize = (long) (mMaxBytes * TRIM_FACTOR);
+        int deleted = 0;
+        for (int i = 0; i < order.length && mSize > targetSize; i++) {
+            File file = files[order[i]];
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                continue; // currently written by some thread
+            }
+            long bytes = file.length();
+            if (delete(file)) {
+                mSize -= bytes;
+                deleted++;
+            }
+        }
+        Log.d("Image", "Trimmed bitmap cache, deleted " + deleted + " files: " + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiskBitmapCache " + mDirectory + " (" + mSize / 1024 + "/" + mMaxBytes / 1024
+                + "KB, " + mHits + " hits, " + mMisses + " misses)";
+    }
+}
@@ -15,6 +15,9 @@
 
 package dan.dit.whatsthat.util.image;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -23,41 +26,60 @@ import android.support.annotation.DrawableRes;
 import android.util.Log;
 import android.util.LruCache;
 
+import java.io.File;
 import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 /**
  * Basic code from http://developer.android.com/training/displaying-bitmaps/manage-memory.html
+ * The memory cache is shared by all users of bitmaps with a single budget. Bitmaps given by
+ * freeImage belong to the cache and can be reused after eviction, shared bitmaps given by
+ * putSharedBitmap may still be in use by others and are never reused. The disk cache keeps
+ * scaled images across sessions.
  * Created by daniel on 09.10.15.
  */
 public class ImageCache {
-    private final Set<SoftReference<Bitmap>> mReusableBitmaps;
-    private LruCache<String, Bitmap> mMemoryCache;
+    private static final int MAX_REUSABLE_PIXELS = 4;
+    private static final String DISK_CACHE_DIRECTORY = "bitmaps";
+    private static final long DISK_CACHE_SIZE = 32L * 1024L * 1024L;
+    private final BitmapPool mReusableBitmaps;
+    private final List<SoftReference<int[]>> mReusablePixels = new ArrayList<>(MAX_REUSABLE_PIXELS);
+    private LruCache<String, CacheEntry> mMemoryCache;
+    private DiskBitmapCache mDiskCache;
+    private boolean mMemoryCallbacksRegistered;
+
+    private static class CacheEntry {
+        private final Bitmap mBitmap;
+        private final boolean mOwned;
+
+        private CacheEntry(Bitmap bitmap, boolean owned) {
+            mBitmap = bitmap;
+            mOwned = owned;
+        }
+    }
 
     public ImageCache() {
-        // If you're running on Honeycomb or newer, create a
-        // synchronized HashSet of references to reusable bitmaps.
-        mReusableBitmaps =
-            Collections.synchronizedSet(new HashSet<SoftReference<Bitmap>>());
+        mReusableBitmaps = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
 
-        final int sizeKB = (int) (Runtime.getRuntime().maxMemory() / 1024  / 8);
-        mMemoryCache = new LruCache<String, Bitmap>(sizeKB) {
+        final int sizeKB = (int) (Runtime.getRuntime().maxMemory() / 1024  / 6);
+        mMemoryCache = new LruCache<String, CacheEntry>(sizeKB) {
 
             // Notify the removed entry that is no longer being cached.
             @Override
             protected void entryRemoved(boolean evicted, String key,
-                    Bitmap oldValue, Bitmap newValue) {
-                if (evicted || newValue != null) {
+                    CacheEntry oldValue, CacheEntry newValue) {
+                if ((evicted || newValue != null) && oldValue.mOwned
+                        && (newValue == null || newValue.mBitmap != oldValue.mBitmap)) {
                     // if entry is removed from cache this means that it is currently being obtained by some client
                     // and cannot be reused
-                    makeReusable(oldValue);
+                    makeReusable(oldValue.mBitmap);
                 }
             }
             @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
+            protected int sizeOf(String key, CacheEntry entry) {
+                Bitmap bitmap = entry.mBitmap;
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
                     return bitmap.getAllocationByteCount() / 1024;
                 }
@@ -69,22 +91,97 @@ public class ImageCache {
     }
 
     public void makeReusable(Bitmap toRecycle) {
-        if (toRecycle != null) {
-            Log.d("Image", "Image made reusable: " + toRecycle.getWidth() + "/" + toRecycle.getHeight() + " " + toRecycle.getConfig());
-            mReusableBitmaps.add
-                    (new SoftReference<>(toRecycle));
+        if (toRecycle != null && mReusableBitmaps.put(toRecycle)) {
+            Log.d("Image", "Image made reusable: " + toRecycle.getWidth() + "/" + toRecycle.getHeight() + " " + toRecycle.getConfig() + " " + mReusableBitmaps);
+        }
+    }
+
+    /**
+     * Drops all reusable bitmaps and cached images, for example when the system is low on memory.
+     */
+    public void evictAll() {
+        mMemoryCache.evictAll();
+        mReusableBitmaps.evictAll();
+        synchronized (mReusablePixels) {
+            mReusablePixels.clear();
+        }
+    }
+
+    /**
+     * Frees memory depending on how urgently the system needs it. Critical levels drop
+     * everything, lower levels only the reusable bitmaps and some cached images.
+     * @param level The level as given to ComponentCallbacks2.onTrimMemory(int).
+     */
+    public void trimMemory(int level) {
+        Log.d("Image", "Trimming memory for level " + level + ": " + mReusableBitmaps);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mReusableBitmaps.evictAll();
+            // LruCache.trimToSize needs API 17, the snapshot is ordered from least recently used
+            final int targetSize = mMemoryCache.maxSize() / 2;
+            for (String key : mMemoryCache.snapshot().keySet()) {
+                if (mMemoryCache.size() <= targetSize) {
+                    break;
+                }
+                mMemoryCache.remove(key);
+            }
+        } else {
+            mReusableBitmaps.trimToSize(mReusableBitmaps.getMaxBytes() / 2);
+        }
+    }
+
+    /**
+     * Registers this cache to free memory when the system runs low on memory. Only needs to
+     * be invoked once, further invocations do nothing. Requires API 14, does nothing before.
+     * @param context A context.
+     */
+    public synchronized void registerMemoryCallbacks(Context context) {
+        if (mMemoryCallbacksRegistered
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
         }
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                evictAll();
+            }
+        });
+        mMemoryCallbacksRegistered = true;
+    }
+
+    /**
+     * Returns the pool of reusable bitmaps, for example to read its statistics.
+     * @return The bitmap pool.
+     */
+    public BitmapPool getBitmapPool() {
+        return mReusableBitmaps;
     }
 
     public void freeImage(String key, Bitmap image) {
         if (key == null || image == null) {
             return;
         }
-        mMemoryCache.put(key, image);
+        mMemoryCache.put(key, new CacheEntry(image, true));
     }
 
     public Bitmap obtainImage(String key, Resources res, @DrawableRes int resId, int reqWidth, int reqHeight, boolean enforceDimension) {
-        Bitmap cached = mMemoryCache.remove(key); // will not make cached image reusable as it is not evicted or replaced!
+        CacheEntry entry = mMemoryCache.remove(key); // will not make cached image reusable as it is not evicted or replaced!
+        if (entry != null && !entry.mOwned) {
+            mMemoryCache.put(key, entry); // shared bitmaps cannot be handed out
+            entry = null;
+        }
+        Bitmap cached = entry == null ? null : entry.mBitmap;
         if (cached != null
                 && ((enforceDimension && cached.getWidth() == reqWidth && cached.getHeight() == reqHeight)
                     || (!enforceDimension && cached.getWidth() <= reqWidth && cached.getHeight() <= reqHeight))) {
@@ -95,53 +192,115 @@ public class ImageCache {
         return ImageUtil.loadBitmap(res, resId, reqWidth, reqHeight, enforceDimension);
     }
 
+    /**
+     * Puts a bitmap into the memory cache that may still be used by others. It is never
+     * modified or reused by the cache.
+     * @param key The key of the bitmap.
+     * @param bitmap The bitmap.
+     */
+    public void putSharedBitmap(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        mMemoryCache.put(key, new CacheEntry(bitmap, false));
+    }
+
+    /**
+     * Returns the shared bitmap cached for the given key. The bitmap stays in the cache and
+     * must not be modified or recycled.
+     * @param key The key of the bitmap.
+     * @return The bitmap or null if not in the memory cache.
+     */
+    public Bitmap getSharedBitmap(String key) {
+        if (key == null) {
+            return null;
+        }
+        CacheEntry entry = mMemoryCache.get(key);
+        if (entry == null || entry.mOwned || entry.mBitmap.isRecycled()) {
+            return null;
+        }
+        return entry.mBitmap;
+    }
+
+    /**
+     * Removes the shared bitmap cached for the given key from the memory cache.
+     * @param key The key of the bitmap.
+     */
+    public void removeSharedBitmap(String key) {
+        if (key != null) {
+            mMemoryCache.remove(key);
+        }
+    }
+
+    /**
+     * Returns the disk cache for scaled images, creating it in the cache directory of the
+     * application on first use.
+     * @param context A context.
+     * @return The disk cache.
+     */
+    public synchronized DiskBitmapCache getDiskCache(Context context) {
+        if (mDiskCache == null) {
+            mDiskCache = new DiskBitmapCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY),
+                    DISK_CACHE_SIZE);
+        }
+        return mDiskCache;
+    }
+
     public Bitmap getReusableBitmap(int width, int height, Bitmap.Config config) {
-        Bitmap bitmap = null;
-        Log.d("Image", "Searching for reusable bitmap: " + width + "/" + height + " config: " + config
-            + " has: " + mReusableBitmaps.size());
-
-        if (!mReusableBitmaps.isEmpty()) {
-            synchronized (mReusableBitmaps) {
-                final Iterator<SoftReference<Bitmap>> iterator
-                        = mReusableBitmaps.iterator();
-                Bitmap item;
-
-                while (iterator.hasNext()) {
-                    item = iterator.next().get();
-
-                    if (item != null && item.isMutable()) {
-                        // Check to see it the item can be used
-                        if (canReconfigure(item, config, width, height)) {
-                            bitmap = item;
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                                try {
-                                    bitmap.reconfigure(width, height, config == null ? item.getConfig() : config);
-                                } catch (Exception e) {
-                                    bitmap = null; // happens when the bitmap is a native bitmap that can't be reconfigured
-                                    iterator.remove();
-                                }
-                            } // else the config and dimensions already match exactly
-
-                            if (bitmap != null) {
-                                // Remove from reusable set so it can't be used again.
-                                iterator.remove();
-                                break;
-                            }
-                        }
-                    } else {
-                        // Remove from the set if the reference has been cleared.
-                        Log.d("Image", "Reusable bitmap was cleared.");
-                        iterator.remove();
-                    }
-                }
+        Bitmap bitmap = mReusableBitmaps.get(width, height, config);
+        if (bitmap != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            try {
+                bitmap.reconfigure(width, height, config == null ? bitmap.getConfig() : config);
+            } catch (Exception e) {
+                bitmap = null; // happens when the bitmap is a native bitmap that can't be reconfigured
             }
         }
         if (bitmap != null) {
-            Log.d("Image", "Found reusuable bitmap for " + width + "/" + height);
+            Log.d("Image", "Found reusuable bitmap for " + width + "/" + height + " " + mReusableBitmaps);
         }
         return bitmap;
     }
 
+    /**
+     * Returns an int array for the given amount of pixels. A released array of this length
+     * is reused if available, else a new array is allocated.
+     * @param size The length of the array.
+     * @return An array of the given length with undefined content.
+     */
+    public int[] obtainPixels(int size) {
+        synchronized (mReusablePixels) {
+            Iterator<SoftReference<int[]>> iterator = mReusablePixels.iterator();
+            while (iterator.hasNext()) {
+                int[] item = iterator.next().get();
+                if (item == null) {
+                    // Remove from the list if the reference has been cleared.
+                    iterator.remove();
+                } else if (item.length == size) {
+                    iterator.remove();
+                    return item;
+                }
+            }
+        }
+        return new int[size];
+    }
+
+    /**
+     * Makes the given pixel array available for later obtainPixels calls. The array must not be
+     * used by the caller afterwards.
+     * @param pixels The array to release.
+     */
+    public void releasePixels(int[] pixels) {
+        if (pixels == null || pixels.length == 0) {
+            return;
+        }
+        synchronized (mReusablePixels) {
+            if (mReusablePixels.size() >= MAX_REUSABLE_PIXELS) {
+                mReusablePixels.remove(0); // drop the oldest
+            }
+            mReusablePixels.add(new SoftReference<>(pixels));
+        }
+    }
+
     public boolean addInBitmapOptions(BitmapFactory.Options options) {
         if (options == null || options.outHeight <= 0 || options.outWidth <= 0) {
             return false;
@@ -163,81 +322,18 @@ public class ImageCache {
         return false;
     }
 
-    // This method iterates through the reusable bitmaps, looking for one
-    // to use for inBitmap:
     protected Bitmap getBitmapFromReusableSet(BitmapFactory.Options options) {
-        Bitmap bitmap = null;
-
-        if (!mReusableBitmaps.isEmpty()) {
-            synchronized (mReusableBitmaps) {
-                final Iterator<SoftReference<Bitmap>> iterator
-                        = mReusableBitmaps.iterator();
-                Bitmap item;
-
-                while (iterator.hasNext()) {
-                    item = iterator.next().get();
-
-                    if (null != item && item.isMutable()) {
-                        // Check to see it the item can be used for inBitmap.
-                        if (canUseForInBitmap(item, options)) {
-                            bitmap = item;
-
-                            // Remove from reusable set so it can't be used again.
-                            iterator.remove();
-                            break;
-                        }
-                    } else {
-                        // Remove from the set if the reference has been cleared.
-                        iterator.remove();
-                    }
-                }
-            }
-        }
-        return bitmap;
-    }
-
-    private static boolean canReconfigure(Bitmap toConfigure, Bitmap.Config targetConfig, int width, int height) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            int byteCount = width * height * getBytesPerPixel(targetConfig == null ? toConfigure.getConfig() : targetConfig);
-            return byteCount <= toConfigure.getAllocationByteCount();
-        }
-        return width == toConfigure.getWidth() && height == toConfigure.getHeight()
-                && (targetConfig == null || targetConfig.equals(toConfigure.getConfig()));
-    }
-
-    private static boolean canUseForInBitmap(
-            Bitmap candidate, BitmapFactory.Options targetOptions) {
-
-        if (targetOptions.inSampleSize == 1 //FIXME some bug where inBitmap fails for latest sdk!?!
-                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            // From Android 4.4 (KitKat) onward we can re-use if the byte size of
-            // the new bitmap is smaller than the reusable bitmap candidate
-            // allocation byte count.
-            int width = targetOptions.outWidth / targetOptions.inSampleSize;
-            int height = targetOptions.outHeight / targetOptions.inSampleSize;
-            int byteCount = width * height * getBytesPerPixel(candidate.getConfig());
-            return byteCount <= candidate.getAllocationByteCount();
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        if (sampleSize > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // On earlier versions the inSampleSize must be 1 anyways
+            return null;
         }
-
-        // On earlier versions, the dimensions must match exactly and the inSampleSize must be 1
-        return candidate.getWidth() == targetOptions.outWidth
-                && candidate.getHeight() == targetOptions.outHeight
-                && targetOptions.inSampleSize == 1;
-    }
-
-    /**
-     * A helper function to return the byte usage per pixel of a bitmap based on its configuration.
-     */
-    private static int getBytesPerPixel(Bitmap.Config config) {
-        if (config == Bitmap.Config.ARGB_8888) {
-            return 4;
-        } else if (config == Bitmap.Config.RGB_565) {
-            return 2;
-        } else if (config == Bitmap.Config.ARGB_4444) {
-            return 2;
-        } else if (config == Bitmap.Config.ALPHA_8) {
-            return 1;
-        }
-        return 1;
+        Bitmap.Config config = options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888
+                : options.inPreferredConfig;
+        // the decoder reconfigures the bitmap itself if the allocation is big enough for the
+        // sampled size, which is rounded up
+        final int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        final int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        return mReusableBitmaps.get(width, height, config);
     }
 }
@@ -52,7 +52,17 @@ public final class ImageUtil {
     private static final String IMAGE_FILE_EXTENSION = ".png";
     private static final double SIMILARITY_SCALING_THRESHOLD = 0.5; // 0 would mean only exactly the same aspect ratio
     private static final String MEDIA_DIRECTORY_NAME = "WhatsThat Media";
-    private static MessageDigest DIGEST;
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                Log.e("Util", "NoSuchAlgorithm HD5!");
+                return null;
+            }
+        }
+    };
     public static final ImageCache CACHE = new ImageCache();
 
     private ImageUtil() {
@@ -181,7 +191,7 @@ public final class ImageUtil {
 
 
     /**
-     * Returns a MD5 hash of the given data.
+     * Returns a MD5 hash of the given data. Can be used by multiple threads concurrently.
      * @param data Data to hash, not null.
      * @return The MD5 hash or null on error.
      */
@@ -189,19 +199,28 @@ public final class ImageUtil {
         if (data == null) {
             return null;
         }
+        MessageDigest digest = obtainDigest();
+        if (digest == null) {
+            return null;
+        }
+        digest.update(data, 0, data.length);
+        return digestToHash(digest);
+    }
 
-        if (DIGEST == null) {
-            try {
-                DIGEST = MessageDigest.getInstance("MD5");
-            } catch (NoSuchAlgorithmException e) {
-                Log.e("Util", "NoSuchAlgorithm HD5!");
-                return null;
-            }
+    /**
+     * Returns the reset MD5 digest of the current thread.
+     * @return The digest or null if MD5 is not available.
+     */
+    static MessageDigest obtainDigest() {
+        MessageDigest digest = DIGEST.get();
+        if (digest != null) {
+            digest.reset();
         }
-        DIGEST.reset();
-        DIGEST.update(data, 0, data.length);
-        return new BigInteger(1, DIGEST.digest()).toString(16); // length 32 in hex format
+        return digest;
+    }
 
+    static String digestToHash(MessageDigest digest) {
+        return new BigInteger(1, digest.digest()).toString(16); // length 32 in hex format
     }
 
 
@@ -279,8 +298,10 @@ public final class ImageUtil {
                 Log.e("Image", "Error resetting input stream when decoding image: " + ioe);
                 return null;
             }
-            // Calculate inSampleSize
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+            // Calculate inSampleSize for the size the image gets scaled to
+            Dimension target = BitmapUtil.getScaledDimension(options.outWidth, options.outHeight,
+                    reqWidth, reqHeight, mode);
+            options.inSampleSize = calculateInSampleSize(options, target.getWidth(), target.getHeight());
             CACHE.addInBitmapOptions(options);
         }
         // Decode bitmap with inSampleSize set
@@ -290,7 +311,7 @@ public final class ImageUtil {
         if (result == null) {
             return null;
         }
-        return BitmapUtil.attemptBitmapScaling(result, reqWidth, reqHeight, mode);
+        return scaleDecoded(result, reqWidth, reqHeight, mode);
     }
 
     public static Bitmap[] loadFrames(Resources res, int reqWidth, int reqHeight, int mode,
@@ -310,38 +331,96 @@ public final class ImageUtil {
             options.inPreferredConfig = Bitmap.Config.ARGB_8888;
             return BitmapFactory.decodeResource(res, resId, options);
         }
+        return loadScaled(new ResourceSource(res, resId), reqWidth, reqHeight, mode);
+    }
+
+    // a source of encoded image data that can be decoded multiple times
+    private interface DecodeSource {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private static class ResourceSource implements DecodeSource {
+        private final Resources mRes;
+        private final int mResId;
+
+        ResourceSource(Resources res, int resId) {
+            mRes = res;
+            mResId = resId;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeResource(mRes, mResId, options);
+        }
+    }
+
+    private static class FileSource implements DecodeSource {
+        private final String mPath;
+
+        FileSource(File path) {
+            mPath = path.getAbsolutePath();
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(mPath, options);
+        }
+    }
+
+    // Decodes the image sampled down as far as the size it gets scaled to allows. The target size
+    // is known from the bounds, so the decoded bitmap is rarely much bigger than the result.
+    private static Bitmap loadScaled(DecodeSource source, int reqWidth, int reqHeight, int mode) {
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inPreferredConfig = Bitmap.Config.ARGB_8888;
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeResource(res, resId, options);
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
 
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        // Calculate inSampleSize for the size the image gets scaled to
+        Dimension target = BitmapUtil.getScaledDimension(options.outWidth, options.outHeight,
+                reqWidth, reqHeight, mode);
+        options.inSampleSize = calculateInSampleSize(options, target.getWidth(), target.getHeight());
         CACHE.addInBitmapOptions(options);
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
-        Bitmap result = decodeResourceSave(res, resId, options);
+        Bitmap result = decodeSave(source, options);
         if (result == null) {
             return null;
         }
-        return BitmapUtil.attemptBitmapScaling(result, reqWidth, reqHeight, mode);
+        return scaleDecoded(result, reqWidth, reqHeight, mode);
     }
 
-    private static Bitmap decodeResourceSave(Resources res, int resId, BitmapFactory.Options
-            options) {
+    private static Bitmap decodeSave(DecodeSource source, BitmapFactory.Options options) {
+        Bitmap result;
         try {
-            return BitmapFactory.decodeResource(res, resId, options);
+            result = source.decode(options);
         } catch (IllegalArgumentException e) {
-            // if it failed because of the strange behavior of inBitmap retry once without this
-            // option)
-            if (options.inBitmap != null) {
-                options.inBitmap = null;
-                return decodeResourceSave(res, resId, options);
+            if (options.inBitmap == null) {
+                throw e;
             }
-            throw e;
+            result = null;
         }
+        if (result == null && options.inBitmap != null) {
+            // if it failed because of the strange behavior of inBitmap retry once without this
+            // option
+            CACHE.makeReusable(options.inBitmap);
+            options.inBitmap = null;
+            return source.decode(options);
+        }
+        return result;
+    }
+
+    // scales the decoded bitmap, if a new bitmap is created the decoded one can be reused
+    private static Bitmap scaleDecoded(Bitmap decoded, int reqWidth, int reqHeight, int mode) {
+        Bitmap result = BitmapUtil.attemptBitmapScaling(decoded, reqWidth, reqHeight, mode);
+        if (result != decoded) {
+            CACHE.makeReusable(decoded);
+        }
+        return result;
     }
 
     /**
@@ -378,23 +457,7 @@ public final class ImageUtil {
             options.inPreferredConfig = Bitmap.Config.ARGB_8888;
             return BitmapFactory.decodeFile(path.getAbsolutePath(), options);
         }
-        // First decode with inJustDecodeBounds=true to check dimensions
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path.getAbsolutePath(), options);
-
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-        CACHE.addInBitmapOptions(options);
-
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-        Bitmap result = BitmapFactory.decodeFile(path.getAbsolutePath(), options);
-        if (result == null) {
-            return null;
-        }
-        return BitmapUtil.attemptBitmapScaling(result, reqWidth, reqHeight, mode);
+        return loadScaled(new FileSource(path), reqWidth, reqHeight, mode);
     }
 
     /**
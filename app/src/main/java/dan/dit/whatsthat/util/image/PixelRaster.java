@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * The pixels of a bitmap in a row-major int array. Reading and writing single pixels of a
+ * Bitmap goes through a native call each time, so pixel loops should read the whole bitmap
+ * once into a raster, work on the array and write it back once.<br>
+ * The arrays are pooled by the {@link ImageCache}, a raster that is not needed anymore should be
+ * released.
+ */
+public class PixelRaster {
+    private final int mWidth;
+    private final int mHeight;
+    private int[] mPixels;
+
+    private PixelRaster(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative raster dimension " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = ImageUtil.CACHE.obtainPixels(width * height);
+    }
+
+    /**
+     * Obtains a raster of the given dimension. The pixel values are undefined.
+     * @param width The width of the raster.
+     * @param height The height of the raster.
+     * @return A raster that should be released when no longer needed.
+     */
+    public static PixelRaster obtain(int width, int height) {
+        return new PixelRaster(width, height);
+    }
+
+    /**
+     * Obtains a raster holding the pixels of the given bitmap, read with a single bulk call.
+     * @param source The bitmap to read.
+     * @return A raster of the bitmap's dimension that should be released when no longer needed.
+     */
+    public static PixelRaster obtain(Bitmap source) {
+        PixelRaster raster = new PixelRaster(source.getWidth(), source.getHeight());
+        raster.readFrom(source);
+        return raster;
+    }
+
+    /**
+     * Reads all pixels of the given bitmap which must have the raster's dimension.
+     * @param source The bitmap to read.
+     */
+    public void readFrom(Bitmap source) {
+        checkDimension(source);
+        source.getPixels(mPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Reads the pixels of the region of the given bitmap that has the raster's dimension and
+     * starts at the given position. This lets a raster smaller than the bitmap walk over it.
+     * @param source The bitmap to read.
+     * @param x The left bound of the region.
+     * @param y The top bound of the region.
+     */
+    public void readFrom(Bitmap source, int x, int y) {
+        source.getPixels(mPixels, 0, mWidth, x, y, mWidth, mHeight);
+    }
+
+    /**
+     * Writes all pixels to the given bitmap which must have the raster's dimension and be mutable.
+     * @param target The bitmap to write to.
+     */
+    public void writeTo(Bitmap target) {
+        checkDimension(target);
+        target.setPixels(mPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Creates a new bitmap holding the pixels of this raster.
+     * @param config The config of the new bitmap.
+     * @return A new mutable bitmap.
+     */
+    public Bitmap toBitmap(Bitmap.Config config) {
+        Bitmap result = Bitmap.createBitmap(mWidth, mHeight, config);
+        writeTo(result);
+        return result;
+    }
+
+    private void checkDimension(Bitmap bitmap) {
+        if (bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Bitmap " + bitmap.getWidth() + "x" + bitmap
+                    .getHeight() + " does not fit raster " + mWidth + "x" + mHeight);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the backing array, the pixel (x,y) is at index y*width+x.
+     * @return The pixel array.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int get(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    public void set(int x, int y, int color) {
+        mPixels[y * mWidth + x] = color;
+    }
+
+    /**
+     * Returns the pixel array to the pool. The raster must not be used afterwards.
+     */
+    public void release() {
+        if (mPixels != null) {
+            ImageUtil.CACHE.releasePixels(mPixels);
+            mPixels = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+/**
+ * A fixed sequence of 'random' numbers like the {@link FixedRandom} that can also be walked
+ * backwards. Every step of the xorshift generator is invertible, so a sequence can be revisited
+ * in reverse order without storing it. This allows to undo a shuffle in constant memory.
+ */
+public class ReversibleRandom {
+    private int mState;
+
+    /**
+     * Creates a new sequence for the given seed.
+     * @param seed The seed, must not be zero.
+     */
+    public ReversibleRandom(int seed) {
+        if (seed == 0) {
+            throw new IllegalArgumentException("Seed must not be zero.");
+        }
+        mState = seed;
+    }
+
+    /**
+     * Advances to the next number of the sequence.
+     */
+    public void forward() {
+        int x = mState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mState = x;
+    }
+
+    /**
+     * Goes back to the previous number of the sequence, undoing one forward step.
+     */
+    public void backward() {
+        int x = mState;
+        x = unshiftLeft(x, 5);
+        x = unshiftRight(x, 17);
+        x = unshiftLeft(x, 13);
+        mState = x;
+    }
+
+    // inverts value ^ (value << shift)
+    private static int unshiftLeft(int value, int shift) {
+        int result = value;
+        for (int i = shift; i < Integer.SIZE; i += shift) {
+            result = value ^ (result << shift);
+        }
+        return result;
+    }
+
+    // inverts value ^ (value >>> shift)
+    private static int unshiftRight(int value, int shift) {
+        int result = value;
+        for (int i = shift; i < Integer.SIZE; i += shift) {
+            result = value ^ (result >>> shift);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current number of the sequence scaled to the given bound.
+     * @param bound The exclusive upper bound, positive.
+     * @return A number from 0 to bound - 1.
+     */
+    public int current(int bound) {
+        return (int) (((mState & 0xFFFFFFFFL) * bound) >>> 32);
+    }
+}
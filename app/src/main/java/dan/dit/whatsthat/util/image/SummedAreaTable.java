@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * An integral image of a bitmap. For every pixel position the sums of all pixel values above and
+ * left of it are stored, so the average color, brightness and variance of any rectangle can be
+ * answered in constant time after a single pass over the bitmap.<br>
+ * Only the requested features are built, each needs 4 to 8 bytes per pixel and channel.
+ * Rectangles are given by inclusive start and exclusive end coordinates and are clipped to
+ * the bitmap. Bitmaps are limited to 16843009 pixels so that channel sums fit into 32 bits.
+ */
+public class SummedAreaTable {
+    /**
+     * Sums of the red, green, blue and alpha channels for average colors.
+     */
+    public static final int FEATURE_COLOR = 1;
+    /**
+     * Squared sums of the channels for channel variances, includes FEATURE_COLOR.
+     */
+    public static final int FEATURE_COLOR_VARIANCE = 2 | FEATURE_COLOR;
+    /**
+     * Sums of the brightness as given by {@link ColorAnalysisUtil#getBrightnessWithAlpha(int)}.
+     */
+    public static final int FEATURE_BRIGHTNESS = 4;
+    /**
+     * Squared sums of the brightness for brightness variance, includes FEATURE_BRIGHTNESS.
+     */
+    public static final int FEATURE_BRIGHTNESS_VARIANCE = 8 | FEATURE_BRIGHTNESS;
+    private static final long MAX_PIXELS = 0xFFFFFFFFL / 255L;
+    private static final int CHANNELS = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStride;
+    // indexed by ColorMetric.CHANNEL_ constants, sums are stored modulo 2^32
+    private int[][] mChannelSums;
+    private long[][] mChannelSquareSums;
+    private double[] mBrightnessSums;
+    private double[] mBrightnessSquareSums;
+
+    /**
+     * Builds the table for the given bitmap.
+     * @param source The bitmap to analyze.
+     * @param features The features to build, a combination of the FEATURE_ constants.
+     */
+    public SummedAreaTable(Bitmap source, int features) {
+        if (source == null) {
+            throw new IllegalArgumentException("No source given.");
+        }
+        mWidth = source.getWidth();
+        mHeight = source.getHeight();
+        if ((long) mWidth * mHeight > MAX_PIXELS) {
+            throw new IllegalArgumentException("Bitmap too big for summed area table: " + mWidth +
+                    "x" + mHeight);
+        }
+        mStride = mWidth + 1;
+        final int size = mStride * (mHeight + 1);
+        if ((features & FEATURE_COLOR) != 0) {
+            mChannelSums = new int[CHANNELS][size];
+        }
+        if ((features & FEATURE_COLOR_VARIANCE) == FEATURE_COLOR_VARIANCE) {
+            mChannelSquareSums = new long[CHANNELS][size];
+        }
+        if ((features & FEATURE_BRIGHTNESS) != 0) {
+            mBrightnessSums = new double[size];
+        }
+        if ((features & FEATURE_BRIGHTNESS_VARIANCE) == FEATURE_BRIGHTNESS_VARIANCE) {
+            mBrightnessSquareSums = new double[size];
+        }
+        build(source);
+    }
+
+    private void build(Bitmap source) {
+        int[] row = new int[mWidth];
+        int[] channelRowSums = new int[CHANNELS];
+        long[] channelRowSquareSums = new long[CHANNELS];
+        for (int y = 0; y < mHeight; y++) {
+            source.getPixels(row, 0, mWidth, 0, y, mWidth, 1);
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                channelRowSums[channel] = 0;
+                channelRowSquareSums[channel] = 0L;
+            }
+            double brightnessRowSum = 0.;
+            double brightnessRowSquareSum = 0.;
+            final int above = y * mStride + 1;
+            final int current = above + mStride;
+            for (int x = 0; x < mWidth; x++) {
+                final int color = row[x];
+                if (mChannelSums != null) {
+                    for (int channel = 0; channel < CHANNELS; channel++) {
+                        int value = ColorMetric.getChannel(color, channel);
+                        channelRowSums[channel] += value;
+                        mChannelSums[channel][current + x] = mChannelSums[channel][above + x]
+                                + channelRowSums[channel];
+                        if (mChannelSquareSums != null) {
+                            channelRowSquareSums[channel] += value * value;
+                            mChannelSquareSums[channel][current + x] =
+                                    mChannelSquareSums[channel][above + x]
+                                    + channelRowSquareSums[channel];
+                        }
+                    }
+                }
+                if (mBrightnessSums != null) {
+                    double brightness = ColorAnalysisUtil.getBrightnessWithAlpha(color);
+                    brightnessRowSum += brightness;
+                    mBrightnessSums[current + x] = mBrightnessSums[above + x] + brightnessRowSum;
+                    if (mBrightnessSquareSums != null) {
+                        brightnessRowSquareSum += brightness * brightness;
+                        mBrightnessSquareSums[current + x] = mBrightnessSquareSums[above + x]
+                                + brightnessRowSquareSum;
+                    }
+                }
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // clips the coordinate to the bitmap, the end coordinates may equal the width or height
+    private int clipX(int x) {
+        return x < 0 ? 0 : (x > mWidth ? mWidth : x);
+    }
+
+    private int clipY(int y) {
+        return y < 0 ? 0 : (y > mHeight ? mHeight : y);
+    }
+
+    private static long getSum(int[] sums, int topLeft, int topRight, int bottomLeft, int
+            bottomRight) {
+        // the wrapped around difference is exact as the true sum fits into 32 unsigned bits
+        return (sums[bottomRight] - sums[bottomLeft] - sums[topRight] + sums[topLeft]) & 0xFFFFFFFFL;
+    }
+
+    private static long getSum(long[] sums, int topLeft, int topRight, int bottomLeft, int
+            bottomRight) {
+        return sums[bottomRight] - sums[bottomLeft] - sums[topRight] + sums[topLeft];
+    }
+
+    private static double getSum(double[] sums, int topLeft, int topRight, int bottomLeft, int
+            bottomRight) {
+        return sums[bottomRight] - sums[bottomLeft] - sums[topRight] + sums[topLeft];
+    }
+
+    /**
+     * Returns the average color of the rectangle, each channel rounded down.
+     * @param fromX The left bound, inclusive.
+     * @param toX The right bound, exclusive.
+     * @param fromY The top bound, inclusive.
+     * @param toY The bottom bound, exclusive.
+     * @return The average ARGB color or 0 if the clipped rectangle is empty.
+     */
+    public int getAverageColor(int fromX, int toX, int fromY, int toY) {
+        checkFeature(mChannelSums);
+        fromX = clipX(fromX);
+        toX = clipX(toX);
+        fromY = clipY(fromY);
+        toY = clipY(toY);
+        if (toX <= fromX || toY <= fromY) {
+            return 0;
+        }
+        long pixels = (long) (toX - fromX) * (toY - fromY);
+        final int topLeft = fromY * mStride + fromX;
+        final int topRight = fromY * mStride + toX;
+        final int bottomLeft = toY * mStride + fromX;
+        final int bottomRight = toY * mStride + toX;
+        int alpha = (int) (getSum(mChannelSums[ColorMetric.CHANNEL_ALPHA], topLeft, topRight,
+                bottomLeft, bottomRight) / pixels);
+        int red = (int) (getSum(mChannelSums[ColorMetric.CHANNEL_RED], topLeft, topRight,
+                bottomLeft, bottomRight) / pixels);
+        int green = (int) (getSum(mChannelSums[ColorMetric.CHANNEL_GREEN], topLeft, topRight,
+                bottomLeft, bottomRight) / pixels);
+        int blue = (int) (getSum(mChannelSums[ColorMetric.CHANNEL_BLUE], topLeft, topRight,
+                bottomLeft, bottomRight) / pixels);
+        return ColorAnalysisUtil.toRGB(red, green, blue, alpha);
+    }
+
+    /**
+     * Returns the variance of the given channel in the rectangle.
+     * @param channel The channel, one of the ColorMetric.CHANNEL_ constants.
+     * @param fromX The left bound, inclusive.
+     * @param toX The right bound, exclusive.
+     * @param fromY The top bound, inclusive.
+     * @param toY The bottom bound, exclusive.
+     * @return The variance of the channel values or 0 if the clipped rectangle is empty.
+     */
+    public double getChannelVariance(int channel, int fromX, int toX, int fromY, int toY) {
+        checkFeature(mChannelSquareSums);
+        fromX = clipX(fromX);
+        toX = clipX(toX);
+        fromY = clipY(fromY);
+        toY = clipY(toY);
+        if (toX <= fromX || toY <= fromY) {
+            return 0.;
+        }
+        double pixels = (double) (toX - fromX) * (toY - fromY);
+        final int topLeft = fromY * mStride + fromX;
+        final int topRight = fromY * mStride + toX;
+        final int bottomLeft = toY * mStride + fromX;
+        final int bottomRight = toY * mStride + toX;
+        double mean = getSum(mChannelSums[channel], topLeft, topRight, bottomLeft, bottomRight)
+                / pixels;
+        double squareMean = getSum(mChannelSquareSums[channel], topLeft, topRight, bottomLeft,
+                bottomRight) / pixels;
+        return Math.max(0., squareMean - mean * mean);
+    }
+
+    /**
+     * Returns the average brightness of the rectangle.
+     * @param fromX The left bound, inclusive.
+     * @param toX The right bound, exclusive.
+     * @param fromY The top bound, inclusive.
+     * @param toY The bottom bound, exclusive.
+     * @return The average brightness from 0 to 1 or NaN if the clipped rectangle is empty.
+     */
+    public double getAverageBrightness(int fromX, int toX, int fromY, int toY) {
+        checkFeature(mBrightnessSums);
+        fromX = clipX(fromX);
+        toX = clipX(toX);
+        fromY = clipY(fromY);
+        toY = clipY(toY);
+        if (toX <= fromX || toY <= fromY) {
+            return Double.NaN;
+        }
+        return getSum(mBrightnessSums, fromY * mStride + fromX, fromY * mStride + toX,
+                toY * mStride + fromX, toY * mStride + toX) / ((double) (toX - fromX) * (toY - fromY));
+    }
+
+    /**
+     * Returns the average brightness of the whole bitmap.
+     * @return The average brightness from 0 to 1 or NaN for an empty bitmap.
+     */
+    public double getAverageBrightness() {
+        return getAverageBrightness(0, mWidth, 0, mHeight);
+    }
+
+    /**
+     * Returns the variance of the brightness in the rectangle.
+     * @param fromX The left bound, inclusive.
+     * @param toX The right bound, exclusive.
+     * @param fromY The top bound, inclusive.
+     * @param toY The bottom bound, exclusive.
+     * @return The brightness variance or 0 if the clipped rectangle is empty.
+     */
+    public double getBrightnessVariance(int fromX, int toX, int fromY, int toY) {
+        checkFeature(mBrightnessSquareSums);
+        fromX = clipX(fromX);
+        toX = clipX(toX);
+        fromY = clipY(fromY);
+        toY = clipY(toY);
+        if (toX <= fromX || toY <= fromY) {
+            return 0.;
+        }
+        double pixels = (double) (toX - fromX) * (toY - fromY);
+        final int topLeft = fromY * mStride + fromX;
+        final int topRight = fromY * mStride + toX;
+        final int bottomLeft = toY * mStride + fromX;
+        final int bottomRight = toY * mStride + toX;
+        double mean = getSum(mBrightnessSums, topLeft, topRight, bottomLeft, bottomRight) / pixels;
+        double squareMean = getSum(mBrightnessSquareSums, topLeft, topRight, bottomLeft,
+                bottomRight) / pixels;
+        return Math.max(0., squareMean - mean * mean);
+    }
+
+    private static void checkFeature(Object sums) {
+        if (sums == null) {
+            throw new IllegalStateException("Feature not built for this summed area table.");
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package dan.dit.whatsthat.util.jama;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Dense matrix backed by a single flat array.
+   <P>
+   Element (i,j) is stored at data[i*rowStride + j*columnStride]. Matrices created by
+   the constructors are row-major with columnStride 1, so rows are contiguous in memory.
+   {@link #transpose()} only returns a view that shares the data by swapping the strides,
+   changes to the view are visible in the original and vice versa.
+   <P>
+   Multiplication is tiled so that the working set of the inner loops stays in cache and can
+   split the rows of the result among several threads. Compared to {@link Matrix} this avoids
+   one array object per row, which matters for bitmap sized matrices with thousands of rows.
+   */
+public class DenseMatrix implements java.io.Serializable {
+
+    // tile sizes for multiplication, a tile of B with TILE_INNER rows and TILE_COLUMNS columns
+    // has 256KB
+    private static final int TILE_ROWS = 64;
+    private static final int TILE_INNER = 128;
+    private static final int TILE_COLUMNS = 256;
+    // below this many multiply-adds multithreading does not pay off
+    private static final long MIN_PARALLEL_WORK = 1L << 20;
+
+    private final double[] data;
+    private final int rows, columns;
+    private final int rowStride, columnStride;
+
+    /** Construct a row-major matrix of zeros.
+     @param rows    Number of rows.
+     @param columns Number of columns.
+     @exception IllegalArgumentException If a dimension is negative.
+     */
+    public DenseMatrix(int rows, int columns) {
+        this(new double[checkedSize(rows, columns)], rows, columns);
+    }
+
+    /** Construct a row-major matrix using the given array, which is not copied.
+     @param data    Row-major data, element (i,j) at i*columns+j.
+     @param rows    Number of rows.
+     @param columns Number of columns.
+     @exception IllegalArgumentException If the array length does not match the dimensions.
+     */
+    public DenseMatrix(double[] data, int rows, int columns) {
+        if (data == null || data.length != checkedSize(rows, columns)) {
+            throw new IllegalArgumentException("Array length must be " + rows + "*" + columns);
+        }
+        this.data = data;
+        this.rows = rows;
+        this.columns = columns;
+        this.rowStride = columns;
+        this.columnStride = 1;
+    }
+
+    private DenseMatrix(double[] data, int rows, int columns, int rowStride, int columnStride) {
+        this.data = data;
+        this.rows = rows;
+        this.columns = columns;
+        this.rowStride = rowStride;
+        this.columnStride = columnStride;
+    }
+
+    private static int checkedSize(int rows, int columns) {
+        if (rows < 0 || columns < 0) {
+            throw new IllegalArgumentException("Negative dimension " + rows + "x" + columns);
+        }
+        return rows * columns;
+    }
+
+    /** Copy a jama matrix into a new row-major matrix.
+     @param matrix The matrix to copy.
+     @return A new row-major matrix.
+     */
+    public static DenseMatrix fromMatrix(Matrix matrix) {
+        final int m = matrix.getRowDimension();
+        final int n = matrix.getColumnDimension();
+        double[][] A = matrix.getArray();
+        DenseMatrix result = new DenseMatrix(m, n);
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(A[i], 0, result.data, i * n, n);
+        }
+        return result;
+    }
+
+    /** Copy this matrix into a new jama matrix.
+     @return A new jama matrix with the same elements.
+     */
+    public Matrix toMatrix() {
+        Matrix result = new Matrix(rows, columns);
+        double[][] A = result.getArray();
+        for (int i = 0; i < rows; i++) {
+            if (columnStride == 1) {
+                System.arraycopy(data, i * rowStride, A[i], 0, columns);
+            } else {
+                double[] Ai = A[i];
+                for (int j = 0; j < columns; j++) {
+                    Ai[j] = get(i, j);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int getRowDimension() {
+        return rows;
+    }
+
+    public int getColumnDimension() {
+        return columns;
+    }
+
+    /** Get a single element.
+     @param i Row index.
+     @param j Column index.
+     @return A(i,j)
+     */
+    public double get(int i, int j) {
+        return data[i * rowStride + j * columnStride];
+    }
+
+    /** Set a single element.
+     @param i Row index.
+     @param j Column index.
+     @param value A(i,j).
+     */
+    public void set(int i, int j, double value) {
+        data[i * rowStride + j * columnStride] = value;
+    }
+
+    /** If the rows of this matrix are contiguous and directly follow each other in the data.
+     @return True for matrices created by the constructors, false for transposed views.
+     */
+    public boolean isRowMajor() {
+        return columnStride == 1 && rowStride == columns;
+    }
+
+    /** Returns the row-major data array if this matrix is row-major, else a row-major copy.
+     @return Row-major data, element (i,j) at i*columns+j, not necessarily a copy.
+     */
+    public double[] getRowMajorArray() {
+        if (isRowMajor()) {
+            return data;
+        }
+        return copy().data;
+    }
+
+    /** Returns the transposed matrix as a view sharing the data of this matrix.
+     @return A'
+     */
+    public DenseMatrix transpose() {
+        return new DenseMatrix(data, columns, rows, columnStride, rowStride);
+    }
+
+    /** Make a row-major deep copy of this matrix.
+     @return A new row-major matrix with the same elements.
+     */
+    public DenseMatrix copy() {
+        DenseMatrix result = new DenseMatrix(rows, columns);
+        double[] C = result.data;
+        if (columnStride == 1) {
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(data, i * rowStride, C, i * columns, columns);
+            }
+        } else {
+            // tiled so that reading a transposed view does not jump through memory all the time
+            for (int ii = 0; ii < rows; ii += TILE_ROWS) {
+                final int iEnd = Math.min(rows, ii + TILE_ROWS);
+                for (int jj = 0; jj < columns; jj += TILE_ROWS) {
+                    final int jEnd = Math.min(columns, jj + TILE_ROWS);
+                    for (int i = ii; i < iEnd; i++) {
+                        int source = i * rowStride + jj * columnStride;
+                        int target = i * columns + jj;
+                        for (int j = jj; j < jEnd; j++) {
+                            C[target++] = data[source];
+                            source += columnStride;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Multiply this matrix by a scalar in place.
+     @param s Scalar.
+     @return This matrix.
+     */
+    public DenseMatrix timesEquals(double s) {
+        for (int i = 0; i < rows; i++) {
+            int index = i * rowStride;
+            for (int j = 0; j < columns; j++) {
+                data[index] *= s;
+                index += columnStride;
+            }
+        }
+        return this;
+    }
+
+    /** Add the given matrix to this matrix in place.
+     @param B Matrix of the same dimensions.
+     @return This matrix.
+     @exception IllegalArgumentException If the dimensions do not agree.
+     */
+    public DenseMatrix plusEquals(DenseMatrix B) {
+        checkSameDimensions(B);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                data[i * rowStride + j * columnStride] += B.get(i, j);
+            }
+        }
+        return this;
+    }
+
+    /** Subtract the given matrix from this matrix in place.
+     @param B Matrix of the same dimensions.
+     @return This matrix.
+     @exception IllegalArgumentException If the dimensions do not agree.
+     */
+    public DenseMatrix minusEquals(DenseMatrix B) {
+        checkSameDimensions(B);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                data[i * rowStride + j * columnStride] -= B.get(i, j);
+            }
+        }
+        return this;
+    }
+
+    private void checkSameDimensions(DenseMatrix B) {
+        if (B.rows != rows || B.columns != columns) {
+            throw new IllegalArgumentException("Matrix dimensions must agree.");
+        }
+    }
+
+    /** Frobenius norm
+     @return sqrt of sum of squares of all elements.
+     */
+    public double normF() {
+        double sum = 0.;
+        for (int i = 0; i < rows; i++) {
+            int index = i * rowStride;
+            for (int j = 0; j < columns; j++) {
+                sum += data[index] * data[index];
+                index += columnStride;
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    /** Linear algebraic matrix multiplication, A * B
+     @param B Another matrix.
+     @return Row-major matrix product.
+     @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public DenseMatrix times(DenseMatrix B) {
+        return times(B, 1);
+    }
+
+    /** Linear algebraic matrix multiplication, A * B, that splits the rows of the result
+     among the given amount of threads.
+     @param B Another matrix.
+     @param parallelism Amount of threads to use, 1 or less to use the calling thread only.
+     @return Row-major matrix product.
+     @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public DenseMatrix times(DenseMatrix B, int parallelism) {
+        if (B.rows != columns) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        return multiply(getRowMajorArray(), B.getRowMajorArray(), rows, columns, B.columns,
+                parallelism);
+    }
+
+    /** Multiplication with a diagonal matrix in between, A * diag(d) * B, restricted to the first
+     diagSize columns of A and rows of B. Used to reconstruct a low rank approximation from
+     singular vectors.
+     @param diag The diagonal.
+     @param diagSize The amount of diagonal elements to use.
+     @param B Another matrix with as many rows as A has columns.
+     @param parallelism Amount of threads to use, 1 or less to use the calling thread only.
+     @return Row-major matrix product.
+     @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public DenseMatrix diagTimes(double[] diag, int diagSize, DenseMatrix B, int parallelism) {
+        if (B.rows != columns) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final int inner = Math.max(0, Math.min(columns, Math.min(diag.length, diagSize)));
+        // scale the restricted copy of A, this is cheap compared to the multiplication
+        double[] scaled = new double[rows * inner];
+        for (int i = 0; i < rows; i++) {
+            for (int k = 0; k < inner; k++) {
+                scaled[i * inner + k] = get(i, k) * diag[k];
+            }
+        }
+        double[] restrictedB = B.isRowMajor() ? B.data : new DenseMatrix(B.data, inner, B.columns,
+                B.rowStride, B.columnStride).copy().data;
+        return multiply(scaled, restrictedB, rows, inner, B.columns, parallelism);
+    }
+
+    /** Adds a scaled part of the multiplication with a diagonal matrix in between to this matrix
+     in place, A += scale * B * diag(d) * C restricted to the columns of B and rows of C from
+     fromIndex to toIndex. Each index adds the outer product of a column of B and a row of C, so a
+     low rank approximation can be moved to another rank without multiplying all singular vectors
+     again.
+     @param B A matrix with as many rows as A.
+     @param diag The diagonal.
+     @param fromIndex The first diagonal element to use, inclusive.
+     @param toIndex The last diagonal element to use, exclusive.
+     @param scale The factor of the added product, -1 to subtract it.
+     @param C A matrix with as many rows as B has columns and as many columns as A.
+     @param parallelism Amount of threads to use, 1 or less to use the calling thread only.
+     @return This matrix.
+     @exception IllegalArgumentException Matrix dimensions must agree.
+     @exception IllegalStateException If this matrix is not row-major.
+     */
+    public DenseMatrix plusEqualsDiagTimes(DenseMatrix B, double[] diag, int fromIndex, int
+            toIndex, double scale, DenseMatrix C, int parallelism) {
+        if (B.rows != rows || C.rows != B.columns || C.columns != columns) {
+            throw new IllegalArgumentException("Matrix dimensions must agree.");
+        }
+        if (!isRowMajor()) {
+            throw new IllegalStateException("Can only add to a row-major matrix.");
+        }
+        final int from = Math.max(0, fromIndex);
+        final int inner = Math.min(B.columns, Math.min(diag.length, toIndex)) - from;
+        if (inner <= 0) {
+            return this;
+        }
+        double[] scaled = new double[rows * inner];
+        for (int i = 0; i < rows; i++) {
+            for (int k = 0; k < inner; k++) {
+                scaled[i * inner + k] = B.get(i, from + k) * diag[from + k] * scale;
+            }
+        }
+        double[] restrictedC = new double[inner * columns];
+        for (int k = 0; k < inner; k++) {
+            if (C.columnStride == 1) {
+                System.arraycopy(C.data, (from + k) * C.rowStride, restrictedC, k * columns,
+                        columns);
+            } else {
+                for (int j = 0; j < columns; j++) {
+                    restrictedC[k * columns + j] = C.get(from + k, j);
+                }
+            }
+        }
+        multiplyAdd(scaled, restrictedC, data, rows, inner, columns, parallelism);
+        return this;
+    }
+
+    // C = A * B for row-major A (m x inner) and B (inner x n, only the first inner rows are read)
+    private static DenseMatrix multiply(double[] A, double[] B, int m, int inner, int n, int
+            parallelism) {
+        DenseMatrix result = new DenseMatrix(m, n);
+        multiplyAdd(A, B, result.data, m, inner, n, parallelism);
+        return result;
+    }
+
+    // C += A * B for row-major A (m x inner), B (inner x n) and C (m x n)
+    private static void multiplyAdd(final double[] A, final double[] B, final double[] C, final
+            int m, final int inner, final int n, int parallelism) {
+        int threads = Math.max(1, Math.min(parallelism, (m + TILE_ROWS - 1) / TILE_ROWS));
+        if (threads == 1 || (long) m * inner * n < MIN_PARALLEL_WORK) {
+            multiplyRows(A, B, C, 0, m, inner, n);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> bands = new ArrayList<>();
+            for (int row = 0; row < m; row += TILE_ROWS) {
+                final int rowStart = row;
+                final int rowEnd = Math.min(m, row + TILE_ROWS);
+                bands.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        multiplyRows(A, B, C, rowStart, rowEnd, inner, n);
+                        return null;
+                    }
+                }));
+            }
+            // C is added to, so all bands must be finished even if interrupted
+            boolean interrupted = false;
+            for (Future<Void> band : bands) {
+                while (true) {
+                    try {
+                        band.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void multiplyRows(double[] A, double[] B, double[] C, int rowStart, int rowEnd,
+                                     int inner, int n) {
+        for (int ii = rowStart; ii < rowEnd; ii += TILE_ROWS) {
+            final int iEnd = Math.min(rowEnd, ii + TILE_ROWS);
+            for (int kk = 0; kk < inner; kk += TILE_INNER) {
+                final int kEnd = Math.min(inner, kk + TILE_INNER);
+                for (int jj = 0; jj < n; jj += TILE_COLUMNS) {
+                    final int jEnd = Math.min(n, jj + TILE_COLUMNS);
+                    for (int i = ii; i < iEnd; i++) {
+                        final int rowA = i * inner;
+                        final int rowC = i * n;
+                        for (int k = kk; k < kEnd; k++) {
+                            final double a = A[rowA + k];
+                            if (a == 0.) {
+                                continue;
+                            }
+                            int indexB = k * n + jj;
+                            for (int j = rowC + jj; j < rowC + jEnd; j++) {
+                                C[j] += a * B[indexB++];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static final long serialVersionUID = 1;
+}
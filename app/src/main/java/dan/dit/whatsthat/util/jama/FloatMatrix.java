@@ -0,0 +1,91 @@
+package dan.dit.whatsthat.util.jama;
+
+/** Dense row-major matrix of single precision values.
+   <P>
+   Needs half the memory of a {@link DenseMatrix} and is meant to hold large source matrices
+   whose values are exactly representable as floats, like the 8 bit channels of a bitmap.
+   Computations convert the values to double.
+   */
+public class FloatMatrix implements java.io.Serializable {
+
+    private final float[] data;
+    private final int rows, columns;
+
+    /** Construct a matrix of zeros.
+     @param rows    Number of rows.
+     @param columns Number of columns.
+     @exception IllegalArgumentException If a dimension is negative.
+     */
+    public FloatMatrix(int rows, int columns) {
+        if (rows < 0 || columns < 0) {
+            throw new IllegalArgumentException("Negative dimension " + rows + "x" + columns);
+        }
+        this.data = new float[rows * columns];
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /** Construct a matrix using the given array, which is not copied.
+     @param data    Row-major data, element (i,j) at i*columns+j.
+     @param rows    Number of rows.
+     @param columns Number of columns.
+     @exception IllegalArgumentException If the array length does not match the dimensions.
+     */
+    public FloatMatrix(float[] data, int rows, int columns) {
+        if (data == null || rows < 0 || columns < 0 || data.length != rows * columns) {
+            throw new IllegalArgumentException("Array length must be " + rows + "*" + columns);
+        }
+        this.data = data;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    public int getRowDimension() {
+        return rows;
+    }
+
+    public int getColumnDimension() {
+        return columns;
+    }
+
+    /** Access the internal row-major array.
+     @return Pointer to the array of matrix elements, element (i,j) at i*columns+j.
+     */
+    public float[] getArray() {
+        return data;
+    }
+
+    public float get(int i, int j) {
+        return data[i * columns + j];
+    }
+
+    public void set(int i, int j, float value) {
+        data[i * columns + j] = value;
+    }
+
+    /** Copy the given row into the buffer, converting to double.
+     @param i Row index.
+     @param buffer Buffer of at least length columns.
+     @return The buffer.
+     */
+    public double[] getRow(int i, double[] buffer) {
+        final int rowStart = i * columns;
+        for (int j = 0; j < columns; j++) {
+            buffer[j] = data[rowStart + j];
+        }
+        return buffer;
+    }
+
+    /** Copy this matrix into a new double precision matrix.
+     @return A new row-major DenseMatrix with the same elements.
+     */
+    public DenseMatrix toDenseMatrix() {
+        double[] result = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = data[i];
+        }
+        return new DenseMatrix(result, rows, columns);
+    }
+
+    private static final long serialVersionUID = 1;
+}
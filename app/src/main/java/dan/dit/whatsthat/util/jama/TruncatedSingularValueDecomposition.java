@@ -0,0 +1,515 @@
+package dan.dit.whatsthat.util.jama;
+
+import java.util.Random;
+
+import dan.dit.whatsthat.util.general.PercentProgressListener;
+
+/** Truncated Singular Value Decomposition.
+   <P>
+   For an m-by-n matrix A this computes only the leading k singular triplets, so that
+   A is approximately U*S*V' with an m-by-k matrix U, a k-by-k diagonal matrix S and
+   an n-by-k matrix V, both U and V having orthonormal columns.
+   <P>
+   The decomposition is randomized: A gaussian test matrix is multiplied with A to find an
+   orthonormal basis Q of the (approximate) range of A. Some power iterations make the basis
+   more accurate for slowly decaying singular values. Then the small matrix B = Q'*A is
+   decomposed exactly.
+   <P>
+   The basis can be grown incrementally. New basis vectors are kept orthogonal to the existing
+   ones, so the work done for the previous rank is not lost. If the basis would need more than
+   a fraction of min(m,n) vectors, the exact {@link SingularValueDecomposition} of A is computed
+   instead since it is cheaper then.
+   <P>
+   The singular values are ordered so that sigma[0] >= sigma[1] >= ... >= sigma[k-1].
+   */
+public class TruncatedSingularValueDecomposition implements java.io.Serializable {
+
+    /** Additional basis vectors that make the leading k triplets accurate. */
+    public static final int DEFAULT_OVERSAMPLING = 10;
+    /** Power iterations for the range finder, images have slowly decaying singular values. */
+    public static final int DEFAULT_POWER_ITERATIONS = 2;
+    /** Basis vectors are added in blocks of at least this size. */
+    private static final int MIN_BLOCK_SIZE = 16;
+    // relative norm below which a new basis vector is considered to be already contained in the basis
+    private static final double DEPENDENCY_TOLERANCE = 1E-10;
+    private static final long RANDOM_SEED = 42L;
+    /* Beyond this fraction of min(m,n) basis vectors growing the basis block by block costs
+     more in total than the exact decomposition of A. */
+    private static final double FULL_DECOMPOSITION_FRACTION = 0.5;
+
+    /** The decomposed matrix in row-major order, not copied if given row-major. Null if the
+     matrix is given in single precision. */
+    private final double[] A;
+    private final FloatMatrix floatA;
+    private final int m, n;
+    private final int oversampling;
+    private final int powerIterations;
+    private final Random random;
+
+    /** Orthonormal basis vectors of the approximate range of A, each of length m. */
+    private double[][] basis;
+    /** Rows of B = Q'*A, each of length n, one for each basis vector. */
+    private double[][] projected;
+    private int basisSize;
+    /** True if the basis can not grow any more since the range of A is covered. */
+    private boolean complete;
+
+    private double[] s;
+    private DenseMatrix U;
+    private DenseMatrix VTransposed;
+
+    /** Construct the truncated singular value decomposition.
+     * @param Arg Rectangular matrix, is copied.
+     * @param rank The rank that is at least required.
+     * @param callback Optional callback that can cancel the computation.
+     * @exception IllegalArgumentException If the rank is negative.
+     */
+    public TruncatedSingularValueDecomposition(Matrix Arg, int rank, SingularValueDecomposition
+            .ProgressCallback callback) {
+        this(DenseMatrix.fromMatrix(Arg), rank, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS,
+                callback);
+    }
+
+    /** Construct the truncated singular value decomposition.
+     * @param Arg Rectangular matrix, is not copied if row-major and must not be changed
+     *            afterwards.
+     * @param rank The rank that is at least required.
+     * @param callback Optional callback that can cancel the computation.
+     * @exception IllegalArgumentException If the rank is negative.
+     */
+    public TruncatedSingularValueDecomposition(DenseMatrix Arg, int rank,
+                                               SingularValueDecomposition.ProgressCallback callback) {
+        this(Arg, rank, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS, callback);
+    }
+
+    /** Construct the truncated singular value decomposition.
+     * @param Arg Rectangular matrix, is not copied if row-major and must not be changed
+     *            afterwards.
+     * @param rank The rank that is at least required.
+     * @param oversampling Additional basis vectors for accuracy, at least zero.
+     * @param powerIterations Power iterations for accuracy, at least zero.
+     * @param callback Optional callback that can cancel the computation.
+     * @exception IllegalArgumentException If any parameter is negative.
+     */
+    public TruncatedSingularValueDecomposition(DenseMatrix Arg, int rank, int oversampling, int
+            powerIterations, SingularValueDecomposition.ProgressCallback callback) {
+        this(Arg.getRowMajorArray(), null, Arg.getRowDimension(), Arg.getColumnDimension(), rank,
+                oversampling, powerIterations, callback);
+    }
+
+    /** Construct the truncated singular value decomposition of a single precision matrix,
+     * which halves the memory needed to keep the matrix for growing the decomposition.
+     * @param Arg Rectangular matrix, is not copied and must not be changed afterwards.
+     * @param rank The rank that is at least required.
+     * @param callback Optional callback that can cancel the computation.
+     * @exception IllegalArgumentException If the rank is negative.
+     */
+    public TruncatedSingularValueDecomposition(FloatMatrix Arg, int rank,
+                                               SingularValueDecomposition.ProgressCallback callback) {
+        this(null, Arg, Arg.getRowDimension(), Arg.getColumnDimension(), rank,
+                DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS, callback);
+    }
+
+    private TruncatedSingularValueDecomposition(double[] A, FloatMatrix floatA, int m, int n, int
+            rank, int oversampling, int powerIterations, SingularValueDecomposition.ProgressCallback
+            callback) {
+        if (oversampling < 0 || powerIterations < 0) {
+            throw new IllegalArgumentException("Negative oversampling " + oversampling + " or " +
+                    "power iterations " + powerIterations);
+        }
+        this.A = A;
+        this.floatA = floatA;
+        this.m = m;
+        this.n = n;
+        this.oversampling = oversampling;
+        this.powerIterations = powerIterations;
+        random = new Random(RANDOM_SEED);
+        basis = new double[0][];
+        projected = new double[0][];
+        s = new double[0];
+        U = new DenseMatrix(m, 0);
+        VTransposed = new DenseMatrix(0, n);
+        ensureRank(rank, callback);
+    }
+
+    /** Grows the decomposition so that at least the leading rank singular triplets are
+     * available and accurate. Does nothing if this is already the case.
+     * @param rank The required rank, will be limited by min(m,n). If the basis would grow
+     *             beyond half of min(m,n) the exact decomposition is computed.
+     * @param callback Optional callback that can cancel the computation, if cancelled the
+     *                 decomposition stays as it was.
+     * @return If the decomposition now offers the requested rank.
+     * @exception IllegalArgumentException If the rank is negative.
+     */
+    public boolean ensureRank(int rank, SingularValueDecomposition.ProgressCallback callback) {
+        if (rank < 0) {
+            throw new IllegalArgumentException("Negative rank " + rank);
+        }
+        rank = Math.min(rank, getMaxRank());
+        if (rank <= rank() || complete) {
+            return true;
+        }
+        final int maxSize = Math.min(m, n);
+        int targetSize = Math.min(maxSize, Math.max(rank + oversampling, basisSize +
+                MIN_BLOCK_SIZE));
+        if (targetSize > FULL_DECOMPOSITION_FRACTION * maxSize) {
+            if (!decomposeFully(callback)) {
+                return false;
+            }
+            onProgress(callback, PercentProgressListener.PROGRESS_COMPLETE);
+            return true;
+        }
+        double[][] block = findRange(targetSize - basisSize, callback);
+        if (block == null) {
+            return false;
+        }
+        appendBasis(block);
+        if (basisSize < targetSize) {
+            // no new directions were found anymore
+            complete = true;
+        }
+        if (block.length > 0) {
+            decomposeProjected();
+        }
+        onProgress(callback, PercentProgressListener.PROGRESS_COMPLETE);
+        return true;
+    }
+
+    // returns new orthonormal vectors in the range of A that are orthogonal to the current basis
+    private double[][] findRange(int blockSize, SingularValueDecomposition.ProgressCallback callback) {
+        final int steps = 2 * powerIterations + 2;
+        int step = 0;
+        double[][] test = new double[blockSize][n];
+        for (double[] column : test) {
+            for (int j = 0; j < n; j++) {
+                column[j] = random.nextGaussian();
+            }
+        }
+        double[][] range = orthonormalize(times(test), basis, basisSize);
+        onProgress(callback, PercentProgressListener.PROGRESS_COMPLETE * ++step / steps);
+        for (int iteration = 0; iteration < powerIterations; iteration++) {
+            if (isCancelled(callback)) {
+                return null;
+            }
+            double[][] coRange = orthonormalize(transposeTimes(range), null, 0);
+            onProgress(callback, PercentProgressListener.PROGRESS_COMPLETE * ++step / steps);
+            if (isCancelled(callback)) {
+                return null;
+            }
+            range = orthonormalize(times(coRange), basis, basisSize);
+            onProgress(callback, PercentProgressListener.PROGRESS_COMPLETE * ++step / steps);
+        }
+        return isCancelled(callback) ? null : range;
+    }
+
+    private void appendBasis(double[][] block) {
+        double[][] newProjected = transposeTimes(block);
+        double[][] newBasis = new double[basisSize + block.length][];
+        System.arraycopy(basis, 0, newBasis, 0, basisSize);
+        System.arraycopy(block, 0, newBasis, basisSize, block.length);
+        double[][] allProjected = new double[basisSize + block.length][];
+        System.arraycopy(projected, 0, allProjected, 0, basisSize);
+        System.arraycopy(newProjected, 0, allProjected, basisSize, block.length);
+        basis = newBasis;
+        projected = allProjected;
+        basisSize = newBasis.length;
+    }
+
+    // decomposes B' = Ub*S*Vb' which is n-by-basisSize, then A ~ Q*B = (Q*Vb)*S*Ub'
+    private void decomposeProjected() {
+        final int l = basisSize;
+        Matrix transposedProjected = new Matrix(n, l);
+        double[][] Bt = transposedProjected.getArray();
+        for (int c = 0; c < l; c++) {
+            double[] row = projected[c];
+            for (int j = 0; j < n; j++) {
+                Bt[j][c] = row[j];
+            }
+        }
+        SingularValueDecomposition small = new SingularValueDecomposition(transposedProjected,
+                null);
+        double[][] Ub = small.getU().getArray();
+        double[][] Vb = small.getV().getArray();
+        double[] values = small.getSingularValues();
+        s = new double[l];
+        System.arraycopy(values, 0, s, 0, Math.min(l, values.length));
+
+        VTransposed = new DenseMatrix(l, n);
+        for (int j = 0; j < n; j++) {
+            double[] Ubj = Ub[j];
+            for (int k = 0; k < l; k++) {
+                VTransposed.set(k, j, Ubj[k]);
+            }
+        }
+        double[] Ua = new double[m * l];
+        for (int i = 0; i < m; i++) {
+            final int rowU = i * l;
+            for (int c = 0; c < l; c++) {
+                double q = basis[c][i];
+                if (q != 0.) {
+                    double[] Vbc = Vb[c];
+                    for (int k = 0; k < l; k++) {
+                        Ua[rowU + k] += q * Vbc[k];
+                    }
+                }
+            }
+        }
+        U = new DenseMatrix(Ua, m, l);
+    }
+
+    // replaces the basis by the exact decomposition, returns false if cancelled
+    private boolean decomposeFully(SingularValueDecomposition.ProgressCallback callback) {
+        // the exact decomposition needs at least as many rows as columns
+        final boolean transposed = m < n;
+        final int k = Math.min(m, n);
+        Matrix copy = transposed ? new Matrix(n, m) : new Matrix(m, n);
+        double[][] C = copy.getArray();
+        double[] buffer = floatA != null ? new double[n] : null;
+        for (int i = 0; i < m; i++) {
+            final double[] row = floatA != null ? floatA.getRow(i, buffer) : A;
+            final int rowA = floatA != null ? 0 : i * n;
+            for (int j = 0; j < n; j++) {
+                if (transposed) {
+                    C[j][i] = row[rowA + j];
+                } else {
+                    C[i][j] = row[rowA + j];
+                }
+            }
+        }
+        SingularValueDecomposition full = new SingularValueDecomposition(copy, callback);
+        if (isCancelled(callback)) {
+            return false;
+        }
+        // for A' = Uf*S*Vf' it is A = Vf*S*Uf'
+        double[][] left = transposed ? full.getV().getArray() : full.getU().getArray();
+        double[][] right = transposed ? full.getU().getArray() : full.getV().getArray();
+        double[] values = full.getSingularValues();
+        s = new double[k];
+        System.arraycopy(values, 0, s, 0, Math.min(k, values.length));
+        double[] Ua = new double[m * k];
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(left[i], 0, Ua, i * k, k);
+        }
+        U = new DenseMatrix(Ua, m, k);
+        VTransposed = new DenseMatrix(k, n);
+        for (int j = 0; j < n; j++) {
+            double[] rightRow = right[j];
+            for (int c = 0; c < k; c++) {
+                VTransposed.set(c, j, rightRow[c]);
+            }
+        }
+        basis = new double[0][];
+        projected = new double[0][];
+        basisSize = k;
+        complete = true;
+        return true;
+    }
+
+    // columns given as rows of length n, returns A*X as columns of length m
+    private double[][] times(double[][] columns) {
+        double[][] result = new double[columns.length][m];
+        double[] buffer = floatA != null ? new double[n] : null;
+        for (int i = 0; i < m; i++) {
+            final double[] row = floatA != null ? floatA.getRow(i, buffer) : A;
+            final int rowA = floatA != null ? 0 : i * n;
+            for (int c = 0; c < columns.length; c++) {
+                double[] x = columns[c];
+                double sum = 0.;
+                for (int j = 0; j < n; j++) {
+                    sum += row[rowA + j] * x[j];
+                }
+                result[c][i] = sum;
+            }
+        }
+        return result;
+    }
+
+    // columns given as rows of length m, returns A'*Y as columns of length n
+    private double[][] transposeTimes(double[][] columns) {
+        double[][] result = new double[columns.length][n];
+        double[] buffer = floatA != null ? new double[n] : null;
+        for (int i = 0; i < m; i++) {
+            final double[] row = floatA != null ? floatA.getRow(i, buffer) : A;
+            final int rowA = floatA != null ? 0 : i * n;
+            for (int c = 0; c < columns.length; c++) {
+                double weight = columns[c][i];
+                if (weight != 0.) {
+                    double[] z = result[c];
+                    for (int j = 0; j < n; j++) {
+                        z[j] += weight * row[rowA + j];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Orthonormalizes the given vectors against the first fixedCount fixed orthonormal vectors
+     and against each other by twice applied Gram-Schmidt. Dependent vectors are dropped. */
+    private static double[][] orthonormalize(double[][] vectors, double[][] fixed, int fixedCount) {
+        double[][] result = new double[vectors.length][];
+        int count = 0;
+        for (double[] v : vectors) {
+            double originalNorm = norm(v);
+            if (originalNorm == 0.) {
+                continue;
+            }
+            for (int pass = 0; pass < 2; pass++) {
+                for (int k = 0; k < fixedCount; k++) {
+                    subtractProjection(v, fixed[k]);
+                }
+                for (int k = 0; k < count; k++) {
+                    subtractProjection(v, result[k]);
+                }
+            }
+            double norm = norm(v);
+            if (norm > DEPENDENCY_TOLERANCE * originalNorm) {
+                for (int i = 0; i < v.length; i++) {
+                    v[i] /= norm;
+                }
+                result[count++] = v;
+            }
+        }
+        if (count < result.length) {
+            double[][] shrunk = new double[count][];
+            System.arraycopy(result, 0, shrunk, 0, count);
+            return shrunk;
+        }
+        return result;
+    }
+
+    private static void subtractProjection(double[] v, double[] unit) {
+        double dot = 0.;
+        for (int i = 0; i < v.length; i++) {
+            dot += v[i] * unit[i];
+        }
+        for (int i = 0; i < v.length; i++) {
+            v[i] -= dot * unit[i];
+        }
+    }
+
+    private static double norm(double[] v) {
+        double sum = 0.;
+        for (double value : v) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static boolean isCancelled(SingularValueDecomposition.ProgressCallback callback) {
+        return callback != null && callback.isCancelled();
+    }
+
+    private static void onProgress(SingularValueDecomposition.ProgressCallback callback, int
+            progress) {
+        if (callback != null) {
+            callback.onProgressUpdate(progress);
+        }
+    }
+
+    /** The largest rank this decomposition can offer. Once the decomposition is exact this
+     is the effective numerical rank of A like {@link SingularValueDecomposition#rank()}.
+     @return min(m,n) or the numerical rank if known.
+     */
+    public int getMaxRank() {
+        if (!complete || s.length == 0) {
+            return Math.min(m, n);
+        }
+        double tol = Math.max(m, n) * s[0] * Math.pow(2.0, -52.0);
+        int r = 0;
+        for (double value : s) {
+            if (value > tol) {
+                r++;
+            }
+        }
+        return r;
+    }
+
+    /** The rank whose leading singular triplets are accurate. This is smaller than the
+     amount of computed triplets unless the basis covers the whole range of A.
+     @return The accurate rank.
+     */
+    public int rank() {
+        if (complete || basisSize >= getMaxRank()) {
+            return basisSize;
+        }
+        return Math.max(0, basisSize - oversampling);
+    }
+
+    /** Return the one-dimensional array of computed singular values
+     @return     diagonal of S.
+     */
+    public double[] getSingularValues() {
+        return s;
+    }
+
+    /** Return the left singular vectors
+     @return     U, m-by-k
+     */
+    public DenseMatrix getU() {
+        return U;
+    }
+
+    /** Return the transposed right singular vectors
+     @return     V', k-by-n
+     */
+    public DenseMatrix getVTransposed() {
+        return VTransposed;
+    }
+
+    /** Returns the best approximation of A with the given rank, computing more singular
+     triplets if required.
+     @param rank The rank of the approximation.
+     @param parallelism Amount of threads to use for the final multiplication.
+     @param callback Optional callback that can cancel the computation.
+     @return U*S*V' restricted to the leading rank singular triplets or null if cancelled.
+     */
+    public DenseMatrix getRankApproximation(int rank, int parallelism, SingularValueDecomposition
+            .ProgressCallback callback) {
+        if (!ensureRank(rank, callback)) {
+            return null;
+        }
+        return U.diagTimes(s, rank, VTransposed, parallelism);
+    }
+
+    /** Moves an approximation of A from one rank to another in place. Only the singular triplets
+     between both ranks are added or subtracted, which is much cheaper than multiplying all
+     leading triplets again if the ranks are close. If more triplets need to be computed all
+     triplets change and the approximation is built again.
+     @param approximation A row-major m-by-n matrix holding U*S*V' restricted to the leading
+     fromRank singular triplets, like returned by a previous call. A matrix of zeros for rank 0.
+     @param fromRank The current rank of the approximation.
+     @param toRank The wanted rank.
+     @param parallelism Amount of threads to use for the multiplication.
+     @param callback Optional callback that can cancel the computation.
+     @return The rank of the updated approximation which is smaller than toRank if there are
+     not as many singular values, or -1 if cancelled and the approximation is unchanged.
+     @exception IllegalArgumentException If the approximation does not have the dimension of A.
+     */
+    public int updateRankApproximation(DenseMatrix approximation, int fromRank, int toRank, int
+            parallelism, SingularValueDecomposition.ProgressCallback callback) {
+        if (approximation.getRowDimension() != m || approximation.getColumnDimension() != n) {
+            throw new IllegalArgumentException("Approximation must be " + m + "x" + n);
+        }
+        DenseMatrix previousU = U;
+        if (!ensureRank(toRank, callback)) {
+            return -1;
+        }
+        toRank = Math.min(toRank, s.length);
+        if (U != previousU || Math.abs(toRank - fromRank) > toRank) {
+            // triplets changed or the difference needs more work than starting from scratch
+            approximation.timesEquals(0.);
+            fromRank = 0;
+        }
+        if (toRank > fromRank) {
+            approximation.plusEqualsDiagTimes(U, s, fromRank, toRank, 1., VTransposed,
+                    parallelism);
+        } else if (toRank < fromRank) {
+            approximation.plusEqualsDiagTimes(U, s, toRank, fromRank, -1., VTransposed,
+                    parallelism);
+        }
+        return toRank;
+    }
+
+    private static final long serialVersionUID = 1;
+}
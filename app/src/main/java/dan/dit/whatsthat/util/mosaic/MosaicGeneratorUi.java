@@ -46,10 +46,8 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import dan.dit.whatsthat.R;
-import dan.dit.whatsthat.image.Image;
 import dan.dit.whatsthat.image.ImageBitmapSource;
 import dan.dit.whatsthat.system.RiddleFragment;
 import dan.dit.whatsthat.system.store.WorkshopView;
@@ -58,9 +56,14 @@ import dan.dit.whatsthat.util.general.VersionSafe;
 import dan.dit.whatsthat.util.image.BitmapUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
 import dan.dit.whatsthat.util.image.Dimension;
+import dan.dit.whatsthat.util.image.ExternalStorage;
 import dan.dit.whatsthat.util.image.ImageUtil;
+import dan.dit.whatsthat.util.mosaic.data.BitmapSource;
 import dan.dit.whatsthat.util.mosaic.data.MosaicMaker;
-import dan.dit.whatsthat.util.mosaic.matching.SimpleLinearTileMatcher;
+import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
+import dan.dit.whatsthat.util.mosaic.data.TileIndex;
+import dan.dit.whatsthat.util.mosaic.data.TileLibrary;
+import dan.dit.whatsthat.util.mosaic.matching.KdTreeTileMatcher;
 import dan.dit.whatsthat.util.mosaic.matching.TileMatcher;
 import dan.dit.whatsthat.util.mosaic.reconstruction.pattern.CirclePatternReconstructor;
 import dan.dit.whatsthat.util.mosaic.reconstruction.pattern.LegoPatternReconstructor;
@@ -73,6 +76,12 @@ public class MosaicGeneratorUi {
     private static final double MAX_ROWS_COLUMNS = 100;
     private static final ColorMetric DEFAULT_COLOR_METRIC = ColorMetric.Euclid2.INSTANCE;
     private static final boolean DEFAULT_USE_ALPHA = true;
+    // the lookup table holds 2^(3*bits) or with alpha 2^(4*bits) precomputed matches
+    private static final int LOOKUP_TABLE_BITS = 6;
+    private static final int LOOKUP_TABLE_BITS_ALPHA = 4;
+    // users can put their own pictures into this directory to use them as tiles
+    private static final String TILE_LIBRARY_DIRECTORY_NAME = "mosaic";
+    private static final String TILE_LIBRARY_INDEX_FILE_NAME = "mosaic_tiles.index";
     private static final int MAX_IMAGE_WIDTH_HEIGHT = 1024; // else we run into out of memory
     // errors really quick since most cameras produce high resolution images and we only get
     // around 50mb ram from JVM by default
@@ -97,6 +106,8 @@ public class MosaicGeneratorUi {
     private CheckBox mParameterUseAlpha;
     private Spinner mParameterColorMetric;
 
+    private final ImageBitmapSource mImageSource;
+    private final TileLibrary mTileLibrary;
     private MosaicMaker<String> mMosaicMaker;
     private int mIgnoreParameterChange;
     private AsyncTask<Void, Integer, Bitmap> mMosaicTask;
@@ -110,10 +121,18 @@ public class MosaicGeneratorUi {
         mActivity = activity;
         mSVDLastRank = -1;
 
-        Map<String, Image> images = RiddleFragment.ALL_IMAGES;
-        ImageBitmapSource source = new ImageBitmapSource(mActivity.getResources(), images);
-        TileMatcher<String> matcher = new SimpleLinearTileMatcher<>(images.values(), DEFAULT_USE_ALPHA, DEFAULT_COLOR_METRIC);
-        mMosaicMaker = new MosaicMaker<>(matcher, source, DEFAULT_USE_ALPHA, DEFAULT_COLOR_METRIC);
+        mImageSource = new ImageBitmapSource(mActivity, RiddleFragment.ALL_IMAGES);
+        String libraryPath = ExternalStorage.getExternalStoragePathIfMounted(TILE_LIBRARY_DIRECTORY_NAME);
+        if (libraryPath != null) {
+            // only maps the index, the tiles are ready without decoding the library's pictures
+            mTileLibrary = new TileLibrary(new File(libraryPath), new File(mActivity.getCacheDir(),
+                    TILE_LIBRARY_INDEX_FILE_NAME));
+        } else {
+            mTileLibrary = null;
+        }
+        mMosaicMaker = makeMosaicMaker(DEFAULT_USE_ALPHA, DEFAULT_COLOR_METRIC);
+        applyLookupTable();
+        updateTileLibrary();
 
         mTypes = new ArrayList<>(10);
         mTypes.add(new MosaicType(MosaicType.RECT, R.string.mosaic_generator_mosaic_type_rect, true, true)
@@ -225,7 +244,10 @@ public class MosaicGeneratorUi {
         mParameterUseAlpha.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                // disable the table first, else it is rebuilt for alpha with too many bits
+                mMosaicMaker.setLookupTableMatches(0);
                 mMosaicMaker.setUseAlpha(isChecked);
+                applyLookupTable();
                 onParameterChanged(true);
             }
         });
@@ -283,6 +305,64 @@ public class MosaicGeneratorUi {
         applyShare();
     }
 
+    private MosaicMaker<String> makeMosaicMaker(boolean useAlpha, ColorMetric metric) {
+        List<MosaicTile<String>> tiles = new ArrayList<MosaicTile<String>>(RiddleFragment
+                .ALL_IMAGES.values());
+        BitmapSource<String> source = mImageSource;
+        if (mTileLibrary != null) {
+            tiles.addAll(mTileLibrary.getTiles());
+            final BitmapSource<String> librarySource = mTileLibrary.makeBitmapSource();
+            source = new BitmapSource<String>() {
+                @Override
+                public Bitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+                    // library tiles are identified by their path, images by their hash
+                    if (forTile instanceof TileIndex.Tile) {
+                        return librarySource.getBitmap(forTile, requiredWidth, requiredHeight);
+                    }
+                    return mImageSource.getBitmap(forTile, requiredWidth, requiredHeight);
+                }
+            };
+        }
+        TileMatcher<String> matcher = new KdTreeTileMatcher<>(tiles, useAlpha, metric);
+        MosaicMaker<String> maker = new MosaicMaker<>(matcher, source, useAlpha, metric);
+        maker.setParallelism(Runtime.getRuntime().availableProcessors());
+        Log.d("HomeStuff", "Made mosaic maker with " + tiles.size() + " tiles.");
+        return maker;
+    }
+
+    private void updateTileLibrary() {
+        if (mTileLibrary == null) {
+            return;
+        }
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                File directory = mTileLibrary.getDirectory();
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    Log.e("HomeStuff", "Could not create tile library directory " + directory);
+                    return false;
+                }
+                return mTileLibrary.update(null);
+            }
+
+            @Override
+            public void onPostExecute(Boolean changed) {
+                if (changed) {
+                    mMosaicMaker = makeMosaicMaker(mMosaicMaker.usesAlpha(), mMosaicMaker
+                            .getColorMetric());
+                    applyLookupTable();
+                }
+            }
+        }.execute();
+    }
+
+    private void applyLookupTable() {
+        int bits = mMosaicMaker.usesAlpha() ? LOOKUP_TABLE_BITS_ALPHA : LOOKUP_TABLE_BITS;
+        if (!mMosaicMaker.setLookupTableMatches(bits)) {
+            Log.d("HomeStuff", "Lookup table with " + bits + " bits too big, matching directly.");
+        }
+    }
+
     private void applyShare() {
         mShare.setEnabled(mMosaicFile != null);
     }
@@ -456,7 +536,9 @@ public class MosaicGeneratorUi {
                 public void onPreExecute() {
                     mWorkingIndicator.setVisibility(View.VISIBLE);
                     mProgress.onProgressUpdate(0);
-                    ImageUtil.CACHE.makeReusable(mMosaicBitmap);
+                    if (mSVDMaker == null || !mSVDMaker.isPreviewBitmap(mMosaicBitmap)) {
+                        ImageUtil.CACHE.makeReusable(mMosaicBitmap);
+                    }
                     mMosaicImageView.setImageBitmap(mSelectedBitmap);
                     mMosaicBitmap = null;
                     mMosaicBitmapName = null;
@@ -534,6 +616,11 @@ public class MosaicGeneratorUi {
                             case SVD:
                                 if (mSVDMaker == null) {
                                     mSVDMaker = new SVDMaker(base, SVDMaker.MODE_ARGB_BITMAP, callback);
+                                    mSVDMaker.setParallelism(Runtime.getRuntime()
+                                            .availableProcessors());
+                                    // the slider moves through the ranks, only add or
+                                    // subtract the difference to the last rank
+                                    mSVDMaker.setIncremental(true);
                                 }
                                 // use a logarithmic scale as the interesting effects appear in
                                 // the higher value regions
@@ -549,7 +636,7 @@ public class MosaicGeneratorUi {
                                     wantedRank = Math.max(1, wantedRank);
                                 }
                                 if (mMosaicBitmap == null || mSVDLastRank != wantedRank) {
-                                    result = mSVDMaker.getRankApproximation(wantedRank);
+                                    result = mSVDMaker.getRankApproximation(wantedRank, callback);
                                     if (result != null) {
                                         mSVDLastRank = wantedRank;
                                     }
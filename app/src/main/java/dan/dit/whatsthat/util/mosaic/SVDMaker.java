@@ -6,10 +6,12 @@ import android.util.Log;
 import dan.dit.whatsthat.util.general.PercentProgressListener;
 import dan.dit.whatsthat.util.mosaic.bitmapMatrix.ARGBMatrix;
 import dan.dit.whatsthat.util.mosaic.bitmapMatrix.BitmapMatrix;
+import dan.dit.whatsthat.util.mosaic.bitmapMatrix.ChannelBitmap;
 import dan.dit.whatsthat.util.mosaic.bitmapMatrix.IndexedBitmap;
 import dan.dit.whatsthat.util.mosaic.bitmapMatrix.SplitArgbBitmap;
-import dan.dit.whatsthat.util.jama.Matrix;
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.SingularValueDecomposition;
+import dan.dit.whatsthat.util.jama.TruncatedSingularValueDecomposition;
 import dan.dit.whatsthat.util.mosaic.bitmapMatrix.SplitRgbBitmap;
 import dan.dit.whatsthat.util.mosaic.data.MosaicMaker;
 
@@ -21,19 +23,38 @@ public class SVDMaker {
     public static final int MODE_INDEXED_BITMAP = 2;
     public static final int MODE_ARGB_SPLIT = 3;
     public static final int MODE_RGB_SPLIT = 4;
-    private final double[] mSingularValues;
-    private final Matrix mU;
-    private final Matrix mVTransposed;
+    /**
+     * Decomposes each channel on its own in single precision, needs far less memory than the
+     * split modes.
+     */
+    public static final int MODE_ARGB_CHANNELS = 5;
+    public static final int MODE_RGB_CHANNELS = 6;
+    /**
+     * The rank computed initially, larger ranks are computed incrementally when requested.
+     */
+    public static final int INITIAL_RANK = 32;
+    // one decomposition for each channel of a ChannelBitmap, else exactly one
+    private final TruncatedSingularValueDecomposition[] mDecompositions;
     private BitmapMatrix mBitmapMatrix;
     private int mMode;
-    private final int mRank;
+    private int mParallelism = 1;
+    // incremental mode: the current approximation of each decomposition and its rank
+    private boolean mIncremental;
+    private DenseMatrix[] mApproximations;
+    private int[] mApproximationRanks;
+    private Bitmap mPreview;
 
     public SVDMaker(Bitmap base, int mode, final MosaicMaker.ProgressCallback
             callback) {
         mMode = mode;
-        Matrix sourceMatrix;
         callback.onProgressUpdate(5);
         switch (mMode) {
+            case MODE_ARGB_CHANNELS:
+                mBitmapMatrix = new ChannelBitmap(base, true);
+                break;
+            case MODE_RGB_CHANNELS:
+                mBitmapMatrix = new ChannelBitmap(base, false);
+                break;
             case MODE_INDEXED_BITMAP:
                 mBitmapMatrix = new IndexedBitmap(base);
                 break;
@@ -50,41 +71,152 @@ public class SVDMaker {
                 mBitmapMatrix = new ARGBMatrix(base);
                 break;
         }
-        sourceMatrix = mBitmapMatrix.getMatrix();
         callback.onProgressUpdate(25);
 
-        SingularValueDecomposition decomposition = new SingularValueDecomposition(sourceMatrix,
-                new SingularValueDecomposition.ProgressCallback() {
-
-                    @Override
-                    public boolean isCancelled() {
-                        return callback.isCancelled();
-                    }
-
-                    @Override
-                    public void onProgressUpdate(int progress) {
-                        callback.onProgressUpdate(25 + (int) (progress / (double)
-                                PercentProgressListener
-                                .PROGRESS_COMPLETE * 55));
-                    }
-                });
+        if (mBitmapMatrix instanceof ChannelBitmap) {
+            ChannelBitmap channels = (ChannelBitmap) mBitmapMatrix;
+            final int count = channels.getChannelCount();
+            mDecompositions = new TruncatedSingularValueDecomposition[count];
+            for (int channel = 0; channel < count; channel++) {
+                channels.selectChannel(channel);
+                mDecompositions[channel] = new TruncatedSingularValueDecomposition(channels
+                        .getChannelMatrix(), INITIAL_RANK, wrapCallback(callback,
+                        25 + 55 * channel / count, 25 + 55 * (channel + 1) / count));
+            }
+        } else {
+            mDecompositions = new TruncatedSingularValueDecomposition[] {
+                    new TruncatedSingularValueDecomposition(mBitmapMatrix.getDenseMatrix(),
+                            INITIAL_RANK, wrapCallback(callback, 25, 80))};
+        }
         callback.onProgressUpdate(80);
-        mRank = decomposition.rank();
-        mSingularValues = decomposition.getSingularValues();
-        mU = decomposition.getU();
-        mVTransposed = decomposition.getV().transpose();
+    }
+
+    private static SingularValueDecomposition.ProgressCallback wrapCallback(final MosaicMaker
+            .ProgressCallback callback, final int startProgress, final int endProgress) {
+        if (callback == null) {
+            return null;
+        }
+        return new SingularValueDecomposition.ProgressCallback() {
+
+            @Override
+            public boolean isCancelled() {
+                return callback.isCancelled();
+            }
+
+            @Override
+            public void onProgressUpdate(int progress) {
+                callback.onProgressUpdate(startProgress + (int) (progress / (double)
+                        PercentProgressListener.PROGRESS_COMPLETE * (endProgress - startProgress)));
+            }
+        };
+    }
+
+    /**
+     * Sets the amount of threads used to multiply the singular vectors for an approximation.
+     * @param threads The amount of threads, at least 1.
+     */
+    public void setParallelism(int threads) {
+        mParallelism = Math.max(1, threads);
+    }
+
+    /**
+     * Enables or disables the incremental mode. In incremental mode the current approximation of
+     * each decomposition is kept, so moving from rank k to another rank k' only adds or
+     * subtracts the |k-k'| singular triplets in between. The approximation is written into the
+     * same preview bitmap every time, which makes scrubbing through the ranks interactive.<br>
+     * This keeps a matrix of the full bitmap size for each decomposition in memory, for the
+     * channel modes this is one for each channel.
+     * @param incremental If the incremental mode is used.
+     */
+    public void setIncremental(boolean incremental) {
+        mIncremental = incremental;
+        if (!incremental) {
+            mApproximations = null;
+            mApproximationRanks = null;
+            mPreview = null;
+        }
+    }
+
+    /**
+     * Checks if the given bitmap is the preview bitmap of the incremental mode. This bitmap is
+     * overwritten by the next approximation and must not be recycled or reused elsewhere.
+     * @param bitmap The bitmap to check.
+     * @return If the bitmap is owned by this SVDMaker.
+     */
+    public boolean isPreviewBitmap(Bitmap bitmap) {
+        return bitmap != null && bitmap == mPreview;
     }
 
     public int getMaxRank() {
-        return mRank;
+        return mDecompositions[0].getMaxRank();
     }
 
     public Bitmap getRankApproximation(int rank) {
+        return getRankApproximation(rank, null);
+    }
 
-        Log.d("HomeStuff", "SVD Maker getting rank " + rank + " approximation for mode " + mMode);
-        Matrix resultMatrix = mU.diagTimes(mSingularValues, rank, mVTransposed);
+    /**
+     * Returns the approximation of the base bitmap with the given rank. If the rank is larger
+     * than any rank requested before, more singular values are computed first. In incremental
+     * mode the returned bitmap is the preview bitmap which is updated by the next call.
+     * @param rank The rank of the approximation.
+     * @param callback Optional callback to cancel and report progress of computing more
+     *                 singular values.
+     * @return The approximation or null if cancelled.
+     */
+    public Bitmap getRankApproximation(int rank, MosaicMaker.ProgressCallback callback) {
 
-        mBitmapMatrix.updateMatrix(resultMatrix);
+        Log.d("HomeStuff", "SVD Maker getting rank " + rank + " approximation for mode " + mMode);
+        if (mIncremental) {
+            return getIncrementalApproximation(rank, callback);
+        }
+        final int count = mDecompositions.length;
+        for (int index = 0; index < count; index++) {
+            // for channels only one approximated channel matrix is held at a time
+            DenseMatrix resultMatrix = mDecompositions[index].getRankApproximation(rank,
+                    mParallelism, wrapCallback(callback, 90 * index / count,
+                            90 * (index + 1) / count));
+            if (resultMatrix == null) {
+                return null;
+            }
+            if (mBitmapMatrix instanceof ChannelBitmap) {
+                ((ChannelBitmap) mBitmapMatrix).selectChannel(index);
+            }
+            mBitmapMatrix.updateMatrix(resultMatrix);
+        }
         return mBitmapMatrix.convertToBitmap();
     }
+
+    private Bitmap getIncrementalApproximation(int rank, MosaicMaker.ProgressCallback callback) {
+        final int count = mDecompositions.length;
+        if (mApproximations == null) {
+            mApproximations = new DenseMatrix[count];
+            mApproximationRanks = new int[count];
+        }
+        for (int index = 0; index < count; index++) {
+            TruncatedSingularValueDecomposition decomposition = mDecompositions[index];
+            if (mApproximations[index] == null) {
+                mApproximations[index] = new DenseMatrix(decomposition.getU().getRowDimension(),
+                        decomposition.getVTransposed().getColumnDimension());
+            }
+            // ranks are kept per decomposition as a cancelled update leaves the others untouched
+            int reachedRank = decomposition.updateRankApproximation(mApproximations[index],
+                    mApproximationRanks[index], rank, mParallelism, wrapCallback(callback, 90 *
+                            index / count, 90 * (index + 1) / count));
+            if (reachedRank < 0) {
+                return null;
+            }
+            mApproximationRanks[index] = reachedRank;
+            if (mBitmapMatrix instanceof ChannelBitmap) {
+                ((ChannelBitmap) mBitmapMatrix).selectChannel(index);
+            }
+            mBitmapMatrix.updateMatrix(mApproximations[index]);
+        }
+        if (mPreview == null) {
+            mPreview = mBitmapMatrix.convertToBitmap();
+        } else {
+            mBitmapMatrix.convertToBitmap(mPreview);
+        }
+        return mPreview;
+    }
 }
@@ -3,6 +3,8 @@ package dan.dit.whatsthat.util.mosaic.bitmapMatrix;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
+import dan.dit.whatsthat.util.image.PixelRaster;
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.Matrix;
 
 /**
@@ -11,7 +13,7 @@ import dan.dit.whatsthat.util.jama.Matrix;
 public class ARGBMatrix implements BitmapMatrix {
 
     private boolean mTransposeRequired;
-    private Matrix mMatrix;
+    private DenseMatrix mMatrix;
 
     public ARGBMatrix(Bitmap source) {
         if (source == null) {
@@ -24,26 +26,32 @@ public class ARGBMatrix implements BitmapMatrix {
         if (matrix == null) {
             throw new IllegalArgumentException("No matrix given.");
         }
-        mMatrix = matrix;
+        mMatrix = DenseMatrix.fromMatrix(matrix);
     }
 
     private void setMatrix(Bitmap source) {
         mTransposeRequired = source.getWidth() > source.getHeight();
         final int rows = Math.max(source.getWidth(), source.getHeight());
         final int columns = Math.min(source.getWidth(), source.getHeight());
-        Matrix matrix = new Matrix(rows, columns);
-
+        DenseMatrix matrix = new DenseMatrix(rows, columns);
+        PixelRaster raster = PixelRaster.obtain(source);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < columns; x++) {
-                matrix.set(y, x, pixelToValue(source.getPixel(mTransposeRequired ? y : x,
+                matrix.set(y, x, pixelToValue(raster.get(mTransposeRequired ? y : x,
                         mTransposeRequired ? x : y)));
             }
         }
+        raster.release();
         mMatrix = matrix;
     }
 
     @Override
     public boolean updateMatrix(Matrix matrix) {
+        return matrix != null && updateMatrix(DenseMatrix.fromMatrix(matrix));
+    }
+
+    @Override
+    public boolean updateMatrix(DenseMatrix matrix) {
         if (matrix == null) {
             return false;
         }
@@ -80,18 +88,37 @@ public class ARGBMatrix implements BitmapMatrix {
 
     @Override
     public Bitmap convertToBitmap() {
-        Bitmap result = Bitmap.createBitmap(mMatrix.getColumnDimension(), mMatrix.getRowDimension(),
-                Bitmap.Config.ARGB_8888);
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
-                result.setPixel(x, y, valueToPixel(mMatrix.get(y, x)));
+        PixelRaster raster = makeRaster();
+        Bitmap result = raster.toBitmap(Bitmap.Config.ARGB_8888);
+        raster.release();
+        return result;
+    }
+
+    @Override
+    public void convertToBitmap(Bitmap target) {
+        PixelRaster raster = makeRaster();
+        raster.writeTo(target);
+        raster.release();
+    }
+
+    private PixelRaster makeRaster() {
+        PixelRaster raster = PixelRaster.obtain(mMatrix.getColumnDimension(), mMatrix
+                .getRowDimension());
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                raster.set(x, y, valueToPixel(mMatrix.get(y, x)));
             }
         }
-        return result;
+        return raster;
     }
 
     @Override
     public Matrix getMatrix() {
+        return mMatrix.toMatrix();
+    }
+
+    @Override
+    public DenseMatrix getDenseMatrix() {
         return mMatrix;
     }
 }
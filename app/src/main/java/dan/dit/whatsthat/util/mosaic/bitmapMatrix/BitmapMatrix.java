@@ -2,6 +2,7 @@ package dan.dit.whatsthat.util.mosaic.bitmapMatrix;
 
 import android.graphics.Bitmap;
 
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.Matrix;
 
 /**
@@ -11,10 +12,21 @@ import dan.dit.whatsthat.util.jama.Matrix;
  * than columns. If this wouldn't have been the case usually, the method isMatrixTransposed()
  * will return true. Creating a BitmapMatrix container from a matrix should therefore transpose the
  * matrix again before handing it over.
+ * The matrix is held as a {@link DenseMatrix}, transposing it back is then only a view.
+ * The bitmap can either be created anew or written into an existing bitmap, which allows
+ * to show a changing matrix without allocating a bitmap for each change.
  * Created by daniel on 22.10.15.
  */
 public interface BitmapMatrix {
     Bitmap convertToBitmap();
+    /**
+     * Writes the pixels of the bitmap represented by the current matrix into the given bitmap.
+     * @param target A mutable bitmap with the same dimension as created by convertToBitmap().
+     * @throws IllegalArgumentException If the dimension does not fit.
+     */
+    void convertToBitmap(Bitmap target);
     boolean updateMatrix(Matrix matrix);
+    boolean updateMatrix(DenseMatrix matrix);
     Matrix getMatrix();
+    DenseMatrix getDenseMatrix();
 }
@@ -0,0 +1,139 @@
+package dan.dit.whatsthat.util.mosaic.bitmapMatrix;
+
+import android.graphics.Bitmap;
+
+import dan.dit.whatsthat.util.jama.DenseMatrix;
+import dan.dit.whatsthat.util.jama.FloatMatrix;
+import dan.dit.whatsthat.util.jama.Matrix;
+
+/**
+ * A BitmapMatrix that offers the color channels of a bitmap one at a time instead of
+ * stacking them into one big matrix like SplitArgbBitmap or SplitRgbBitmap do. Only the pixels
+ * are kept, the matrix of the selected channel is created on demand in single precision which
+ * is exact for the 8 bit channel values.<br>
+ * Updating the matrix only updates the selected channel of the resulting bitmap, so each channel
+ * can be processed and released before the next one is created.
+ */
+public class ChannelBitmap implements BitmapMatrix {
+    private static final int[] CHANNEL_SHIFTS = new int[] {16, 8, 0, 24}; // red, green, blue, alpha
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixels;
+    private final int[] mResultPixels;
+    private final boolean mTransposeRequired;
+    private final int mChannelCount;
+    private int mChannel;
+
+    /**
+     * Creates a new ChannelBitmap for the given bitmap.
+     * @param source The bitmap to split into channels.
+     * @param useAlpha If the alpha channel is offered as the fourth channel. Else the alpha values
+     *                 of the source are kept untouched.
+     */
+    public ChannelBitmap(Bitmap source, boolean useAlpha) {
+        if (source == null) {
+            throw new IllegalArgumentException("No bitmap source given.");
+        }
+        mWidth = source.getWidth();
+        mHeight = source.getHeight();
+        mPixels = new int[mWidth * mHeight];
+        source.getPixels(mPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+        mResultPixels = new int[mPixels.length];
+        System.arraycopy(mPixels, 0, mResultPixels, 0, mPixels.length);
+        mTransposeRequired = mWidth > mHeight;
+        mChannelCount = useAlpha ? 4 : 3;
+    }
+
+    /**
+     * Returns the amount of channels, 4 if alpha is used, else 3.
+     * @return The amount of channels.
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Selects the channel the matrix methods refer to. Channels are red, green, blue and
+     * optionally alpha in this order.
+     * @param channel The channel index, smaller than getChannelCount().
+     */
+    public void selectChannel(int channel) {
+        if (channel < 0 || channel >= mChannelCount) {
+            throw new IllegalArgumentException("Illegal channel " + channel);
+        }
+        mChannel = channel;
+    }
+
+    /**
+     * Creates the matrix of the selected channel. The matrix has more rows than columns.
+     * @return A new matrix holding the values of the selected channel of the source.
+     */
+    public FloatMatrix getChannelMatrix() {
+        final int shift = CHANNEL_SHIFTS[mChannel];
+        final int rows = Math.max(mWidth, mHeight);
+        final int columns = Math.min(mWidth, mHeight);
+        float[] values = new float[rows * columns];
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++) {
+                int index = mTransposeRequired ? x * columns + y : y * columns + x;
+                values[index] = (mPixels[y * mWidth + x] >>> shift) & 0xFF;
+            }
+        }
+        return new FloatMatrix(values, rows, columns);
+    }
+
+    @Override
+    public DenseMatrix getDenseMatrix() {
+        return getChannelMatrix().toDenseMatrix();
+    }
+
+    @Override
+    public Matrix getMatrix() {
+        return getDenseMatrix().toMatrix();
+    }
+
+    @Override
+    public boolean updateMatrix(Matrix matrix) {
+        return matrix != null && updateMatrix(DenseMatrix.fromMatrix(matrix));
+    }
+
+    @Override
+    public boolean updateMatrix(DenseMatrix matrix) {
+        if (matrix == null) {
+            return false;
+        }
+        if (mTransposeRequired) {
+            matrix = matrix.transpose();
+        }
+        if (matrix.getRowDimension() != mHeight || matrix.getColumnDimension() != mWidth) {
+            return false;
+        }
+        final int shift = CHANNEL_SHIFTS[mChannel];
+        final int mask = ~(0xFF << shift);
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++) {
+                int value = (int) Math.round(matrix.get(y, x));
+                value = value < 255 ? (value > 0 ? value : 0) : 255;
+                int index = y * mWidth + x;
+                mResultPixels[index] = (mResultPixels[index] & mask) | (value << shift);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Bitmap convertToBitmap() {
+        Bitmap result = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        result.setPixels(mResultPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+        return result;
+    }
+
+    @Override
+    public void convertToBitmap(Bitmap target) {
+        if (target.getWidth() != mWidth || target.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Bitmap " + target.getWidth() + "x" + target
+                    .getHeight() + " does not fit " + mWidth + "x" + mHeight);
+        }
+        target.setPixels(mResultPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+    }
+}
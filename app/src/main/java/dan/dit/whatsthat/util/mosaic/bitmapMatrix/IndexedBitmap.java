@@ -22,6 +22,8 @@ import android.util.SparseArray;
 import java.util.ArrayList;
 import java.util.List;
 
+import dan.dit.whatsthat.util.image.PixelRaster;
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.Matrix;
 
 /**
@@ -29,7 +31,7 @@ import dan.dit.whatsthat.util.jama.Matrix;
  */
 public class IndexedBitmap implements BitmapMatrix {
 
-    private Matrix mMatrix;
+    private DenseMatrix mMatrix;
     private List<Integer> mColors;
     private boolean mTransposeRequired;
 
@@ -40,11 +42,11 @@ public class IndexedBitmap implements BitmapMatrix {
     }
 
     public IndexedBitmap(Matrix matrix, List<Integer> colors) {
-        mMatrix = matrix;
-        mColors = colors;
-        if (mMatrix == null || mColors == null) {
+        if (matrix == null || colors == null) {
             throw new IllegalArgumentException("No matrix or colors given.");
         }
+        mMatrix = DenseMatrix.fromMatrix(matrix);
+        mColors = colors;
     }
 
     private void makeIndexedMatrix(Bitmap source) {
@@ -53,11 +55,11 @@ public class IndexedBitmap implements BitmapMatrix {
         mTransposeRequired = source.getWidth() > source.getHeight();
         int columns = Math.min(source.getWidth(), source.getHeight());
         int rows = Math.max(source.getWidth(), source.getHeight());
-        mMatrix = new Matrix(rows, columns);
-
+        mMatrix = new DenseMatrix(rows, columns);
+        PixelRaster raster = PixelRaster.obtain(source);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < columns; x++) {
-                int color = source.getPixel(mTransposeRequired ? y : x, mTransposeRequired ? x : y);
+                int color = raster.get(mTransposeRequired ? y : x, mTransposeRequired ? x : y);
                 Integer index = colorToIndex.get(color);
                 if (index == null) {
                     index = mColors.size();
@@ -67,26 +69,50 @@ public class IndexedBitmap implements BitmapMatrix {
                 mMatrix.set(y, x, index.doubleValue());
             }
         }
+        raster.release();
     }
 
     public Matrix getMatrix() {
+        return mMatrix.toMatrix();
+    }
+
+    public DenseMatrix getDenseMatrix() {
         return mMatrix;
     }
 
     public Bitmap convertToBitmap() {
-        Bitmap result = Bitmap.createBitmap(mMatrix.getColumnDimension(), mMatrix.getRowDimension(), Bitmap.Config.ARGB_8888);
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
+        PixelRaster raster = makeRaster();
+        Bitmap result = raster.toBitmap(Bitmap.Config.ARGB_8888);
+        raster.release();
+        return result;
+    }
+
+    @Override
+    public void convertToBitmap(Bitmap target) {
+        PixelRaster raster = makeRaster();
+        raster.writeTo(target);
+        raster.release();
+    }
+
+    private PixelRaster makeRaster() {
+        PixelRaster raster = PixelRaster.obtain(mMatrix.getColumnDimension(), mMatrix.getRowDimension());
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
                 int index = (int) Math.round(mMatrix.get(y, x));
                 index = Math.max(0, Math.min(index, mColors.size() - 1));
-                result.setPixel(x, y, mColors.get(index));
+                raster.set(x, y, mColors.get(index));
             }
         }
-        return result;
+        return raster;
     }
 
     @Override
     public boolean updateMatrix(Matrix matrix) {
+        return matrix != null && updateMatrix(DenseMatrix.fromMatrix(matrix));
+    }
+
+    @Override
+    public boolean updateMatrix(DenseMatrix matrix) {
         if (matrix == null) {
             return false;
         }
@@ -4,24 +4,27 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.util.Log;
 
+import dan.dit.whatsthat.util.image.PixelRaster;
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.Matrix;
 
 /**
  * Created by daniel on 21.10.15.
  */
 public class SplitArgbBitmap implements BitmapMatrix {
-    private Matrix mMatrix;
+    private DenseMatrix mMatrix;
     private boolean mTransposeRequired;
 
     public SplitArgbBitmap(Bitmap bitmap) {
         mTransposeRequired = bitmap.getWidth() > bitmap.getHeight();
         final int width = Math.min(bitmap.getWidth() * 2, bitmap.getHeight() * 2);
         final int height = Math.max(bitmap.getWidth() * 2, bitmap.getHeight() * 2);
-        Matrix matrix = new Matrix(height, width);
+        DenseMatrix matrix = new DenseMatrix(height, width);
+        PixelRaster raster = PixelRaster.obtain(bitmap);
         for (int i = 0; i < height; i++) {
             Log.d("HomeStuff", "Reached row " + i);
             for (int j = 0; j < width; j++) {
-                final int color = bitmap.getPixel(mTransposeRequired ? i / 2 : j / 2,
+                final int color = raster.get(mTransposeRequired ? i / 2 : j / 2,
                         mTransposeRequired ? j / 2 : i / 2);
                 // if transpose is required, blue and green are swapped as they appear in uneven
                 // rows or columns
@@ -47,34 +50,54 @@ public class SplitArgbBitmap implements BitmapMatrix {
                 }
             }
         }
+        raster.release();
         mMatrix = matrix;
     }
 
     public SplitArgbBitmap(Matrix matrix) {
-        mMatrix = matrix;
         if (matrix == null) {
             throw new IllegalArgumentException("No valid matrix given.");
         }
+        mMatrix = DenseMatrix.fromMatrix(matrix);
     }
 
     public Bitmap convertToBitmap() {
-        Bitmap result = Bitmap.createBitmap(mMatrix.getColumnDimension() / 2, mMatrix
-                .getRowDimension() / 2, Bitmap.Config.ARGB_8888);
+        PixelRaster raster = makeRaster();
+        Bitmap result = raster.toBitmap(Bitmap.Config.ARGB_8888);
+        raster.release();
+        return result;
+    }
+
+    @Override
+    public void convertToBitmap(Bitmap target) {
+        PixelRaster raster = makeRaster();
+        raster.writeTo(target);
+        raster.release();
+    }
+
+    private PixelRaster makeRaster() {
+        PixelRaster raster = PixelRaster.obtain(mMatrix.getColumnDimension() / 2, mMatrix
+                .getRowDimension() / 2);
 
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
                 int color = Color.argb(getColorValue(y * 2 + 1, x * 2 + 1),
                         getColorValue(y * 2, x * 2),
                         getColorValue(y * 2, x * 2 + 1),
                         getColorValue(y * 2 + 1, x * 2));
-                result.setPixel(x, y, color);
+                raster.set(x, y, color);
             }
         }
-        return result;
+        return raster;
     }
 
     @Override
     public boolean updateMatrix(Matrix matrix) {
+        return matrix != null && updateMatrix(DenseMatrix.fromMatrix(matrix));
+    }
+
+    @Override
+    public boolean updateMatrix(DenseMatrix matrix) {
         if (matrix == null) {
             return false;
         }
@@ -91,6 +114,10 @@ public class SplitArgbBitmap implements BitmapMatrix {
     }
 
     public Matrix getMatrix() {
+        return mMatrix.toMatrix();
+    }
+
+    public DenseMatrix getDenseMatrix() {
         return mMatrix;
     }
 
@@ -4,24 +4,27 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.util.Log;
 
+import dan.dit.whatsthat.util.image.PixelRaster;
+import dan.dit.whatsthat.util.jama.DenseMatrix;
 import dan.dit.whatsthat.util.jama.Matrix;
 
 /**
  * Created by daniel on 22.10.15.
  */
 public class SplitRgbBitmap implements BitmapMatrix {
-    private Matrix mMatrix;
+    private DenseMatrix mMatrix;
     private boolean mTransposeRequired;
 
     public SplitRgbBitmap(Bitmap bitmap) {
         mTransposeRequired = bitmap.getWidth() > bitmap.getHeight() * 3;
         final int width = Math.min(bitmap.getWidth(), bitmap.getHeight() * 3);
         final int height = Math.max(bitmap.getWidth(), bitmap.getHeight() * 3);
-        Matrix matrix = new Matrix(height, width);
+        DenseMatrix matrix = new DenseMatrix(height, width);
+        PixelRaster raster = PixelRaster.obtain(bitmap);
         for (int i = 0; i < bitmap.getHeight(); i++) { //
             Log.d("HomeStuff", "Reached row " + i + "/" + height);
             for (int j = 0; j < bitmap.getWidth(); j++) {
-                final int color = bitmap.getPixel(j, i);
+                final int color = raster.get(j, i);
                 if (mTransposeRequired) {
                     int column = i * 3;
                     matrix.set(j, column, Color.red(color));
@@ -35,25 +38,38 @@ public class SplitRgbBitmap implements BitmapMatrix {
                 }
             }
         }
+        raster.release();
         mMatrix = matrix;
     }
 
     public SplitRgbBitmap(Matrix matrix) {
-        mMatrix = matrix;
         if (matrix == null) {
             throw new IllegalArgumentException("No valid matrix given.");
         }
+        mMatrix = DenseMatrix.fromMatrix(matrix);
     }
 
     public Bitmap convertToBitmap() {
-        Bitmap result = mTransposeRequired ?
-                Bitmap.createBitmap(mMatrix.getRowDimension(), mMatrix.getColumnDimension() / 3,
-                        Bitmap.Config.ARGB_8888)
-                : Bitmap.createBitmap(mMatrix.getColumnDimension(), mMatrix
-                    .getRowDimension() / 3, Bitmap.Config.ARGB_8888);
+        PixelRaster raster = makeRaster();
+        Bitmap result = raster.toBitmap(Bitmap.Config.ARGB_8888);
+        raster.release();
+        return result;
+    }
+
+    @Override
+    public void convertToBitmap(Bitmap target) {
+        PixelRaster raster = makeRaster();
+        raster.writeTo(target);
+        raster.release();
+    }
+
+    private PixelRaster makeRaster() {
+        PixelRaster raster = mTransposeRequired ?
+                PixelRaster.obtain(mMatrix.getRowDimension(), mMatrix.getColumnDimension() / 3)
+                : PixelRaster.obtain(mMatrix.getColumnDimension(), mMatrix.getRowDimension() / 3);
 
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
                 int color;
                 if (mTransposeRequired) {
                     color = Color.argb(255,
@@ -66,14 +82,19 @@ public class SplitRgbBitmap implements BitmapMatrix {
                             getColorValue(y * 3 + 1, x),
                             getColorValue(y * 3 + 2, x));
                 }
-                result.setPixel(x, y, color);
+                raster.set(x, y, color);
             }
         }
-        return result;
+        return raster;
     }
 
     @Override
     public boolean updateMatrix(Matrix matrix) {
+        return matrix != null && updateMatrix(DenseMatrix.fromMatrix(matrix));
+    }
+
+    @Override
+    public boolean updateMatrix(DenseMatrix matrix) {
         if (matrix == null) {
             return false;
         }
@@ -90,6 +111,10 @@ public class SplitRgbBitmap implements BitmapMatrix {
     }
 
     public Matrix getMatrix() {
+        return mMatrix.toMatrix();
+    }
+
+    public DenseMatrix getDenseMatrix() {
         return mMatrix;
     }
 }
@@ -20,7 +20,8 @@ import android.graphics.Bitmap;
 /**
  * An interface for a MosaicMaker to provide the actual bitmap in a certain size
  * for a MosaicTile. The source should cache the given bitmap and potentially prepare to give
- * out the same image multiple times in various sizes.
+ * out the same image multiple times in various sizes. A source used by a MosaicMaker that
+ * loads bitmaps in parallel must be thread safe.
  * Created by daniel on 01.07.15.
  */
 public interface BitmapSource<S> {
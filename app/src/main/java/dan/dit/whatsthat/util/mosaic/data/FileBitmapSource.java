@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.mosaic.data;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+
+import dan.dit.whatsthat.util.image.BitmapUtil;
+import dan.dit.whatsthat.util.image.DiskBitmapCache;
+import dan.dit.whatsthat.util.image.ImageUtil;
+
+/**
+ * Provides the bitmaps of tiles whose source is the absolute path of an image file, like the
+ * tiles of a {@link TileIndex}. Loaded bitmaps are kept in the shared memory cache of
+ * {@link ImageUtil#CACHE}. Bitmaps can be requested by multiple threads at once.
+ */
+public class FileBitmapSource implements BitmapSource<String> {
+
+    @Override
+    public Bitmap getBitmap(MosaicTile<String> forTile, int requiredWidth, int requiredHeight) {
+        String path = forTile.getSource();
+        String key = DiskBitmapCache.makeKey(path, requiredWidth, requiredHeight, true);
+        Bitmap result = ImageUtil.CACHE.getSharedBitmap(key);
+        if (result != null) {
+            return result;
+        }
+        result = ImageUtil.loadBitmap(new File(path), requiredWidth, requiredHeight,
+                BitmapUtil.MODE_FIT_EXACT);
+        if (result != null) {
+            ImageUtil.CACHE.putSharedBitmap(key, result);
+        }
+        return result;
+    }
+}
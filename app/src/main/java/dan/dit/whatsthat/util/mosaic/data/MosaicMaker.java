@@ -20,6 +20,14 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import dan.dit.whatsthat.util.general.MultistepPercentProgressListener;
 import dan.dit.whatsthat.util.general.PercentProgressListener;
 import dan.dit.whatsthat.util.image.ColorMetric;
@@ -40,10 +48,12 @@ import dan.dit.whatsthat.util.mosaic.reconstruction.pattern.PatternReconstructor
  * @param <S>
  */
 public class MosaicMaker<S> {
+    private static final int PARALLEL_FRAGMENTS_PER_THREAD = 16;
 	private final BitmapSource<S> mBitmapSource;
 	private TileMatcher<S> mMatcher;
 	private boolean mUseAlpha;
 	private ColorMetric mColorMetric;
+    private int mParallelism = 1;
 
     public interface ProgressCallback extends PercentProgressListener {
         boolean isCancelled();
@@ -80,6 +90,27 @@ public class MosaicMaker<S> {
 		mMatcher.setUseAlpha(useAlpha);
 	}
 
+    /**
+     * Lets the matcher precompute the best matches for all colors quantized to the given
+     * bits per channel, see {@link TileMatcher#setLookupTableMatches(int)}.
+     * @param bitsPerChannel The bits per channel, zero or less to disable the table.
+     * @return If the lookup table is used.
+     */
+    public boolean setLookupTableMatches(int bitsPerChannel) {
+        return mMatcher.setLookupTableMatches(bitsPerChannel);
+    }
+
+    /**
+     * Sets the amount of threads that load the tile bitmaps of the bitmap source in parallel.
+     * Matching and giving the bitmaps to the reconstructor stays in order, so the result is
+     * the same as with a single thread. The bitmap source must be thread safe if this is greater
+     * than one.
+     * @param threads The amount of threads, values smaller than 2 make mosaics serially.
+     */
+    public void setParallelism(int threads) {
+        mParallelism = Math.max(1, threads);
+    }
+
     public void setColorMetric(ColorMetric metric) {
         mColorMetric = metric;
         if (mColorMetric == null) {
@@ -91,20 +122,20 @@ public class MosaicMaker<S> {
     public Bitmap makeMultiRect(Bitmap source, int wantedRows, int wantedColumns, double mergeFactor, ProgressCallback progress) {
         Reconstructor reconstructor = new MultiRectReconstructor(source,
                 wantedRows, wantedColumns, mergeFactor, mUseAlpha, mColorMetric);
-        return make(mMatcher, mBitmapSource, reconstructor, progress);
+        return make(mMatcher, mBitmapSource, reconstructor, progress, mParallelism);
     }
 
     public Bitmap makeRect(Bitmap source, int wantedRows, int wantedColumns, ProgressCallback progress) {
         Reconstructor reconstructor = new RectReconstructor(source,
                 wantedRows, wantedColumns);
-        return make(mMatcher, mBitmapSource, reconstructor, progress);
+        return make(mMatcher, mBitmapSource, reconstructor, progress, mParallelism);
     }
 
     public Bitmap makeAutoLayer(Bitmap source, double mergeFactor, ProgressCallback progress) {
         MultiStepPercentProgressCallback multiProgress = new MultiStepPercentProgressCallback(progress, 2);
         Reconstructor reconstructor = new AutoLayerReconstructor(source, mergeFactor, mUseAlpha, mColorMetric, multiProgress);
 		multiProgress.nextStep();
-        Bitmap result = make(mMatcher, mBitmapSource, reconstructor, multiProgress);
+        Bitmap result = make(mMatcher, mBitmapSource, reconstructor, multiProgress, mParallelism);
 		multiProgress.nextStep();
         return result;
     }
@@ -113,7 +144,7 @@ public class MosaicMaker<S> {
         MultiStepPercentProgressCallback multiProgress = new MultiStepPercentProgressCallback(progress, 2);
         Reconstructor reconstructor = new FixedLayerReconstructor(source, clusterCount, mUseAlpha, mColorMetric, multiProgress);
         multiProgress.nextStep();
-        Bitmap result = make(mMatcher, mBitmapSource, reconstructor, multiProgress);
+        Bitmap result = make(mMatcher, mBitmapSource, reconstructor, multiProgress, mParallelism);
         multiProgress.nextStep();
         return result;
     }
@@ -139,39 +170,27 @@ public class MosaicMaker<S> {
         Bitmap result = make(reconstructor.<Void>makeMatcher(useAlpha, metric), reconstructor
                         .<Void>makeSource(),
                 reconstructor,
-                multiProgress);
+                multiProgress, 1);
         multiProgress.nextStep();
         return result;
     }
 
 	private static <S>Bitmap make(TileMatcher<S> matcher, BitmapSource<S> source, Reconstructor
             reconstructor,
-                               ProgressCallback progress) {
+                               ProgressCallback progress, int parallelism) {
 		if (reconstructor == null) {
 			throw new IllegalArgumentException("No reconstructor given to make mosaic.");
 		}
+        if (parallelism > 1) {
+            return makeParallel(matcher, source, reconstructor, progress, parallelism);
+        }
 
 		while (!reconstructor.hasAll() && (progress == null || !progress.isCancelled())) {
 			MosaicFragment nextFrag = reconstructor.nextFragment();
-			Bitmap nextImage;
-			do {
-				MosaicTile<S> tile = matcher.getBestMatch(nextFrag.getAverageRGB());
-				if (tile == null) {
-					// matcher has no more tiles!
-                    Log.e("HomeStuff", "Mosaic maker ran out of tiles!");
-					return null;
-				}
-				nextImage = source.getBitmap(tile, nextFrag.getWidth(), nextFrag.getHeight());
-
-				if (nextImage == null) {
-					// no image?! maybe the image (file) got invalid (image deleted, damaged,...)
-					// delete it from matcher
-					// and cache and search again
-					matcher.removeTile(tile);
-				}
-				// will terminate since the matcher will lose a tile each iteration or find a valid one, 
-				// if no tile found anymore, returns false
-			} while (nextImage == null);
+			Bitmap nextImage = obtainTileBitmap(matcher, source, nextFrag);
+			if (nextImage == null) {
+				return null;
+			}
 
 			if (!reconstructor.giveNext(nextImage)) {
 				// reconstructor did not accept the give image, but it was valid and of correct dimension, 
@@ -185,6 +204,93 @@ public class MosaicMaker<S> {
                 progress.onProgressUpdate(reconstructor.estimatedProgressPercent());
             }
 		}
+        return finishMake(reconstructor, progress);
+	}
+
+    private static <S> Bitmap makeParallel(TileMatcher<S> matcher, final BitmapSource<S> source,
+                                           Reconstructor reconstructor, ProgressCallback progress,
+                                           int parallelism) {
+        final int batchSize = parallelism * PARALLEL_FRAGMENTS_PER_THREAD;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Callable<Bitmap>> loaders = new ArrayList<>(batchSize);
+        List<Bitmap> images = new ArrayList<>(batchSize);
+        try {
+            while (!reconstructor.hasAll() && (progress == null || !progress.isCancelled())) {
+                final List<MosaicFragment> fragments = reconstructor.nextFragments(batchSize);
+                List<MosaicTile<S>> tiles = new ArrayList<>(fragments.size());
+                loaders.clear();
+                // the matcher is not thread safe, match in order and only load in parallel
+                for (final MosaicFragment fragment : fragments) {
+                    final MosaicTile<S> tile = matcher.getBestMatch(fragment.getAverageRGB());
+                    if (tile == null) {
+                        Log.e("HomeStuff", "Mosaic maker ran out of tiles!");
+                        return null;
+                    }
+                    tiles.add(tile);
+                    loaders.add(new Callable<Bitmap>() {
+                        @Override
+                        public Bitmap call() throws Exception {
+                            return source.getBitmap(tile, fragment.getWidth(), fragment.getHeight());
+                        }
+                    });
+                }
+                List<Future<Bitmap>> loaded = executor.invokeAll(loaders);
+                images.clear();
+                for (int i = 0; i < fragments.size(); i++) {
+                    Bitmap image = loaded.get(i).get();
+                    if (image == null) {
+                        // same as for the serial make, but there could be other fragments of
+                        // this batch that already got the invalid tile, they also end here
+                        matcher.removeTile(tiles.get(i));
+                        image = obtainTileBitmap(matcher, source, fragments.get(i));
+                        if (image == null) {
+                            return null;
+                        }
+                    }
+                    images.add(image);
+                }
+                if (reconstructor.giveAll(images) != images.size()) {
+                    Log.e("HomeStuff", "Given images not accepted by reconstructor!");
+                    return null;
+                }
+                if (progress != null) {
+                    progress.onProgressUpdate(reconstructor.estimatedProgressPercent());
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e("HomeStuff", "Failed loading tile bitmaps in parallel: " + e);
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+        return finishMake(reconstructor, progress);
+    }
+
+    private static <S> Bitmap obtainTileBitmap(TileMatcher<S> matcher, BitmapSource<S> source,
+                                               MosaicFragment fragment) {
+        Bitmap nextImage;
+        do {
+            MosaicTile<S> tile = matcher.getBestMatch(fragment.getAverageRGB());
+            if (tile == null) {
+                // matcher has no more tiles!
+                Log.e("HomeStuff", "Mosaic maker ran out of tiles!");
+                return null;
+            }
+            nextImage = source.getBitmap(tile, fragment.getWidth(), fragment.getHeight());
+
+            if (nextImage == null) {
+                // no image?! maybe the image (file) got invalid (image deleted, damaged,...)
+                // delete it from matcher
+                // and cache and search again
+                matcher.removeTile(tile);
+            }
+            // will terminate since the matcher will lose a tile each iteration or find a valid one,
+            // if no tile found anymore, returns false
+        } while (nextImage == null);
+        return nextImage;
+    }
+
+    private static Bitmap finishMake(Reconstructor reconstructor, ProgressCallback progress) {
 		if (progress != null && !progress.isCancelled()) {
 			progress.onProgressUpdate(PercentProgressListener.PROGRESS_COMPLETE);
 		}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.mosaic.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dan.dit.whatsthat.util.general.PercentProgressListener;
+import dan.dit.whatsthat.util.image.BitmapUtil;
+import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
+import dan.dit.whatsthat.util.image.ImageUtil;
+
+/**
+ * A persistent index of mosaic tiles that remembers the average color, the dimension and the
+ * modification time of each tile source. The index is stored in a compact binary file that
+ * is memory mapped for loading, so a large tile library does not need to be decoded again
+ * for every mosaic session. Loading only walks over the records, the tiles read their values
+ * from the mapped file when asked. Only sources that are new or changed since the last update
+ * need to be analyzed.<br>
+ * The tiles of the index can directly be given to any {@link dan.dit.whatsthat.util.mosaic
+ * .matching.TileMatcher}. The tile source is the identifier of the tile, for files this is the
+ * absolute path. The index itself is not thread safe, its tiles are.
+ */
+public class TileIndex {
+    private static final int FILE_MAGIC = 0x54494458; // "TIDX"
+    private static final int FILE_VERSION = 1;
+    private static final Charset ID_CHARSET = Charset.forName("UTF-8");
+    // the average color of a tile does not need the full resolution
+    private static final int ANALYSIS_SIZE = 64;
+    // a record is modified time, average color, width, height, id length and the id bytes
+    private static final int RECORD_MODIFIED = 0;
+    private static final int RECORD_AVERAGE_ARGB = 8;
+    private static final int RECORD_WIDTH = 12;
+    private static final int RECORD_HEIGHT = 16;
+    private static final int RECORD_ID_LENGTH = 20;
+    private static final int RECORD_ID = 22;
+
+    private final File mFile;
+    // the tiles in the order of the file as long as no tile was looked up by id
+    private List<Tile> mMappedTiles;
+    private Map<String, Tile> mTiles;
+    private boolean mChanged;
+
+    /**
+     * A tile of the index. Its values are read from the record in the index file, the id is
+     * only decoded when needed.
+     */
+    public static final class Tile implements MosaicTile<String> {
+        private final ByteBuffer mRecords;
+        private final int mOffset;
+        private String mId;
+
+        private Tile(ByteBuffer records, int offset) {
+            mRecords = records;
+            mOffset = offset;
+        }
+
+        private Tile(String id, byte[] idBytes, int averageARGB, int width, int height, long
+                modified) {
+            mRecords = ByteBuffer.allocate(RECORD_ID + idBytes.length);
+            mOffset = 0;
+            mRecords.putLong(RECORD_MODIFIED, modified);
+            mRecords.putInt(RECORD_AVERAGE_ARGB, averageARGB);
+            mRecords.putInt(RECORD_WIDTH, width);
+            mRecords.putInt(RECORD_HEIGHT, height);
+            mRecords.putShort(RECORD_ID_LENGTH, (short) idBytes.length);
+            mRecords.position(RECORD_ID);
+            mRecords.put(idBytes);
+            mId = id;
+        }
+
+        @Override
+        public String getSource() {
+            String id = mId;
+            if (id == null) {
+                // absolute reads only, so tiles sharing the mapped file can be read by any thread
+                byte[] idBytes = new byte[getIdLength()];
+                for (int i = 0; i < idBytes.length; i++) {
+                    idBytes[i] = mRecords.get(mOffset + RECORD_ID + i);
+                }
+                id = new String(idBytes, ID_CHARSET);
+                mId = id;
+            }
+            return id;
+        }
+
+        @Override
+        public int getAverageARGB() {
+            return mRecords.getInt(mOffset + RECORD_AVERAGE_ARGB);
+        }
+
+        public int getWidth() {
+            return mRecords.getInt(mOffset + RECORD_WIDTH);
+        }
+
+        public int getHeight() {
+            return mRecords.getInt(mOffset + RECORD_HEIGHT);
+        }
+
+        public long getModified() {
+            return mRecords.getLong(mOffset + RECORD_MODIFIED);
+        }
+
+        private int getIdLength() {
+            return mRecords.getShort(mOffset + RECORD_ID_LENGTH) & 0xFFFF;
+        }
+
+        private void writeTo(DataOutputStream output, byte[] buffer) throws IOException {
+            final int length = RECORD_ID + getIdLength();
+            for (int i = 0; i < length; i++) {
+                buffer[i] = mRecords.get(mOffset + i);
+            }
+            output.write(buffer, 0, length);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Tile && getSource().equals(((Tile) other).getSource());
+        }
+
+        @Override
+        public int hashCode() {
+            return getSource().hashCode();
+        }
+    }
+
+    private TileIndex(File file) {
+        mFile = file;
+        mMappedTiles = new ArrayList<>();
+    }
+
+    /**
+     * Loads the index stored in the given file. If the file does not exist or is not a valid
+     * index an empty index is returned that will be saved to this file.
+     * @param file The index file.
+     * @return The loaded index, never null.
+     */
+    public static TileIndex load(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("No index file given.");
+        }
+        TileIndex index = new TileIndex(file);
+        if (!file.exists()) {
+            return index;
+        }
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            FileChannel channel = input.getChannel();
+            // the mapping stays valid after closing the file, even if save() replaces it
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            index.read(buffer);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e("HomeStuff", "Could not load tile index " + file + ": " + e);
+            index.mMappedTiles.clear();
+            index.mChanged = true;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e("HomeStuff", "Could not close tile index " + file + ": " + e);
+                }
+            }
+        }
+        return index;
+    }
+
+    private void read(MappedByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != FILE_MAGIC) {
+            throw new IOException("Not a tile index.");
+        }
+        int version = buffer.getInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported tile index version " + version);
+        }
+        final int count = buffer.getInt();
+        if (count < 0) {
+            throw new IOException("Illegal tile count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            // only skip over the record, fails if the record is truncated
+            int offset = buffer.position();
+            buffer.position(offset + RECORD_ID_LENGTH);
+            int idLength = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + idLength);
+            mMappedTiles.add(new Tile(buffer, offset));
+        }
+    }
+
+    // the first lookup by id decodes the ids of all tiles
+    private Map<String, Tile> getTilesById() {
+        if (mTiles == null) {
+            mTiles = new LinkedHashMap<>(mMappedTiles.size() * 2);
+            for (Tile tile : mMappedTiles) {
+                mTiles.put(tile.getSource(), tile);
+            }
+            mMappedTiles = null;
+        }
+        return mTiles;
+    }
+
+    private Collection<Tile> getAllTiles() {
+        return mTiles == null ? mMappedTiles : mTiles.values();
+    }
+
+    /**
+     * Saves the index if it changed since loading or the last save. The file is replaced
+     * atomically so a failed save keeps the previous index.
+     * @return If the index is saved to its file.
+     */
+    public boolean save() {
+        if (!mChanged) {
+            return true;
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream output = null;
+        boolean success = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(size());
+            byte[] buffer = new byte[RECORD_ID + 0xFFFF];
+            for (Tile tile : getAllTiles()) {
+                tile.writeTo(output, buffer);
+            }
+            output.close();
+            output = null;
+            success = temp.renameTo(mFile);
+        } catch (IOException e) {
+            Log.e("HomeStuff", "Could not save tile index " + mFile + ": " + e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e("HomeStuff", "Could not close tile index " + mFile + ": " + e);
+                }
+            }
+            if (!success && !temp.delete()) {
+                Log.e("HomeStuff", "Could not delete temporary tile index " + temp);
+            }
+        }
+        if (success) {
+            mChanged = false;
+        }
+        return success;
+    }
+
+    /**
+     * Returns the tile with the given id.
+     * @param id The tile id.
+     * @return The tile or null if not indexed.
+     */
+    public Tile get(String id) {
+        return getTilesById().get(id);
+    }
+
+    /**
+     * Checks if the tile with the given id is indexed and was not modified since.
+     * @param id The tile id.
+     * @param modified The current modification time of the tile source.
+     * @return True if the indexed tile can be used as it is.
+     */
+    public boolean isUpToDate(String id, long modified) {
+        Tile tile = get(id);
+        return tile != null && tile.getModified() == modified;
+    }
+
+    /**
+     * Adds the tile to the index, replacing any tile with the same id.
+     * @param id The tile id.
+     * @param averageARGB The average color.
+     * @param width The width of the tile source.
+     * @param height The height of the tile source.
+     * @param modified The modification time of the tile source.
+     * @return The new tile.
+     */
+    public Tile put(String id, int averageARGB, int width, int height, long modified) {
+        byte[] idBytes = id == null ? null : id.getBytes(ID_CHARSET);
+        if (idBytes == null || idBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Illegal tile id " + id);
+        }
+        Tile tile = new Tile(id, idBytes, averageARGB, width, height, modified);
+        getTilesById().put(id, tile);
+        mChanged = true;
+        return tile;
+    }
+
+    /**
+     * Removes the tile with the given id.
+     * @param id The tile id.
+     * @return If there was such a tile.
+     */
+    public boolean remove(String id) {
+        boolean removed = getTilesById().remove(id) != null;
+        mChanged |= removed;
+        return removed;
+    }
+
+    /**
+     * Brings the index up to date with the given image files. Files that are new or modified
+     * are decoded in a small size to get the average color, all others are taken from the
+     * index. Tiles of files that are not given anymore are removed.
+     * @param files The image files of the tile library.
+     * @param progress Optional progress listener.
+     * @return If any tile was added, changed or removed.
+     */
+    public boolean updateFiles(Collection<File> files, PercentProgressListener progress) {
+        Set<String> ids = new HashSet<>(files.size());
+        boolean changed = false;
+        int analyzed = 0;
+        int done = 0;
+        for (File file : files) {
+            String id = file.getAbsolutePath();
+            ids.add(id);
+            long modified = file.lastModified();
+            if (!isUpToDate(id, modified)) {
+                changed |= analyzeFile(file, id, modified);
+                analyzed++;
+            }
+            done++;
+            if (progress != null) {
+                progress.onProgressUpdate(done * PercentProgressListener.PROGRESS_COMPLETE / files
+                        .size());
+            }
+        }
+        Iterator<String> it = getTilesById().keySet().iterator();
+        while (it.hasNext()) {
+            if (!ids.contains(it.next())) {
+                it.remove();
+                changed = true;
+            }
+        }
+        mChanged |= changed;
+        Log.d("HomeStuff", "Updated tile index with " + files.size() + " files, analyzed " +
+                analyzed);
+        return changed;
+    }
+
+    // returns if the index changed, a file that cannot be decoded is removed from the index
+    private boolean analyzeFile(File file, String id, long modified) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(id, options);
+        Bitmap bitmap = ImageUtil.loadBitmap(file, ANALYSIS_SIZE, ANALYSIS_SIZE, BitmapUtil
+                .MODE_FIT_INSIDE_GENEROUS);
+        if (bitmap == null) {
+            return remove(id);
+        }
+        put(id, ColorAnalysisUtil.getAverageColor(bitmap), options.outWidth, options.outHeight,
+                modified);
+        ImageUtil.CACHE.makeReusable(bitmap);
+        return true;
+    }
+
+    /**
+     * Returns all indexed tiles, which can be given to any TileMatcher.
+     * @return A new list of all tiles.
+     */
+    public List<Tile> getTiles() {
+        return new ArrayList<>(getAllTiles());
+    }
+
+    /**
+     * Returns the amount of indexed tiles.
+     * @return The amount of tiles.
+     */
+    public int size() {
+        return getAllTiles().size();
+    }
+}
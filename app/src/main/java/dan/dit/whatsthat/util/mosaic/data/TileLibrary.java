@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.mosaic.data;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import dan.dit.whatsthat.util.general.PercentProgressListener;
+
+/**
+ * A library of mosaic tiles made of the image files in a directory. The average colors of the
+ * files are kept in a {@link TileIndex}, so opening the library only maps the index file and
+ * updating it only decodes files that were added or changed since. The tiles' bitmaps are
+ * loaded by a {@link FileBitmapSource}. The library is not thread safe.
+ */
+public class TileLibrary {
+    private static final String[] IMAGE_FILE_EXTENSIONS = new String[] {".jpg", ".jpeg",
+            ".png", ".webp", ".bmp", ".gif"};
+    private static final FileFilter IMAGE_FILE_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            if (!file.isFile()) {
+                return false;
+            }
+            String name = file.getName().toLowerCase(Locale.US);
+            for (String extension : IMAGE_FILE_EXTENSIONS) {
+                if (name.endsWith(extension)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+    private final File mDirectory;
+    private final TileIndex mIndex;
+
+    /**
+     * Opens the library of the given directory.
+     * @param directory The directory holding the image files.
+     * @param indexFile The file of the library's index.
+     */
+    public TileLibrary(File directory, File indexFile) {
+        if (directory == null) {
+            throw new IllegalArgumentException("No directory given.");
+        }
+        mDirectory = directory;
+        mIndex = TileIndex.load(indexFile);
+    }
+
+    /**
+     * Brings the index up to date with the image files currently in the directory and saves
+     * it. This decodes all new or changed files and should not run on the ui thread.
+     * @param progress Optional progress listener.
+     * @return If any tile was added, changed or removed.
+     */
+    public boolean update(PercentProgressListener progress) {
+        File[] files = mDirectory.listFiles(IMAGE_FILE_FILTER);
+        List<File> images = files == null ? Collections.<File>emptyList() : Arrays.asList(files);
+        boolean changed = mIndex.updateFiles(images, progress);
+        mIndex.save();
+        return changed;
+    }
+
+    /**
+     * Returns the tiles of the library as known by the last update.
+     * @return A new list of the tiles.
+     */
+    public List<TileIndex.Tile> getTiles() {
+        return mIndex.getTiles();
+    }
+
+    /**
+     * Makes a source for the bitmaps of the library's tiles.
+     * @return A thread safe bitmap source.
+     */
+    public BitmapSource<String> makeBitmapSource() {
+        return new FileBitmapSource();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+}
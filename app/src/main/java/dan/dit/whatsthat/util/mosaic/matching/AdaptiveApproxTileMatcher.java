@@ -118,10 +118,13 @@ public class AdaptiveApproxTileMatcher<S> extends TileMatcher<S> {
     @Override
     public boolean removeTile(MosaicTile<S> toRemove) {
         Log.d("HomeStuff", "Removing tile : " + toRemove);
-        boolean hadTile = mData.get(toRemove.getAverageARGB(), null) != null;
+        MosaicTile<S> removed = mData.get(toRemove.getAverageARGB(), null);
         mData.remove(toRemove.getAverageARGB());
         mDataDistances.remove(toRemove.getAverageARGB());
-        return hadTile;
+        if (removed != null) {
+            onTileRemoved(removed);
+        }
+        return removed != null;
     }
 
     @Override
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 Daniel Dittmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package dan.dit.whatsthat.util.mosaic.matching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dan.dit.whatsthat.util.image.ColorMetric;
+import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
+
+/**
+ * This class implements a {@link TileMatcher} that indexes the tiles by their average color
+ * in a k-d tree over the RGB(A) cube. The tree is stored implicitly: each range of the tile array
+ * is a subtree whose root is the median element of the range, split along the channel with
+ * the largest spread.<br>
+ * Searching is exact and takes about O(log n) for n tiles, as long as the color metric offers a
+ * channel lower bound (see {@link ColorMetric#getChannelLowerBound(int, int, boolean)}). Metrics
+ * without one are still matched exactly but without pruning.<br>
+ * Removing tiles only marks them as removed, subtrees without any remaining tiles are skipped.
+ * Has accuracy 1.0
+ */
+public class KdTreeTileMatcher<S> extends TileMatcher<S> {
+    private MosaicTile<S>[] mTiles;
+    private int[] mColors;
+    private byte[] mSplitChannel;
+    private boolean[] mRemoved;
+    private int[] mAliveCount; // alive tiles in the subtree rooted at the index
+    private int[] mParent;
+    private int mUsedTilesCount;
+
+    // search state, the matcher is not thread safe anyways because of the hashed matches
+    private int mSearchColor;
+    private double mSearchBestDistance;
+    private int mSearchBestIndex;
+
+    /**
+     * Creates a new KdTreeTileMatcher from the given MosaicTiles, optionally alpha is used for matching.
+     * @param data The MosaicTiles to use.
+     * @param useAlpha If alpha should be used for matching.
+     * @param metric The color metric to use, if null defaults to Euclid2.
+     */
+    public KdTreeTileMatcher(Collection<? extends MosaicTile<S>> data, boolean useAlpha, ColorMetric metric) {
+        super(useAlpha, metric);
+        if (data == null) {
+            throw new IllegalArgumentException("No data given.");
+        }
+        init(new ArrayList<>(data));
+    }
+
+    private void init(List<? extends MosaicTile<S>> data) {
+        final int size = data.size();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        MosaicTile<S>[] tiles = (MosaicTile<S>[]) new MosaicTile[size];
+        mTiles = tiles;
+        mColors = new int[size];
+        mSplitChannel = new byte[size];
+        mRemoved = new boolean[size];
+        mAliveCount = new int[size];
+        mParent = new int[size];
+        for (int i = 0; i < size; i++) {
+            mTiles[i] = data.get(i);
+            mColors[i] = mTiles[i].getAverageARGB();
+        }
+        mUsedTilesCount = size;
+        build(0, size, -1);
+    }
+
+    private int channelsCount() {
+        return useAlpha ? 4 : 3;
+    }
+
+    private void build(int from, int to, int parent) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        int channel = widestChannel(from, to);
+        select(from, to - 1, mid, channel);
+        mSplitChannel[mid] = (byte) channel;
+        mParent[mid] = parent;
+        mAliveCount[mid] = to - from;
+        build(from, mid, mid);
+        build(mid + 1, to, mid);
+    }
+
+    private int widestChannel(int from, int to) {
+        int bestChannel = ColorMetric.CHANNEL_RED;
+        int bestSpread = -1;
+        for (int channel = 0; channel < channelsCount(); channel++) {
+            int min = 255;
+            int max = 0;
+            for (int i = from; i < to; i++) {
+                int value = ColorMetric.getChannel(mColors[i], channel);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                bestChannel = channel;
+            }
+        }
+        return bestChannel;
+    }
+
+    // quickselect: afterwards the element at index k is at its sorted position regarding the channel
+    private void select(int left, int right, int k, int channel) {
+        while (right > left) {
+            int pivot = ColorMetric.getChannel(mColors[(left + right) >>> 1], channel);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (ColorMetric.getChannel(mColors[i], channel) < pivot) {
+                    i++;
+                }
+                while (ColorMetric.getChannel(mColors[j], channel) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        MosaicTile<S> tile = mTiles[i];
+        mTiles[i] = mTiles[j];
+        mTiles[j] = tile;
+        int color = mColors[i];
+        mColors[i] = mColors[j];
+        mColors[j] = color;
+    }
+
+    @Override
+    protected MosaicTile<S> calculateBestMatch(int withRGB) {
+        if (mUsedTilesCount == 0) {
+            return null;
+        }
+        mSearchColor = withRGB;
+        mSearchBestDistance = Double.MAX_VALUE;
+        mSearchBestIndex = -1;
+        search(0, mTiles.length);
+        return mSearchBestIndex >= 0 ? mTiles[mSearchBestIndex] : null;
+    }
+
+    private void search(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        if (mAliveCount[mid] == 0) {
+            return;
+        }
+        if (!mRemoved[mid]) {
+            double distance = mColorMetric.getDistance(mColors[mid], mSearchColor, useAlpha);
+            if (distance < mSearchBestDistance) {
+                mSearchBestDistance = distance;
+                mSearchBestIndex = mid;
+            }
+        }
+        int channel = mSplitChannel[mid];
+        int delta = ColorMetric.getChannel(mSearchColor, channel) - ColorMetric.getChannel(mColors[mid], channel);
+        if (delta < 0) {
+            search(from, mid);
+            if (mColorMetric.getChannelLowerBound(channel, delta, useAlpha) < mSearchBestDistance) {
+                search(mid + 1, to);
+            }
+        } else {
+            search(mid + 1, to);
+            if (mColorMetric.getChannelLowerBound(channel, delta, useAlpha) < mSearchBestDistance) {
+                search(from, mid);
+            }
+        }
+    }
+
+    private int findIndex(int from, int to, MosaicTile<S> tile, int color) {
+        if (from >= to) {
+            return -1;
+        }
+        int mid = (from + to) >>> 1;
+        if (mAliveCount[mid] == 0) {
+            return -1;
+        }
+        if (!mRemoved[mid] && mColors[mid] == color && mTiles[mid].equals(tile)) {
+            return mid;
+        }
+        int channel = mSplitChannel[mid];
+        int value = ColorMetric.getChannel(color, channel);
+        int split = ColorMetric.getChannel(mColors[mid], channel);
+        int index = -1;
+        // elements equal to the split value can be on either side
+        if (value <= split) {
+            index = findIndex(from, mid, tile, color);
+        }
+        if (index < 0 && value >= split) {
+            index = findIndex(mid + 1, to, tile, color);
+        }
+        return index;
+    }
+
+    @Override
+    public double getAccuracy() {
+        return 1.0;
+    }
+
+    @Override
+    public boolean setAccuracy(double accuracy) {
+        return false;
+    }
+
+    @Override
+    public boolean removeTile(MosaicTile<S> toRemove) {
+        if (toRemove == null) {
+            return false;
+        }
+        int index = findIndex(0, mTiles.length, toRemove, toRemove.getAverageARGB());
+        if (index < 0) {
+            return false;
+        }
+        mRemoved[index] = true;
+        for (int node = index; node >= 0; node = mParent[node]) {
+            mAliveCount[node]--;
+        }
+        mUsedTilesCount--;
+        onTileRemoved(toRemove);
+        return true;
+    }
+
+    @Override
+    public int getUsedTilesCount() {
+        return mUsedTilesCount;
+    }
+
+    @Override
+    public void setUseAlpha(boolean useAlpha) {
+        if (useAlpha == this.useAlpha) {
+            return;
+        }
+        this.useAlpha = useAlpha;
+        List<MosaicTile<S>> tiles = new ArrayList<>(mUsedTilesCount);
+        for (int i = 0; i < mTiles.length; i++) {
+            if (!mRemoved[i]) {
+                tiles.add(mTiles[i]);
+            }
+        }
+        init(tiles);
+        resetHashMatches();
+    }
+
+    @Override
+    public void setColorMetric(ColorMetric metric) {
+        if (metric == null || metric.equals(mColorMetric)) {
+            return;
+        }
+        // the tree only depends on the colors, the metric just decides about pruning
+        mColorMetric = metric;
+        resetHashMatches();
+    }
+}
@@ -71,8 +71,12 @@ public class SimpleLinearTileMatcher<S> extends TileMatcher<S> {
 	}
 
 	@Override
-	public boolean removeTile(MosaicTile toRemove) {
-		return this.tiles.remove(toRemove);
+	public boolean removeTile(MosaicTile<S> toRemove) {
+		if (this.tiles.remove(toRemove)) {
+			onTileRemoved(toRemove);
+			return true;
+		}
+		return false;
 	}
 
 	@Override
@@ -82,7 +86,11 @@ public class SimpleLinearTileMatcher<S> extends TileMatcher<S> {
 
 	@Override
 	public void setColorMetric(ColorMetric metric) {
+		if (metric == null || metric.equals(mColorMetric)) {
+			return;
+		}
 		mColorMetric = metric;
+		resetHashMatches();
 	}
 
 }
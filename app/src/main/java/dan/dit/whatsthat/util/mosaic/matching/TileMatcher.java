@@ -18,6 +18,11 @@ package dan.dit.whatsthat.util.mosaic.matching;
 
 import android.util.SparseArray;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import dan.dit.whatsthat.util.image.ColorMetric;
 import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
 
@@ -28,9 +33,20 @@ import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
  *
  */
 public abstract class TileMatcher<S> {
+    /**
+     * The maximum bits per channel for the lookup table, using all bits of
+     * the rgb channels gives a table with 16M entries.
+     */
+    public static final int LOOKUP_TABLE_MAX_BITS = 24;
+    private static final int NO_TILE = -1;
 
     ColorMetric mColorMetric;
     private SparseArray<MosaicTile<S>> mBestMatches;
+    private int[] mLookupTable; // quantized color to index into mLookupTiles
+    private List<MosaicTile<S>> mLookupTiles;
+    private Map<MosaicTile<S>, Integer> mLookupTileIndices;
+    private int mLookupBits;
+    private boolean mLookupUsesAlpha;
 
     public void setHashMatches(boolean hashMatches) {
         if (hashMatches && mBestMatches == null) {
@@ -45,6 +61,122 @@ public abstract class TileMatcher<S> {
             setHashMatches(false);
             setHashMatches(true);
         }
+        if (mLookupTable != null) {
+            buildLookupTable();
+        }
+    }
+
+    /**
+     * Precomputes the best matches for all colors quantized to the given amount of bits per
+     * channel. Afterwards every match is a single array read. The table
+     * uses the alpha channel too if alpha is used, so it holds 2^(3*bits) or 2^(4*bits) entries.
+     * Building calculates a best match for each entry, so this is best used with a fast matcher.
+     * With 8 bits and no alpha the table gives exactly the same results as the matcher.
+     * @param bitsPerChannel The bits to keep per channel, from 1 to 8. Zero or less
+     *                       disables the lookup table.
+     * @return If the table is used. False if the table would be too big.
+     */
+    public boolean setLookupTableMatches(int bitsPerChannel) {
+        if (bitsPerChannel <= 0) {
+            mLookupTable = null;
+            mLookupTiles = null;
+            mLookupTileIndices = null;
+            mLookupBits = 0;
+            return false;
+        }
+        bitsPerChannel = Math.min(bitsPerChannel, 8);
+        int totalBits = bitsPerChannel * (useAlpha ? 4 : 3);
+        if (totalBits > LOOKUP_TABLE_MAX_BITS
+                || (4L << totalBits) > Runtime.getRuntime().maxMemory() / 4) {
+            return false;
+        }
+        mLookupBits = bitsPerChannel;
+        buildLookupTable();
+        return true;
+    }
+
+    private void buildLookupTable() {
+        mLookupUsesAlpha = useAlpha;
+        int totalBits = mLookupBits * (mLookupUsesAlpha ? 4 : 3);
+        if (totalBits > LOOKUP_TABLE_MAX_BITS) {
+            // alpha got enabled and makes the table too big
+            setLookupTableMatches(0);
+            return;
+        }
+        if (mLookupTable == null || mLookupTable.length != 1 << totalBits) {
+            mLookupTable = new int[1 << totalBits];
+        }
+        mLookupTiles = new ArrayList<>();
+        mLookupTileIndices = new HashMap<>();
+        for (int i = 0; i < mLookupTable.length; i++) {
+            mLookupTable[i] = getLookupTileIndex(calculateBestMatch(getLookupCellColor(i)));
+        }
+    }
+
+    private int getLookupTileIndex(MosaicTile<S> tile) {
+        if (tile == null) {
+            return NO_TILE;
+        }
+        Integer index = mLookupTileIndices.get(tile);
+        if (index == null) {
+            index = mLookupTiles.size();
+            mLookupTiles.add(tile);
+            mLookupTileIndices.put(tile, index);
+        }
+        return index;
+    }
+
+    private int getLookupIndex(int color) {
+        final int bits = mLookupBits;
+        final int shift = 8 - bits;
+        int index = ((((color >> 16) & 0xFF) >> shift) << (bits << 1))
+                | ((((color >> 8) & 0xFF) >> shift) << bits)
+                | ((color & 0xFF) >> shift);
+        if (mLookupUsesAlpha) {
+            index |= (color >>> (24 + shift)) << (3 * bits);
+        }
+        return index;
+    }
+
+    // the color in the center of the cell of colors that share the given index
+    private int getLookupCellColor(int index) {
+        final int bits = mLookupBits;
+        final int shift = 8 - bits;
+        final int mask = (1 << bits) - 1;
+        final int center = shift > 0 ? 1 << (shift - 1) : 0;
+        int red = (((index >> (bits << 1)) & mask) << shift) | center;
+        int green = (((index >> bits) & mask) << shift) | center;
+        int blue = ((index & mask) << shift) | center;
+        int alpha = mLookupUsesAlpha ? (((index >> (3 * bits)) & mask) << shift) | center : 0xFF;
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Invoked by implementations when the given tile got removed. This drops hashed matches
+     * of the tile and recalculates only those entries of the lookup table that referenced it.
+     * Tiles are compared by equals, like removeTile(MosaicTile) does.
+     * @param removed The removed tile.
+     */
+    void onTileRemoved(MosaicTile<S> removed) {
+        if (mBestMatches != null) {
+            for (int i = mBestMatches.size() - 1; i >= 0; i--) {
+                if (removed.equals(mBestMatches.valueAt(i))) {
+                    mBestMatches.removeAt(i);
+                }
+            }
+        }
+        if (mLookupTable != null) {
+            Integer removedIndex = mLookupTileIndices.remove(removed);
+            if (removedIndex == null) {
+                return;
+            }
+            mLookupTiles.set(removedIndex, null);
+            for (int i = 0; i < mLookupTable.length; i++) {
+                if (mLookupTable[i] == removedIndex) {
+                    mLookupTable[i] = getLookupTileIndex(calculateBestMatch(getLookupCellColor(i)));
+                }
+            }
+        }
     }
 
     private MosaicTile<S> getBestMatchHashed(int color) {
@@ -67,7 +199,11 @@ public abstract class TileMatcher<S> {
 
 
     public void setUseAlpha(boolean useAlpha) {
+        boolean changed = this.useAlpha != useAlpha;
         this.useAlpha = useAlpha;
+        if (changed) {
+            resetHashMatches();
+        }
     }
 
 	/**
@@ -93,6 +229,10 @@ public abstract class TileMatcher<S> {
 	protected abstract MosaicTile<S> calculateBestMatch(int withRGB);
 
     public MosaicTile<S> getBestMatch(int color) {
+        if (mLookupTable != null) {
+            int index = mLookupTable[getLookupIndex(color)];
+            return index == NO_TILE ? null : mLookupTiles.get(index);
+        }
         if (mBestMatches == null) {
             return calculateBestMatch(color);
         }
@@ -111,7 +251,8 @@ public abstract class TileMatcher<S> {
 	 * Removes one occurance of the given MosaicTile from the TileMatcher. This operation can
 	 * be performed during matching and is useful to eleminate tiles which reference
 	 * an invalid image file (which got deleted or is unaccesable) or MosaicTiles that should not be used
-	 * anymore for any other reason.
+	 * anymore for any other reason. Implementations invoke onTileRemoved(MosaicTile) to keep hashed
+	 * matches and the lookup table valid.
 	 * @param toRemove The MosaicTile to remove.
 	 * @return <code>true</code> only if the tile was contained in the set of MosaicTiles
 	 * of this matcher and then removed.
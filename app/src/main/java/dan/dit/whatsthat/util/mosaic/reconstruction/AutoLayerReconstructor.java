@@ -19,27 +19,36 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import dan.dit.whatsthat.util.general.PercentProgressListener;
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
+import dan.dit.whatsthat.util.image.PixelRaster;
 
 /**
+ * Splits the image into layers of similar colors, each layer is then given a single
+ * image. The distinct colors of the image are merged by a median cut: a box of colors is
+ * split at the median of its widest channel as long as any of its colors is not similar
+ * enough to the mean color of the box. This is about linear in the amount of pixels.
  * Created by daniel on 01.07.15.
  */
 public class AutoLayerReconstructor extends Reconstructor {
+    // layers covering less than this fraction of the image read their pixels one by one
+    private static final int BULK_READ_MIN_FRACTION = 64;
     private Bitmap mResult;
     private MosaicFragment mFragment;
     private MosaicFragment mNext;
     private int mLayersApplied;
     private Iterator<Integer> mColorIterator;
     private final boolean mUseAlpha;
-    private List<List<Integer>> mUsedColorsStartPosition;
     private List<Integer> mUsedColors;
-    private int[] mPositionDeltas;
+    private int[] mLayerStart; // index into mLayerPositions of the first pixel of each layer
+    private int[] mLayerPositions; // pixel positions sorted by layer
+    private int[] mResultPixels;
+    private PixelRaster mFragmentRaster;
     private ColorMetric mColorMetric;
 
     public AutoLayerReconstructor(Bitmap source, double factor, boolean useAlpha, ColorMetric metric, PercentProgressListener progress) {
@@ -57,65 +66,162 @@ public class AutoLayerReconstructor extends Reconstructor {
         mResult = obtainBaseBitmap(width, height,
                 Bitmap.Config.ARGB_8888);
         final int[] colors = new int[width * height];
-        final int[] deltas = new int[width * height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                colors[x + y * width] = source.getPixel(x, y);
-            }
-        }
+        source.getPixels(colors, 0, width, 0, 0, width, height);
         final double maxSim = mColorMetric.maxValue(mUseAlpha);
         final double sim = ColorAnalysisUtil.factorToSimilarityBound(factor);
         final int simBound = (int) (sim * maxSim);
-        final int alreadyReachedMarker = Integer.MIN_VALUE;
-        List<Integer> usedColors = new ArrayList<>();
-        List<Integer> usedColorsStartPosition = new ArrayList<>();
-
-        for (int analyzedToIndex = 0; analyzedToIndex < colors.length; analyzedToIndex++) {
-            // first try to evolve the current color further, under the assumption that similar colors are close to each other this is almost constant in operations
-            int currColor = colors[analyzedToIndex];
-            if (deltas[analyzedToIndex] == 0) {
-                // color not yet reached, use it as start color
-                usedColors.add(currColor);
-                usedColorsStartPosition.add(analyzedToIndex);
+
+        // histogram of the distinct colors
+        int[] sorted = Arrays.copyOf(colors, colors.length);
+        Arrays.sort(sorted);
+        int distinctCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinctCount++;
             }
-            deltas[analyzedToIndex] = 0; // marker no  longer required, reset delta
-
-            for (int currIndex = analyzedToIndex + 1; currIndex < colors.length; currIndex++) {
-                if (mColorMetric.getDistance(colors[currIndex], currColor, mUseAlpha) <= simBound) {
-                    colors[currIndex] = currColor;
-                    deltas[analyzedToIndex] = currIndex - analyzedToIndex;
-                    deltas[currIndex] = alreadyReachedMarker; // so it is not added as a new color when main loop reaches this index
-                    break;
-                }
+        }
+        int[] distinctColors = new int[distinctCount];
+        int[] distinctCounts = new int[distinctCount];
+        distinctCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinctColors[distinctCount++] = sorted[i];
             }
-            progress.onProgressUpdate((int) (100 * analyzedToIndex / (double) colors.length));
-        }
-
-        Log.d("HomeStuff", "DominantLayerReconstructor finished main work (hopefully) in " + (System.currentTimeMillis() - tic) + " has colors " + usedColors.size());
-
-        // now create actual color circles around the filtered used colors, only required if too many colors matched above that are similar but didnt know it
-        mUsedColorsStartPosition = new LinkedList<>();
-        mUsedColors = new LinkedList<>();
-        for (int i = 0; i < usedColors.size(); i++) {
-            int currColorI = usedColors.get(i);
-            mUsedColors.add(currColorI);
-            List<Integer> startPositions = new LinkedList<>();
-            mUsedColorsStartPosition.add(startPositions);
-            startPositions.add(usedColorsStartPosition.get(i));
-            for (int j = i + 1; j < usedColors.size(); j++) {
-                Integer potentialColor = usedColors.get(j);
-                if (mColorMetric.getDistance(currColorI, potentialColor, mUseAlpha) <= simBound) { // if the pixel != 0 check is not done you need to check here if delta is zero else multiple paths might leed together and result in way too many pixels being drawn
-                    startPositions.add(usedColorsStartPosition.get(j));
-                    usedColors.remove(j);
-                    usedColorsStartPosition.remove(j);
-                    j--;
+            distinctCounts[distinctCount - 1]++;
+        }
+        progress.onProgressUpdate(20);
+        Log.d("HomeStuff", "AutoLayerReconstructor built histogram in " + (System.currentTimeMillis() - tic) + " has colors " + distinctCount);
+
+        // merge colors into layers
+        int[] layerOfDistinct = new int[distinctCount];
+        mUsedColors = new ArrayList<>();
+        medianCut(distinctColors, distinctCounts, simBound, layerOfDistinct);
+        progress.onProgressUpdate(80);
+
+        // sort pixels by layer, reusing the sorted colors for the layer of each pixel
+        final int layerCount = mUsedColors.size();
+        int[] layerOfPixel = sorted;
+        mLayerStart = new int[layerCount + 1];
+        for (int i = 0; i < colors.length; i++) {
+            int layer = layerOfDistinct[Arrays.binarySearch(distinctColors, colors[i])];
+            layerOfPixel[i] = layer;
+            mLayerStart[layer + 1]++;
+        }
+        for (int layer = 0; layer < layerCount; layer++) {
+            mLayerStart[layer + 1] += mLayerStart[layer];
+        }
+        int[] nextPosition = Arrays.copyOf(mLayerStart, layerCount);
+        mLayerPositions = colors;
+        for (int i = 0; i < layerOfPixel.length; i++) {
+            mLayerPositions[nextPosition[layerOfPixel[i]]++] = i;
+        }
+        mResultPixels = new int[width * height];
+        Log.d("HomeStuff", "Finished AutoLayerReconstructor for " + width + "x" + height + " in " + (System.currentTimeMillis() - tic) + "ms, used colors: " + mUsedColors.size());
+    }
+
+    private void medianCut(int[] distinctColors, int[] distinctCounts, int simBound, int[] layerOfDistinct) {
+        final int channels = mUseAlpha ? 4 : 3;
+        int[] order = new int[distinctColors.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // stack of boxes given by their range in order
+        int[] stack = new int[64];
+        int stackSize = 0;
+        if (order.length > 0) {
+            stack[stackSize++] = 0;
+            stack[stackSize++] = order.length;
+        }
+        while (stackSize > 0) {
+            int to = stack[--stackSize];
+            int from = stack[--stackSize];
+
+            long red = 0, green = 0, blue = 0, alpha = 0, count = 0;
+            for (int i = from; i < to; i++) {
+                int color = distinctColors[order[i]];
+                long weight = distinctCounts[order[i]];
+                red += weight * ((color >> 16) & 0xFF);
+                green += weight * ((color >> 8) & 0xFF);
+                blue += weight * (color & 0xFF);
+                alpha += weight * (color >>> 24);
+                count += weight;
+            }
+            int mean = ColorAnalysisUtil.toRGB((int) (red / count), (int) (green / count),
+                    (int) (blue / count), (int) (alpha / count));
+            boolean similar = true;
+            for (int i = from; i < to && similar; i++) {
+                similar = mColorMetric.getDistance(mean, distinctColors[order[i]], mUseAlpha) <= simBound;
+            }
+            if (similar) {
+                int layer = mUsedColors.size();
+                mUsedColors.add(mean);
+                for (int i = from; i < to; i++) {
+                    layerOfDistinct[order[i]] = layer;
                 }
+                continue;
+            }
+            // not similar, so there are at least two colors and both halves will not be empty
+            int channel = widestChannel(distinctColors, order, from, to, channels);
+            int mid = (from + to) >>> 1;
+            select(distinctColors, order, from, to - 1, mid, channel);
+            if (stackSize + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
             }
+            stack[stackSize++] = mid;
+            stack[stackSize++] = to;
+            stack[stackSize++] = from;
+            stack[stackSize++] = mid;
         }
+    }
 
+    private static int widestChannel(int[] colors, int[] order, int from, int to, int channels) {
+        int bestChannel = ColorMetric.CHANNEL_RED;
+        int bestSpread = -1;
+        for (int channel = 0; channel < channels; channel++) {
+            int min = 255;
+            int max = 0;
+            for (int i = from; i < to; i++) {
+                int value = ColorMetric.getChannel(colors[order[i]], channel);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                bestChannel = channel;
+            }
+        }
+        return bestChannel;
+    }
 
-        mPositionDeltas = deltas;
-        Log.d("HomeStuff", "Finished DominantLayerReconstructor for " + width + "x" + height + " in " + (System.currentTimeMillis() - tic) + "ms, used colors: " + mUsedColors.size());
+    // quickselect on the order: afterwards the color at index k is at its sorted position regarding the channel
+    private static void select(int[] colors, int[] order, int left, int right, int k, int channel) {
+        while (right > left) {
+            int pivot = ColorMetric.getChannel(colors[order[(left + right) >>> 1]], channel);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (ColorMetric.getChannel(colors[order[i]], channel) < pivot) {
+                    i++;
+                }
+                while (ColorMetric.getChannel(colors[order[j]], channel) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
     }
 
     @Override
@@ -125,20 +231,23 @@ public class AutoLayerReconstructor extends Reconstructor {
             return false;
         }
         int width = mResult.getWidth();
-        List<Integer> startPositions = mUsedColorsStartPosition.get(mLayersApplied);
-
-        for (int position : startPositions) {
-            int delta;
-            do {
-                int x = position % width;
-                int y = position / width;
-                if (mResult.getPixel(x, y) != 0) {
-                    break;
-                }
-                mResult.setPixel(x, y, nextFragmentImage.getPixel(x, y));
-                delta = mPositionDeltas[position];
-                position += delta;
-            } while (delta > 0);
+        final int layerStart = mLayerStart[mLayersApplied];
+        final int layerEnd = mLayerStart[mLayersApplied + 1];
+        if ((long) (layerEnd - layerStart) * BULK_READ_MIN_FRACTION >= mResultPixels.length) {
+            if (mFragmentRaster == null) {
+                mFragmentRaster = PixelRaster.obtain(width, mResult.getHeight());
+            }
+            mFragmentRaster.readFrom(nextFragmentImage);
+            final int[] fragmentPixels = mFragmentRaster.getPixels();
+            for (int i = layerStart; i < layerEnd; i++) {
+                int position = mLayerPositions[i];
+                mResultPixels[position] = fragmentPixels[position];
+            }
+        } else {
+            for (int i = layerStart; i < layerEnd; i++) {
+                int position = mLayerPositions[i];
+                mResultPixels[position] = nextFragmentImage.getPixel(position % width, position / width);
+            }
         }
         mNext = null;
         mLayersApplied++;
@@ -168,6 +277,16 @@ public class AutoLayerReconstructor extends Reconstructor {
 
     @Override
     public Bitmap getReconstructed() {
+        if (mResultPixels != null) {
+            int width = mResult.getWidth();
+            mResult.setPixels(mResultPixels, 0, width, 0, 0, width, mResult.getHeight());
+            mResultPixels = null;
+            mLayerPositions = null;
+        }
+        if (mFragmentRaster != null) {
+            mFragmentRaster.release();
+            mFragmentRaster = null;
+        }
         return mResult;
     }
 
@@ -16,14 +16,14 @@
 package dan.dit.whatsthat.util.mosaic.reconstruction;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.util.Log;
 
-import java.util.Arrays;
 import java.util.Random;
 
 import dan.dit.whatsthat.util.general.PercentProgressListener;
+import dan.dit.whatsthat.util.image.ColorClusterer;
 import dan.dit.whatsthat.util.image.ColorMetric;
+import dan.dit.whatsthat.util.image.PixelRaster;
 
 /**
  * 'Better' version of AutoLayerReconstructor using the k-means algorithm
@@ -36,6 +36,9 @@ import dan.dit.whatsthat.util.image.ColorMetric;
 public class FixedLayerReconstructor extends Reconstructor {
     private static final int MAX_RECALCULATIONS_BASE = 5;
     private static final int MAX_RECALCULATIONS_LINEAR_GROWTH = 1;
+    // learn the centers on samples for huge images, the final assignment still uses all pixels
+    private static final int MINI_BATCH_MIN_PIXELS = 4000000;
+    private static final int MINI_BATCH_SIZE = 50000;
     private final boolean mUseAlpha;
     private final ColorMetric mColorMetric;
     private MosaicFragment mFragment;
@@ -61,20 +64,14 @@ public class FixedLayerReconstructor extends Reconstructor {
         mResult = obtainBaseBitmap(width, height,
                 Bitmap.Config.ARGB_8888);
         mClusterBitmaps = new Bitmap[clusterCount];
-        int[] pixelColors = new int[width * height];
+        PixelRaster sourceRaster = PixelRaster.obtain(source);
+        int[] pixelColors = sourceRaster.getPixels();
         mPixelClusterNumber = new int[width * height];
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                pixelColors[x + y * width] = source.getPixel(x, y);
-            }
-        }
-
         // k-means algorithm
         Random rand = new Random();
 
         int[] clusterCenters = new int[clusterCount];
-        double[] clusterWeights = new double[clusterCount];
 
         /* //init (with random centers, also other possibilities as convergence greatly depends on starting values)
         for (int i = 0; i < clusterCenters.length; i++) {
@@ -98,76 +95,17 @@ public class FixedLayerReconstructor extends Reconstructor {
             }
         }
 
-        int[] clusterCenterRed = new int[clusterCount];
-        int[] clusterCenterGreen = new int[clusterCount];
-        int[] clusterCenterBlue = new int[clusterCount];
-        int[] clusterCenterAlpha = mUseAlpha ? new int[clusterCount] : null;
-        int[] clusterSize = new int[clusterCount];
-        int redistributionCount = 0;
-        int maxRedistributions = MAX_RECALCULATIONS_BASE + MAX_RECALCULATIONS_LINEAR_GROWTH * clusterCount;
-        int changed = Integer.MAX_VALUE;
-        int lastChanged;
-        do {
-            // for improved speed we expect monotonous convergence in the amount of pixels changed, if this ever increases again we stop
-            lastChanged = changed;
-            changed = 0;
-            // redistribute into clusters
-            Arrays.fill(clusterWeights, 0.);
-            for (int i = 0; i < pixelColors.length; i++) {
-                int currColor = pixelColors[i];
-                double minWeightIncrease = Double.MAX_VALUE;
-                int minWeightIncreaseIndex = 0;
-                for (int cluster = 0; cluster < clusterCount; cluster++) {
-                    double currWeightIncrease = mColorMetric.getDistance(clusterCenters[cluster], currColor, mUseAlpha);
-                    if (currWeightIncrease < minWeightIncrease) {
-                        minWeightIncrease = currWeightIncrease;
-                        minWeightIncreaseIndex = cluster;
-                    }
-                }
-                clusterWeights[minWeightIncreaseIndex] += minWeightIncrease;
-                int oldNumber = mPixelClusterNumber[i];
-                mPixelClusterNumber[i] = minWeightIncreaseIndex;
-                if (oldNumber != minWeightIncreaseIndex) {
-                    changed++;
-                }
-            }
-            redistributionCount++;
-
-            // recalculate centers
-            Arrays.fill(clusterCenterRed, 0);
-            Arrays.fill(clusterCenterGreen, 0);
-            Arrays.fill(clusterCenterBlue, 0);
-            if (mUseAlpha) {
-                Arrays.fill(clusterCenterAlpha, 0);
-            }
-            Arrays.fill(clusterSize, 0);
-            for (int i = 0; i < pixelColors.length; i++) {
-                int cluster = mPixelClusterNumber[i];
-                int color = pixelColors[i];
-                clusterCenterRed[cluster] += Color.red(color);
-                clusterCenterGreen[cluster] += Color.green(color);
-                clusterCenterBlue[cluster] += Color.blue(color);
-                if (mUseAlpha) {
-                    clusterCenterAlpha[cluster] += Color.alpha(color);
-                }
-                clusterSize[cluster]++;
-            }
-            for (int cluster = 0; cluster < clusterCount; cluster++) {
-                int size = clusterSize[cluster];
-                if (size > 0) {
-                    int red = clusterCenterRed[cluster] / size;
-                    int green = clusterCenterGreen[cluster] / size;
-                    int blue = clusterCenterBlue[cluster] / size;
-                    int alpha = mUseAlpha ? clusterCenterAlpha[cluster] / size : 255;
-                    clusterCenters[cluster] = Color.argb(alpha, red, green, blue);
-                }
-            }
-            progress.onProgressUpdate((int) (PercentProgressListener.PROGRESS_COMPLETE * redistributionCount / (double) maxRedistributions));
-            Log.d("HomeStuff", "ClusterLayerReconstructor changed pixels: " + changed + " in run " + redistributionCount);
-        } while (changed <= lastChanged && redistributionCount < maxRedistributions);
-        Log.d("HomeStuff", "Finished ClusteredLayerReconstructor with " + redistributionCount + " recalculations for " + clusterCount + " clusters.");
+        ColorClusterer clusterer = new ColorClusterer(mColorMetric, mUseAlpha);
+        clusterer.setMaxIterations(MAX_RECALCULATIONS_BASE + MAX_RECALCULATIONS_LINEAR_GROWTH * clusterCount);
+        if (pixelColors.length >= MINI_BATCH_MIN_PIXELS) {
+            clusterer.setMiniBatchSize(MINI_BATCH_SIZE);
+        }
+        if (!clusterer.cluster(pixelColors, width, clusterCenters, mPixelClusterNumber, progress)) {
+            Log.e("HomeStuff", "Clustering did not finish, using partial clusters.");
+        }
+        sourceRaster.release();
+        Log.d("HomeStuff", "Finished ClusteredLayerReconstructor for " + clusterCount + " clusters.");
         mClusterColors = clusterCenters;
-        progress.onProgressUpdate(PercentProgressListener.PROGRESS_COMPLETE);
     }
 
     @Override
@@ -196,13 +134,21 @@ public class FixedLayerReconstructor extends Reconstructor {
 
     @Override
     public Bitmap getReconstructed() {
-        int width = mResult.getWidth();
-        for (int i = 0; i < mPixelClusterNumber.length; i++) {
-            int x = i % width;
-            int y = i / width;
-            int cluster = mPixelClusterNumber[i];
-            mResult.setPixel(x, y, mClusterBitmaps[cluster].getPixel(x, y));
+        PixelRaster result = PixelRaster.obtain(mResult.getWidth(), mResult.getHeight());
+        PixelRaster clusterRaster = PixelRaster.obtain(mResult.getWidth(), mResult.getHeight());
+        final int[] resultPixels = result.getPixels();
+        final int[] clusterPixels = clusterRaster.getPixels();
+        for (int cluster = 0; cluster < mClusterBitmaps.length; cluster++) {
+            clusterRaster.readFrom(mClusterBitmaps[cluster]);
+            for (int i = 0; i < mPixelClusterNumber.length; i++) {
+                if (mPixelClusterNumber[i] == cluster) {
+                    resultPixels[i] = clusterPixels[i];
+                }
+            }
         }
+        clusterRaster.release();
+        result.writeTo(mResult);
+        result.release();
         return mResult;
     }
 
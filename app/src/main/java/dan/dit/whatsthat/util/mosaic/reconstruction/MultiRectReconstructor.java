@@ -18,6 +18,10 @@ package dan.dit.whatsthat.util.mosaic.reconstruction;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
 
@@ -194,7 +198,7 @@ public class MultiRectReconstructor extends ShapeReconstructor {
 		if (this.lastGivenColumn < 0 || this.lastGivenRow < 0) {
 			this.lastGivenColumn = 0;
 			this.lastGivenRow = 0;
-			this.next = this.unite(this.lastGivenRow, this.lastGivenColumn);
+			this.next = this.unite(this.lastGivenRow, this.lastGivenColumn, mFragment);
 			return this.next;
 		} else if (this.next == null) {
 			do {
@@ -213,7 +217,7 @@ public class MultiRectReconstructor extends ShapeReconstructor {
 				// reached the last row, end, we got all images
 				return null;
 			} else {
-				this.next = this.unite(this.lastGivenRow, this.lastGivenColumn);
+				this.next = this.unite(this.lastGivenRow, this.lastGivenColumn, mFragment);
 				return this.next;
 			}
 		} else {
@@ -228,11 +232,12 @@ public class MultiRectReconstructor extends ShapeReconstructor {
 	 * method.
 	 * @param row The row index.
 	 * @param column The column index.
-	 * @return A fragment of height equal to the sum of heights of all connected fragments
+	 * @param fragment The fragment to reset to the united values.
+	 * @return The given fragment of height equal to the sum of heights of all connected fragments
 	 * in a column and of width equal to the sum of widths of all connected fragments
 	 * in a row. The average color is the mixed average color of all rects.
 	 */
-	private MosaicFragment unite(int row, int column) {
+	private MosaicFragment unite(int row, int column, MosaicFragment fragment) {
 		// calculate width of the Fragment rect
 		int rectColumnCount = 0;
 		int currColumn = column;
@@ -249,11 +254,40 @@ public class MultiRectReconstructor extends ShapeReconstructor {
 			currRow++;
 		} while (currRow < this.getRowCount() && this.isConnected(currRow, column, FragmentNeighbor.UP));
 		// as all connected ShapeFragments have equal average RGB, I can simly use the corners one
-        mFragment.reset(rectColumnCount * this.getRectWidth(), rectRowCount * this.getRectHeight(),
+        fragment.reset(rectColumnCount * this.getRectWidth(), rectRowCount * this.getRectHeight(),
 				this.getAverageRGB(row, column));
-        return mFragment;
+        return fragment;
 	}
 	
+	@Override
+	public List<MosaicFragment> nextFragments(int max) {
+		MosaicFragment first = max > 0 ? this.nextFragment() : null;
+		if (first == null) {
+			return Collections.emptyList();
+		}
+		List<MosaicFragment> fragments = new ArrayList<>(max);
+		fragments.add(new MosaicFragment(first.getWidth(), first.getHeight(), first.getAverageRGB()));
+		int row = this.lastGivenRow;
+		int column = this.lastGivenColumn;
+		while (fragments.size() < max) {
+			// same walk as nextFragment() but without touching the state
+			do {
+				column++;
+				if (column == this.getColumnCount()) {
+					row++;
+					column = 0;
+				}
+			} while (row < this.getRowCount()
+					&& (this.isConnected(row, column, FragmentNeighbor.LEFT)
+					|| this.isConnected(row, column, FragmentNeighbor.UP)));
+			if (row >= this.getRowCount()) {
+				break;
+			}
+			fragments.add(this.unite(row, column, new MosaicFragment(0, 0, 0)));
+		}
+		return fragments;
+	}
+
 	@Override
 	public boolean hasAll() {
 		return this.nextFragment() == null;
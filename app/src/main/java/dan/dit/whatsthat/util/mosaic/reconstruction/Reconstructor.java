@@ -18,6 +18,9 @@ package dan.dit.whatsthat.util.mosaic.reconstruction;
 
 import android.graphics.Bitmap;
 
+import java.util.Collections;
+import java.util.List;
+
 import dan.dit.whatsthat.util.image.ImageUtil;
 
 /**
@@ -60,6 +63,43 @@ public abstract class Reconstructor {
 	 */
 	public abstract MosaicFragment nextFragment();
 	
+	/**
+	 * Returns up to max next MosaicFragments in the order their images have to be given
+	 * by giveAll() or giveNext(). This does not change the state of the reconstructor, so
+	 * asking again before giving images returns the same fragments. The returned fragments
+	 * are not reused by the reconstructor.
+	 * The default implementation only knows about the very next fragment.
+	 * @param max The maximum amount of fragments to return.
+	 * @return The next fragments, at least one if hasAll() is <code>false</code> and max is positive.
+	 */
+	public List<MosaicFragment> nextFragments(int max) {
+		MosaicFragment next = max > 0 ? nextFragment() : null;
+		if (next == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(new MosaicFragment(next.getWidth(), next.getHeight(),
+				next.getAverageRGB()));
+	}
+
+	/**
+	 * Gives the Reconstructor the images for the fragments returned by nextFragments() in
+	 * the same order. Images are given one by one and this stops at the first image that is
+	 * not accepted.
+	 * @param nextFragmentImages The images for the next fragments.
+	 * @return The amount of accepted images.
+	 */
+	public int giveAll(List<Bitmap> nextFragmentImages) {
+		int accepted = 0;
+		for (Bitmap image : nextFragmentImages) {
+			// some reconstructors only accept images for the fragment they handed out last
+			if (nextFragment() == null || !giveNext(image)) {
+				break;
+			}
+			accepted++;
+		}
+		return accepted;
+	}
+
 	/**
 	 * Returns <code>true</code> if all images needed were provided. Can
 	 * If this is <code>true</code>, nextFragment will return <code>null</code>.
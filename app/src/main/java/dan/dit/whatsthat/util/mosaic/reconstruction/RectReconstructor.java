@@ -20,6 +20,9 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 
 /**
@@ -67,24 +70,24 @@ public class RectReconstructor extends Reconstructor {
 				Bitmap.Config.ARGB_8888);
         Log.d("HomeStuff", "RectReconstructor: Source " + source.getWidth() + "/" + source.getHeight() + " result " + result.getWidth() + "/" + result.getHeight() + " actual rows/columns" + actualRows + "/" + actualColumns);
         mResultCanvas = new Canvas(result);
-        evaluateResultingRGBA(source, actualRows, actualColumns);
+        evaluateResultingRGBA(source);
 	}
 
-	private void evaluateResultingRGBA(Bitmap source, int rows, int columns) {
-        // evaluate the fragments average colors
-        for (int heightIndex = 0; heightIndex < rows; heightIndex++) {
-            for (int widthIndex = 0; widthIndex < columns; widthIndex++) {
-                this.resultingRGBA[heightIndex][widthIndex]
-                        = evaluateRectValue(source, widthIndex * this.mRectWidth,
-                        (widthIndex + 1) * this.mRectWidth,
-                        heightIndex * this.mRectHeight,
-                        (heightIndex + 1) * this.mRectHeight);
-            }
-        }
+	private void evaluateResultingRGBA(Bitmap source) {
+        // evaluate the fragments values, the fragments do not overlap so this reads each pixel once
+        evaluateRectValues(source, this.resultingRGBA, this.mRectWidth, this.mRectHeight);
     }
 
-    protected int evaluateRectValue(Bitmap source, int startX, int endX, int startY, int endY) {
-        return ColorAnalysisUtil.getAverageColor(source, startX, endX, startY, endY);
+    /**
+     * Evaluates the value of every rect of the grid, by default its average color. Invoked by
+     * the constructor.
+     * @param source The source bitmap.
+     * @param values Receives the value of each rect, indexed by row and column.
+     * @param rectWidth The width of a rect.
+     * @param rectHeight The height of a rect.
+     */
+    protected void evaluateRectValues(Bitmap source, int[][] values, int rectWidth, int rectHeight) {
+        ColorAnalysisUtil.getAverageColors(source, rectWidth, rectHeight, values);
     }
 	
 	/**
@@ -131,6 +134,17 @@ public class RectReconstructor extends Reconstructor {
 		}
 	}
 
+	@Override
+	public List<MosaicFragment> nextFragments(int max) {
+		int end = Math.min(this.nextImageIndex + Math.max(max, 0), this.getRows() * this.getColumns());
+		List<MosaicFragment> fragments = new ArrayList<>(Math.max(end - this.nextImageIndex, 0));
+		for (int index = this.nextImageIndex; index < end; index++) {
+			fragments.add(new MosaicFragment(this.mRectWidth, this.mRectHeight,
+					this.resultingRGBA[index / this.getColumns()][index % this.getColumns()]));
+		}
+		return fragments;
+	}
+
 	@Override
 	public boolean hasAll() {
 		return this.nextImageIndex >= this.getRows() * this.getColumns();
@@ -78,16 +78,7 @@ abstract class ShapeReconstructor extends Reconstructor {
 		this.raster = new boolean[maxRows][maxColumns]
 				[(allowCornerConnections) ? FragmentNeighbor.COUNT : FragmentNeighbor.SIDES.length];
 		this.averageRGB = new int[maxRows][maxColumns];
-		
-		for (int r = 0; r < maxRows; r++) {
-			for (int c = 0; c < maxColumns; c++) {
-				int startX = c * this.rectWidth;
-				int startY = r * this.rectHeight;
-				int endX = (c + 1) * this.rectWidth;
-				int endY = (r + 1) * this.rectHeight;
-				this.averageRGB[r][c] = ColorAnalysisUtil.getAverageColor(image, startX, endX, startY, endY);
-			}
-		}
+		ColorAnalysisUtil.getAverageColors(image, this.rectWidth, this.rectHeight, this.averageRGB);
 	}
 	
 	/**
@@ -9,6 +9,7 @@ import android.support.annotation.NonNull;
 import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
 import dan.dit.whatsthat.util.image.ImageUtil;
+import dan.dit.whatsthat.util.image.SummedAreaTable;
 import dan.dit.whatsthat.util.mosaic.matching.TileMatcher;
 import dan.dit.whatsthat.util.mosaic.matching.TrivialMatcher;
 
@@ -17,7 +18,6 @@ import dan.dit.whatsthat.util.mosaic.matching.TrivialMatcher;
  */
 public class CirclePatternReconstructor extends PatternReconstructor {
     public static final String NAME = "Circles";
-    private double[] mRaster;
     private double mAverageBrightness;
 
     public static class Source<S> extends PatternSource<S> {
@@ -66,67 +66,33 @@ public class CirclePatternReconstructor extends PatternReconstructor {
     }
 
     @Override
-    protected int evaluateRectValue(Bitmap source, int startX, int endX, int startY, int endY) {
-        ensureAverageBrightness(source);
-        fillRaster(source, startX, endX, startY, endY);
-        int width = endX - startX;
-        int height = endY - startY;
-        return calculateColor(mRaster, mAverageBrightness, width, height,
-                0, 0, Math.max(width, height) + 1);
-    }
-
-    private void fillRaster(Bitmap source, int startX, int endX, int startY, int endY) {
-        int width = endX - startX;
-        int height = endY - startY;
-        if (mRaster == null || mRaster.length != width * height) {
-            mRaster = new double[width * height];
-        }
-        int index = 0;
-        for (int j = startY; j < endY; j++) {
-            for (int i = startX; i < endX; i++) {
-                mRaster[index++] = ColorAnalysisUtil.getBrightnessWithAlpha(source.getPixel(i, j));
-            }
-        }
-    }
-
-    private void ensureAverageBrightness(Bitmap source) {
-        if (mAverageBrightness > 0.) {
-            return;
-        }
-        mAverageBrightness = 0.;
-        for (int y = 0; y < source.getHeight(); y++) {
-            for (int x = 0; x < source.getWidth(); x++) {
-                mAverageBrightness += ColorAnalysisUtil.getBrightnessWithAlpha(source.getPixel(x,
-                        y));
+    protected void evaluateRectValues(Bitmap source, int[][] values, int rectWidth, int rectHeight) {
+        // only brightness is needed, it also gives the average brightness of the whole source
+        SummedAreaTable table = new SummedAreaTable(source, SummedAreaTable.FEATURE_BRIGHTNESS);
+        mAverageBrightness = table.getAverageBrightness();
+        for (int row = 0; row < values.length; row++) {
+            for (int column = 0; column < values[row].length; column++) {
+                values[row][column] = brightnessToColor(table.getAverageBrightness(
+                        column * rectWidth, (column + 1) * rectWidth,
+                        row * rectHeight, (row + 1) * rectHeight), mAverageBrightness);
             }
         }
-        mAverageBrightness /= source.getWidth() * source.getHeight();
-        mAverageBrightness = Math.max(mAverageBrightness, Double.MIN_VALUE); // to ensure it is
-        // positive and brightness not calculated over and over if it would be exactly zero
     }
 
-    public static int calculateColor(double[] raster, double averageBrightness,
-                                     int bitmapWidth, int bitmapHeight,
+    public static int calculateColor(SummedAreaTable brightnessTable, double averageBrightness,
                                      float x, float y, float r) {
         // by default this calculates the average brightness of the area [x-r,x+r][y-r,y+r]
+        // do not only consider pixels within the circle but within the square defined by the circle bounds
         int left = (int)(x - r);
         int right = (int)(x + r);
         int top = (int)(y - r);
         int bottom = (int)(y + r);
-        double brightness = 0;
-        double consideredPoints = 0;
-        // do not only consider pixels within the circle but within the square defined by the circle bounds
-        for (int i = Math.max(0, left); i <= Math.min(right, bitmapWidth - 1); i++) {
-            for (int j = Math.max(0, top); j <= Math.min(bottom, bitmapHeight - 1); j++) {
-                int rasterIndex = j * bitmapWidth + i;
-                if (rasterIndex >= 0 && rasterIndex < raster.length) {
-                    brightness += raster[rasterIndex];
-                    consideredPoints++;
-                }
-            }
-        }
+        return brightnessToColor(brightnessTable.getAverageBrightness(left, right + 1, top,
+                bottom + 1), averageBrightness);
+    }
+
+    private static int brightnessToColor(double brightness, double averageBrightness) {
         // 1 = very bright -> white
-        brightness /= consideredPoints;
         // logistic filter 1/(1+e^(-kx)) to minimize grey values and emphasize bright and dark ones
         // use higher k for less grey values
         brightness = 1. / (1. + Math.exp(-15. * (brightness - averageBrightness)));
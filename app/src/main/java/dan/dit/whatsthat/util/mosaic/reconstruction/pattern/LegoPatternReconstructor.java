@@ -14,7 +14,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import dan.dit.whatsthat.R;
-import dan.dit.whatsthat.util.image.ColorAnalysisUtil;
 import dan.dit.whatsthat.util.image.ColorMetric;
 import dan.dit.whatsthat.util.image.ImageUtil;
 import dan.dit.whatsthat.util.mosaic.data.MosaicTile;
@@ -73,11 +72,6 @@ public class LegoPatternReconstructor extends PatternReconstructor {
 
     }
 
-    @Override
-    protected int evaluateRectValue(Bitmap source, int startX, int endX, int startY, int endY) {
-        return ColorAnalysisUtil.getAverageColor(source, startX, endX, startY, endY);
-    }
-
     @Override
     public <S> PatternSource<S> makeSource() {
         return new LegoPatternReconstructor.Source<>(mLegoBitmap);
@@ -24,11 +24,6 @@ public abstract class PatternReconstructor extends RectReconstructor {
         mResultCanvas.drawColor(groundingColor);
     }
 
-    // this is invoked by parent constructor, not best practice as subclass constructor not yet
-    // initialized (missing members ...!)
-    protected abstract int evaluateRectValue(Bitmap source, int startX, int endX, int startY, int
-            endY);
-
     public abstract <S> PatternSource<S> makeSource();
 
     public abstract <S> TileMatcher<S> makeMatcher(boolean useAlpha, ColorMetric metric);